@@ -26,25 +26,32 @@ import com.android.launcher3.AppFilter
 import com.android.launcher3.AppInfo
 import com.android.launcher3.LauncherAppState
 import com.android.launcher3.allapps.search.AllAppsSearchBarController
+import com.android.launcher3.allapps.search.AppSearchIndex
 import com.android.launcher3.allapps.search.SearchAlgorithm
 import com.android.launcher3.compat.LauncherAppsCompat
 import com.android.launcher3.compat.UserManagerCompat
-import me.xdrop.fuzzywuzzy.FuzzySearch
-import me.xdrop.fuzzywuzzy.ToStringFunction
 import org.zimmob.zimlx.ZimAppFilter
 import org.zimmob.zimlx.globalsearch.SearchProviderController
 import org.zimmob.zimlx.globalsearch.providers.web.WebSearchProvider
+import org.zimmob.zimlx.globalsearch.providers.web.WebSuggestionsLoader
 import org.zimmob.zimlx.zimPrefs
 
-class FuzzyAppSearchAlgorithm(private val context: Context, private val apps: List<AppInfo>) :
+class FuzzyAppSearchAlgorithm(private val context: Context, private val index: AppSearchIndex,
+                               private val apps: List<AppInfo>) :
         SearchAlgorithm {
 
     private var resultHandler: Handler = Handler()
     private var baseFilter: AppFilter = ZimAppFilter(context)
+    private val scorer = FuzzyScorer()
+    private val suggestionsLoader = WebSuggestionsLoader.getInstance(context)
 
     override fun doSearch(query: String, callback: AllAppsSearchBarController.Callbacks) {
-        val res = query(context, query, apps, baseFilter).map { it.toComponentKey() }
-        val suggestions = getSuggestions(query)
+        val res = scorer.rank(query, index.getSearchableEntries(context, baseFilter, apps),
+                MIN_SCORE, Int.MAX_VALUE, { it.title }, { it.fuzzyTitle }).map { it.key }
+        // The apps are sent right away, the suggestions follow once they are loaded
+        val suggestions = getSuggestions(query) { suggestions ->
+            callback.onSearchResult(query, null, suggestions)
+        }
         resultHandler.post {
             callback.onSearchResult(query, ArrayList(res), suggestions)
         }
@@ -53,13 +60,19 @@ class FuzzyAppSearchAlgorithm(private val context: Context, private val apps: Li
     override fun cancel(interruptActiveRequests: Boolean) {
         if (interruptActiveRequests) {
             resultHandler.removeCallbacksAndMessages(null)
+            suggestionsLoader.cancel()
         }
     }
 
-    private fun getSuggestions(query: String): List<String> {
+    private fun getSuggestions(query: String, callback: (List<String>) -> Unit): List<String>? {
         val provider = SearchProviderController
                 .getInstance(context).searchProvider
-        return (provider as? WebSearchProvider)?.getSuggestions(query) ?: emptyList()
+        val suggestionsUrl = (provider as? WebSearchProvider)?.suggestionsUrl
+        if (suggestionsUrl == null) {
+            suggestionsLoader.cancel()
+            return emptyList()
+        }
+        return suggestionsLoader.load(suggestionsUrl, query, callback)
     }
 
     companion object {
@@ -90,13 +103,12 @@ class FuzzyAppSearchAlgorithm(private val context: Context, private val apps: Li
         @JvmStatic
         fun query(context: Context, query: String, defaultApps: List<AppInfo>,
                   filter: AppFilter): List<AppInfo> {
-            return FuzzySearch.extractAll(query, getApps(context, defaultApps, filter),
-                    ToStringFunction<AppInfo> { item ->
-                        item?.title.toString()
-                    }, WinklerWeightedRatio(), MIN_SCORE)
-                    .sortedBy { it.referent.title.toString() }
-                    .sortedByDescending { it.score }
-                    .map { it.referent }
+            return query(query, getApps(context, defaultApps, filter))
+        }
+
+        private fun query(query: String, apps: List<AppInfo>): List<AppInfo> {
+            return FuzzyScorer().rank(query, apps, MIN_SCORE, Int.MAX_VALUE,
+                    { it.title.toString() })
         }
     }
 }
\ No newline at end of file
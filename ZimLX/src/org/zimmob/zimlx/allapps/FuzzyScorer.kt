@@ -0,0 +1,390 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.allapps
+
+import java.util.PriorityQueue
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Fuzzy scorer for the all apps search, scoring like [WinklerWeightedRatio] used
+ * through FuzzySearch.extractAll, without the general purpose diff machinery.
+ *
+ * All ratios are based on the longest common subsequence of two strings, which is the same as
+ * the Levenshtein distance with a substitution cost of 2 used by fuzzywuzzy. It is computed with
+ * the bit-parallel algorithm by Hyyrö for strings of up to 64 characters. Partial ratios compare
+ * the same windows as fuzzywuzzy, so all scores are exactly the same as with fuzzywuzzy.
+ *
+ * This class keeps scratch state and must only be used from one thread at a time. It has no
+ * Android dependencies so that it can be benchmarked on a plain JVM.
+ */
+class FuzzyScorer {
+
+    private val asciiMasks = LongArray(128)
+    private val otherMasks = HashMap<Char, Long>()
+    private var pattern: String? = null
+
+    /**
+     * Returns all [items] scoring at least [minScore] against [query], best first and ordered
+     * by title for equal scores, then in the order of [items]. Keeps at most [limit] results.
+     *
+     * @param processedTitleOf returns the title passed through [process], which callers can
+     * compute once per item rather than for every query.
+     */
+    fun <T> rank(query: String, items: Collection<T>, minScore: Int, limit: Int,
+                 titleOf: (T) -> String,
+                 processedTitleOf: (T) -> String = { process(titleOf(it)) }): List<T> {
+        if (limit <= 0) return emptyList()
+        val processedQuery = process(query)
+        val order = compareByDescending<Scored<T>> { it.score }.thenBy { it.title }
+                .thenBy { it.position }
+        // Keep the worst result at the head so that it can be dropped once we have enough
+        val heap = PriorityQueue<Scored<T>>(min(limit, max(items.size, 1)), order.reversed())
+        for ((position, item) in items.withIndex()) {
+            val score = score(processedQuery, processedTitleOf(item), minScore)
+            if (score < minScore) continue
+            heap.add(Scored(item, titleOf(item), score, position))
+            if (heap.size > limit) {
+                heap.poll()
+            }
+        }
+        return heap.sortedWith(order).map { it.item }
+    }
+
+    /**
+     * Scores two strings which were passed through [process]. Returns early with a score below
+     * [minScore] if the strings can't reach it.
+     */
+    fun score(first: String, second: String, minScore: Int = 0): Int {
+        val cl = commonPrefixLength(first, second)
+        val prefixBoost = SCALING_FACTOR * cl
+        // The lowest weighted ratio which can still reach minScore, with some room for rounding
+        val minRatio = (minScore / 100.0 - prefixBoost) / (1.0 - prefixBoost) * 100 - 1
+        val ratio = weightedRatio(first, second, minRatio) / 100.0
+        return ((ratio + prefixBoost * (1.0 - ratio)) * 100).roundToInt()
+    }
+
+    /**
+     * Same as fuzzywuzzy's WeightedRatio. Returns [base] as soon as it is clear that the result
+     * can't reach [minRatio].
+     */
+    private fun weightedRatio(s1: String, s2: String, minRatio: Double): Int {
+        val len1 = s1.length
+        val len2 = s2.length
+        if (len1 == 0 || len2 == 0) return 0
+
+        val base = ratio(s1, s2)
+        val lenRatio = max(len1, len2).toDouble() / min(len1, len2)
+        if (lenRatio < 1.5) {
+            // Similar lengths, don't use partials. Token ratios are scaled to at most 95.
+            if (base >= 100 * UNBASE_SCALE || 100 * UNBASE_SCALE < minRatio) return base
+            val tokenSort = tokenSortRatio(s1, s2, false) * UNBASE_SCALE
+            val tokenSet = tokenSetRatio(s1, s2, false) * UNBASE_SCALE
+            return maxOf(base.toDouble(), tokenSort, tokenSet).roundToInt()
+        }
+
+        // One string is much shorter than the other
+        val partialScale = if (lenRatio > 8) .6 else PARTIAL_SCALE
+        if (base >= 100 * partialScale || 100 * partialScale < minRatio) return base
+        val partial = partialRatio(s1, s2) * partialScale
+        if (partial >= 100 * UNBASE_SCALE * partialScale) {
+            // The token ratios are scaled down further, they can't beat this
+            return max(base.toDouble(), partial).roundToInt()
+        }
+        val partialSort = tokenSortRatio(s1, s2, true) * UNBASE_SCALE * partialScale
+        val partialSet = tokenSetRatio(s1, s2, true) * UNBASE_SCALE * partialScale
+        return maxOf(base.toDouble(), partial, partialSort, partialSet).roundToInt()
+    }
+
+    private fun ratio(s1: String, s2: String): Int {
+        val lenSum = s1.length + s2.length
+        if (lenSum == 0) return 0
+        return (100.0 * 2 * lcs(s1, s2, 0, s2.length) / lenSum).roundToInt()
+    }
+
+    /**
+     * Same as fuzzywuzzy's PartialRatio: the shorter string is compared with the windows of the
+     * longer one which line up with the matching blocks between them.
+     */
+    private fun partialRatio(s1: String, s2: String): Int {
+        val shorter = if (s1.length < s2.length) s1 else s2
+        val longer = if (s1.length < s2.length) s2 else s1
+        val length = shorter.length
+        if (length == 0) return 0
+
+        var best = 0.0
+        val starts = windowStarts(shorter, longer)
+        for (start in starts) {
+            if (start < 0) break
+            val end = min(start + length, longer.length)
+            val ratio = 2.0 * lcs(shorter, longer, start, end) / (length + end - start)
+            if (ratio > .995) return 100
+            if (ratio > best) best = ratio
+        }
+        return (100 * best).roundToInt()
+    }
+
+    /**
+     * Returns the start in [s2] of the window which lines up with each matching block between
+     * [s1] and [s2], followed by -1 for unused entries.
+     *
+     * The blocks are the ones fuzzywuzzy gets from the Levenshtein edit operations, in the port
+     * of python-Levenshtein's matching_blocks. Which blocks are found depends on the path taken
+     * through the cost matrix, so this has to take the same path: after stripping the common
+     * prefix and suffix, it walks back from the end preferring to continue in the same
+     * direction, then keeping or replacing, then inserting and deleting.
+     */
+    private fun windowStarts(s1: String, s2: String): IntArray {
+        var prefix = 0
+        while (prefix < s1.length && prefix < s2.length && s1[prefix] == s2[prefix]) {
+            prefix++
+        }
+        var suffix = 0
+        while (suffix < s1.length - prefix && suffix < s2.length - prefix
+                && s1[s1.length - 1 - suffix] == s2[s2.length - 1 - suffix]) {
+            suffix++
+        }
+
+        // matrix[i * cols + j] is the edit distance of the first i and j stripped characters
+        val rows = s1.length - prefix - suffix + 1
+        val cols = s2.length - prefix - suffix + 1
+        val matrix = IntArray(rows * cols)
+        for (j in 0 until cols) matrix[j] = j
+        for (i in 1 until rows) {
+            val row = i * cols
+            matrix[row] = i
+            val c1 = s1[prefix + i - 1]
+            for (j in 1 until cols) {
+                val replace = matrix[row - cols + j - 1] + if (c1 != s2[prefix + j - 1]) 1 else 0
+                matrix[row + j] = minOf(matrix[row + j - 1] + 1, replace,
+                        matrix[row - cols + j] + 1)
+            }
+        }
+
+        // Walk back to find the edit operations, stored as their type and positions
+        val count = matrix[rows * cols - 1]
+        val types = IntArray(count)
+        val sourcePositions = IntArray(count)
+        val destPositions = IntArray(count)
+        var pos = count
+        var i = rows - 1
+        var j = cols - 1
+        var p = rows * cols - 1
+        var dir = 0
+        while (i > 0 || j > 0) {
+            val type: Int
+            if (dir < 0 && j > 0 && matrix[p] == matrix[p - 1] + 1) {
+                type = OP_INSERT
+                j--
+                p--
+            } else if (dir > 0 && i > 0 && matrix[p] == matrix[p - cols] + 1) {
+                type = OP_DELETE
+                i--
+                p -= cols
+            } else if (i > 0 && j > 0 && matrix[p] == matrix[p - cols - 1]
+                    && s1[prefix + i - 1] == s2[prefix + j - 1]) {
+                i--
+                j--
+                p -= cols + 1
+                dir = 0
+                continue
+            } else if (i > 0 && j > 0 && matrix[p] == matrix[p - cols - 1] + 1) {
+                type = OP_REPLACE
+                i--
+                j--
+                p -= cols + 1
+                dir = 0
+            } else if (dir == 0 && j > 0 && matrix[p] == matrix[p - 1] + 1) {
+                type = OP_INSERT
+                j--
+                p--
+                dir = -1
+            } else if (dir == 0 && i > 0 && matrix[p] == matrix[p - cols] + 1) {
+                type = OP_DELETE
+                i--
+                p -= cols
+                dir = 1
+            } else {
+                throw IllegalStateException("Lost in the cost matrix")
+            }
+            pos--
+            types[pos] = type
+            sourcePositions[pos] = i + prefix
+            destPositions[pos] = j + prefix
+        }
+
+        // A block starts wherever the operations skip over unchanged characters, and there is
+        // always a final empty block at the end of both strings
+        val starts = IntArray(count + 2) { -1 }
+        var blocks = 0
+        var sourcePos = 0
+        var destPos = 0
+        for (k in 0 until count) {
+            if (sourcePos < sourcePositions[k] || destPos < destPositions[k]) {
+                starts[blocks++] = max(destPos - sourcePos, 0)
+                sourcePos = sourcePositions[k]
+                destPos = destPositions[k]
+            }
+            if (types[k] != OP_INSERT) sourcePos++
+            if (types[k] != OP_DELETE) destPos++
+        }
+        if (sourcePos < s1.length || destPos < s2.length) {
+            starts[blocks++] = max(destPos - sourcePos, 0)
+        }
+        starts[blocks] = max(s2.length - s1.length, 0)
+        return starts
+    }
+
+    private fun tokenSortRatio(s1: String, s2: String, partial: Boolean): Int {
+        return partialOrRatio(sortTokens(s1), sortTokens(s2), partial)
+    }
+
+    private fun tokenSetRatio(s1: String, s2: String, partial: Boolean): Int {
+        val tokens1 = tokenize(s1).toSortedSet()
+        val tokens2 = tokenize(s2).toSortedSet()
+        val sortedIntersection = tokens1.intersect(tokens2).joinToString(" ").trim()
+        val sorted1to2 = (sortedIntersection + " " + (tokens1 - tokens2).joinToString(" ")).trim()
+        val sorted2to1 = (sortedIntersection + " " + (tokens2 - tokens1).joinToString(" ")).trim()
+        return maxOf(partialOrRatio(sortedIntersection, sorted1to2, partial),
+                partialOrRatio(sortedIntersection, sorted2to1, partial),
+                partialOrRatio(sorted1to2, sorted2to1, partial))
+    }
+
+    private fun partialOrRatio(s1: String, s2: String, partial: Boolean) =
+            if (partial) partialRatio(s1, s2) else ratio(s1, s2)
+
+    /**
+     * Returns the length of the longest common subsequence of [a] and the range
+     * [[start], [end]) of [b].
+     */
+    private fun lcs(a: String, b: String, start: Int, end: Int): Int {
+        if (a.length > WORD_SIZE) {
+            return if (end - start <= WORD_SIZE) {
+                lcs(b.substring(start, end), a, 0, a.length)
+            } else {
+                lcsSlow(a, b, start, end)
+            }
+        }
+        if (a.isEmpty()) return 0
+
+        setPattern(a)
+        var v = -1L
+        for (i in start until end) {
+            val u = v and maskOf(b[i])
+            v = (v + u) or (v - u)
+        }
+        val used = if (a.length == WORD_SIZE) -1L else (1L shl a.length) - 1
+        return a.length - java.lang.Long.bitCount(v and used)
+    }
+
+    private fun lcsSlow(a: String, b: String, start: Int, end: Int): Int {
+        var previous = IntArray(end - start + 1)
+        var current = IntArray(end - start + 1)
+        for (i in a.indices) {
+            for (j in start until end) {
+                val col = j - start + 1
+                current[col] = if (a[i] == b[j]) previous[col - 1] + 1
+                else max(previous[col], current[col - 1])
+            }
+            val tmp = previous
+            previous = current
+            current = tmp
+        }
+        return previous[end - start]
+    }
+
+    private fun setPattern(a: String) {
+        if (a == pattern) return
+        pattern?.let { old ->
+            for (c in old) {
+                if (c.toInt() < asciiMasks.size) asciiMasks[c.toInt()] = 0
+            }
+        }
+        otherMasks.clear()
+        for (i in a.indices) {
+            val c = a[i]
+            val bit = 1L shl i
+            if (c.toInt() < asciiMasks.size) {
+                asciiMasks[c.toInt()] = asciiMasks[c.toInt()] or bit
+            } else {
+                otherMasks[c] = (otherMasks[c] ?: 0L) or bit
+            }
+        }
+        pattern = a
+    }
+
+    private fun maskOf(c: Char): Long {
+        return if (c.toInt() < asciiMasks.size) asciiMasks[c.toInt()] else otherMasks[c] ?: 0L
+    }
+
+    private class Scored<T>(val item: T, val title: String, val score: Int, val position: Int)
+
+    companion object {
+
+        const val SCALING_FACTOR = WinklerWeightedRatio.SCALING_FACTOR
+        private const val UNBASE_SCALE = .95
+        private const val PARTIAL_SCALE = .90
+        private const val WORD_SIZE = 64
+
+        private const val OP_REPLACE = 0
+        private const val OP_INSERT = 1
+        private const val OP_DELETE = 2
+        private val WHITESPACE = Regex("\\s+")
+
+        /**
+         * Same as fuzzywuzzy's default string processor: replaces everything but word characters
+         * with spaces, converts to lower case and trims.
+         */
+        @JvmStatic
+        fun process(input: String): String {
+            val sb = StringBuilder(input.length)
+            for (c in input) {
+                sb.append(if (isWordChar(c)) c else ' ')
+            }
+            return sb.toString().toLowerCase().trim()
+        }
+
+        private fun isWordChar(c: Char): Boolean {
+            if (Character.isAlphabetic(c.toInt()) || Character.isDigit(c)) return true
+            return when (Character.getType(c).toByte()) {
+                Character.NON_SPACING_MARK, Character.ENCLOSING_MARK,
+                Character.COMBINING_SPACING_MARK, Character.CONNECTOR_PUNCTUATION -> true
+                else -> c == '\u200C' || c == '\u200D'
+            }
+        }
+
+        private fun tokenize(s: String) = s.split(WHITESPACE)
+
+        private fun sortTokens(s: String) = tokenize(s).sorted().joinToString(" ").trim()
+
+        /**
+         * Calculates the number of characters from the beginning of the strings that match
+         * exactly one-to-one, up to a maximum of four (4) characters.
+         */
+        private fun commonPrefixLength(first: String, second: String): Int {
+            val length = min(min(first.length, second.length), 4)
+            for (i in 0 until length) {
+                if (first[i] != second[i]) return i
+            }
+            return length
+        }
+    }
+}
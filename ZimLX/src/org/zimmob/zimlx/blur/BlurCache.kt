@@ -0,0 +1,127 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.blur
+
+import android.graphics.Bitmap
+import android.util.Log
+import com.android.launcher3.util.BitmapPool
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Keeps the last blurred wallpaper in a file, so that it is available right after the launcher
+ * restarts rather than after the wallpaper is decoded and blurred again.
+ *
+ * The file holds the key it was written for, the size of the screen size wallpaper and the raw
+ * ARGB_8888 pixels of the blurred wallpaper. It is memory mapped for reading, so the pixels are
+ * copied straight from the page cache into a pooled bitmap.
+ */
+class BlurCache(private val file: File) {
+
+    class Entry(val wallpaperWidth: Int, val wallpaperHeight: Int, val bitmap: Bitmap)
+
+    /**
+     * Returns the cached blurred wallpaper if the cache was written for [key], or null.
+     */
+    fun load(key: String, pool: BitmapPool): Entry? {
+        if (!file.exists()) return null
+        var bitmap: Bitmap? = null
+        try {
+            RandomAccessFile(file, "r").use { raf ->
+                val buffer = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                if (buffer.int != VERSION) return null
+                val keyBytes = ByteArray(buffer.int)
+                buffer.get(keyBytes)
+                if (String(keyBytes, Charsets.UTF_8) != key) return null
+
+                val wallpaperWidth = buffer.int
+                val wallpaperHeight = buffer.int
+                val width = buffer.int
+                val height = buffer.int
+                if (buffer.remaining() < width * height * 4) {
+                    throw IOException("Truncated blur cache")
+                }
+                val result = pool.acquire(width, height)
+                bitmap = result
+                result.copyPixelsFromBuffer(buffer)
+                return Entry(wallpaperWidth, wallpaperHeight, result)
+            }
+        } catch (e: Exception) {
+            // Also catches BufferUnderflowException and invalid sizes from a corrupt file
+            Log.w(TAG, "Failed to load the blurred wallpaper", e)
+            pool.release(bitmap)
+            file.delete()
+            return null
+        }
+    }
+
+    /**
+     * Replaces the cache with [bitmap] for [key]. The file is written next to the old one and
+     * renamed, so a crash never leaves a partially written cache behind.
+     */
+    fun save(key: String, wallpaperWidth: Int, wallpaperHeight: Int, bitmap: Bitmap) {
+        val tmp = File(file.path + ".tmp")
+        try {
+            RandomAccessFile(tmp, "rw").use { raf ->
+                raf.setLength(0)
+                val channel = raf.channel
+                val keyBytes = key.toByteArray(Charsets.UTF_8)
+                val header = ByteBuffer.allocate(4 * 6 + keyBytes.size)
+                header.putInt(VERSION)
+                header.putInt(keyBytes.size)
+                header.put(keyBytes)
+                header.putInt(wallpaperWidth)
+                header.putInt(wallpaperHeight)
+                header.putInt(bitmap.width)
+                header.putInt(bitmap.height)
+                writeFully(channel, header)
+
+                val pixels = ByteBuffer.allocate(bitmap.byteCount)
+                bitmap.copyPixelsToBuffer(pixels)
+                writeFully(channel, pixels)
+            }
+            if (!tmp.renameTo(file)) {
+                throw IOException("Failed to rename $tmp")
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to save the blurred wallpaper", e)
+            tmp.delete()
+        }
+    }
+
+    fun clear() {
+        file.delete()
+    }
+
+    private fun writeFully(channel: FileChannel, buffer: ByteBuffer) {
+        buffer.flip()
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "BlurCache"
+        // Change this whenever the file format or the output of the blur changes
+        private const val VERSION = 2
+    }
+}
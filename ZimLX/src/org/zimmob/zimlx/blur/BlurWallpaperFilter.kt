@@ -17,40 +17,30 @@
 
 package org.zimmob.zimlx.blur
 
-import android.content.Context
 import android.graphics.Bitmap
-import com.hoko.blur.HokoBlur
-import com.hoko.blur.task.AsyncBlurTask
+import com.android.launcher3.util.BitmapPool
 import org.zimmob.zimlx.ZimPreferences
 
-class BlurWallpaperFilter(private val context: Context) : WallpaperFilter {
+class BlurWallpaperFilter : WallpaperFilter {
 
     private var blurRadius = 25
+    private val blur = TiledBlur()
 
     override fun applyPrefs(prefs: ZimPreferences) {
         blurRadius = prefs.blurRadius.toInt() / BlurWallpaperProvider.DOWNSAMPLE_FACTOR
         blurRadius = Math.max(1, Math.min(blurRadius, 25))
     }
 
-    override fun apply(wallpaper: Bitmap): WallpaperFilter.ApplyTask {
-        return WallpaperFilter.ApplyTask.create { emitter ->
-            HokoBlur.with(context)
-                    .scheme(HokoBlur.SCHEME_OPENGL)
-                    .mode(HokoBlur.MODE_STACK)
-                    .radius(blurRadius)
-                    .sampleFactor(BlurWallpaperProvider.DOWNSAMPLE_FACTOR.toFloat())
-                    .forceCopy(false)
-                    .needUpscale(true)
-                    .processor()
-                    .asyncBlur(wallpaper, object : AsyncBlurTask.Callback {
-                        override fun onBlurSuccess(bitmap: Bitmap) {
-                            emitter.onSuccess(bitmap)
-                        }
+    override val cacheKey get() = "blur$blurRadius"
 
-                        override fun onBlurFailed(error: Throwable?) {
-                            emitter.onError(error!!)
-                        }
-                    })
+    override fun apply(wallpaper: Bitmap, pool: BitmapPool): Bitmap {
+        val output = pool.acquire(wallpaper.width, wallpaper.height)
+        try {
+            blur.blur(wallpaper, output, blurRadius)
+        } catch (t: Throwable) {
+            pool.release(output)
+            throw t
         }
+        return output
     }
-}
\ No newline at end of file
+}
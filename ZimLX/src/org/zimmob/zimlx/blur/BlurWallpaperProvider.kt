@@ -27,8 +27,11 @@ import android.view.WindowManager
 import android.widget.Toast
 import com.android.launcher3.R
 import com.android.launcher3.Utilities
+import com.android.launcher3.util.BitmapPool
 import org.zimmob.zimlx.*
 import org.zimmob.zimlx.util.SingletonHolder
+import java.io.File
+import java.io.IOException
 
 class BlurWallpaperProvider(val context: Context) {
 
@@ -36,61 +39,97 @@ class BlurWallpaperProvider(val context: Context) {
     private val mWallpaperManager: WallpaperManager = WallpaperManager.getInstance(context)
     private val mListeners = ArrayList<Listener>()
     private val mDisplayMetrics = DisplayMetrics()
-    var wallpaper: Bitmap? = null
-        private set(value) {
-            if (field != value) {
-                field?.recycle()
-                field = value
-            }
-        }
-    var placeholder: Bitmap? = null
-        private set(value) {
-            if (field != value) {
-                field?.recycle()
-                field = value
-            }
-        }
+
+    // Blurred wallpaper, downsampled by DOWNSAMPLE_FACTOR. Only changed on the main thread,
+    // together with the shader scaling it back up to the screen size.
+    private var mBlurred: Bitmap? = null
+    private val mBitmapPool = BitmapPool(BITMAP_POOL_SIZE)
+    private val mBlurCache = BlurCache(File(context.cacheDir, "blurred_wallpaper"))
+    // Cache key of the blurred wallpaper which was published last, only used by the update
+    private var mCurrentKey: String? = null
+
+    val wallpaper: Bitmap?
+        get() = mBlurred
+
+    /**
+     * Draws the blurred wallpaper scaled up to the screen size wallpaper, or null if there is no
+     * blurred wallpaper. The shader is shared by all drawables and must not be modified.
+     */
+    var shader: Shader? = null
+        private set
+    val placeholder: Bitmap by lazy {
+        Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888).apply { eraseColor(tintColor) }
+    }
+    val placeholderShader: Shader by lazy {
+        BitmapShader(placeholder, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP)
+    }
     private var mOffset: Float = 0.5f
     var blurRadius = 25
         private set
-    private val mNotifyRunnable = Runnable {
-        for (listener in mListeners) {
-            listener.onWallpaperChanged()
-        }
-    }
-
-    private val mVibrancyPaint = Paint(Paint.FILTER_BITMAP_FLAG or Paint.ANTI_ALIAS_FLAG)
-    private val mColorPaint = Paint(Paint.ANTI_ALIAS_FLAG)
 
-    private val mPath = Path()
+    private val mTilePaint = Paint(Paint.FILTER_BITMAP_FLAG)
 
     private var mWallpaperWidth: Int = 0
-    private var mDisplayHeight: Int = 0
+    private var mWallpaperHeight: Int = 0
+    // Size of the wallpaper scaled to cover the screen as loaded by the update, which is only
+    // copied to the fields above on the main thread together with the blurred wallpaper
+    private var mScaledWidth: Int = 0
+    private var mScaledHeight: Int = 0
     var wallpaperYOffset: Float = 0f
         private set
-    private val sCanvas = Canvas()
 
     private val mUpdateRunnable = Runnable { updateWallpaper() }
 
-    private val wallpaperFilter = BlurWallpaperFilter(context)
-    private var applyTask: WallpaperFilter.ApplyTask? = null
+    private val wallpaperFilter = BlurWallpaperFilter()
 
-    private var updatePending = false
+    private val mUpdateLock = Any()
+    private var mUpdating = false
+    private var mUpdatePending = false
 
     init {
         isEnabled = getEnabledStatus()
 
         wallpaperFilter.applyPrefs(prefs)
+        val colorMatrix = ColorMatrix()
+        colorMatrix.setSaturation(VIBRANCY_SATURATION)
+        mTilePaint.colorFilter = ColorMatrixColorFilter(colorMatrix)
         updateAsync()
     }
 
     private fun getEnabledStatus() = mWallpaperManager.wallpaperInfo == null && prefs.enableBlur
 
+    /**
+     * Updates the blurred wallpaper, coalescing all requests made while an update is running
+     * into a single further update.
+     */
     private fun updateWallpaper() {
-        if (applyTask != null) {
-            updatePending = true
-            return
+        synchronized(mUpdateLock) {
+            if (mUpdating) {
+                mUpdatePending = true
+                return
+            }
+            mUpdating = true
+        }
+        try {
+            while (true) {
+                updateWallpaperLocked()
+                synchronized(mUpdateLock) {
+                    if (!mUpdatePending) {
+                        mUpdating = false
+                        return
+                    }
+                    mUpdatePending = false
+                }
+            }
+        } catch (t: Throwable) {
+            synchronized(mUpdateLock) {
+                mUpdating = false
+            }
+            throw t
         }
+    }
+
+    private fun updateWallpaperLocked() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 && !context.hasStoragePermission) {
             prefs.enableBlur = false
             return
@@ -104,15 +143,41 @@ class BlurWallpaperProvider(val context: Context) {
         }
 
         if (!isEnabled) {
-            wallpaper = null
-            placeholder = null
+            mCurrentKey = null
+            mBlurCache.clear()
+            runOnMainThread { setBlurred(null, 0, 0) }
             return
         }
 
         wallpaperFilter.applyPrefs(prefs)
+        val wm = context.getSystemService(Context.WINDOW_SERVICE) as WindowManager
+        wm.defaultDisplay.getRealMetrics(mDisplayMetrics)
+
+        var downsampled: Bitmap? = null
+        try {
+            // The wallpaper id changes whenever a new wallpaper is set, without it we can only
+            // tell whether the wallpaper changed after loading it.
+            var key = getWallpaperId()?.let { getCacheKey("id$it") }
+            if (key != null && loadFromCache(key)) return
+
+            downsampled = loadDownsampledWallpaper()
+            if (key == null) {
+                key = getCacheKey("hash${hashPixels(downsampled)}")
+                if (loadFromCache(key)) return
+            }
 
-        var wallpaper = try {
-            Utilities.drawableToBitmap(mWallpaperManager.drawable, true) as Bitmap
+            Log.d("BWP", "starting blur")
+            val blurred = wallpaperFilter.apply(downsampled, mBitmapPool)
+            Log.d("BWP", "blur done")
+            publish(key, blurred, mScaledWidth, mScaledHeight)
+            // The bitmap is only released by a later update, so it can still be read here
+            mBlurCache.save(key, mScaledWidth, mScaledHeight, blurred)
+        } catch (e: OutOfMemoryError) {
+            prefs.enableBlur = false
+            runOnMainThread {
+                Toast.makeText(context, R.string.blur_oom, Toast.LENGTH_LONG).show()
+                notifyWallpaperChanged()
+            }
         } catch (e: Exception) {
             prefs.enableBlur = false
             runOnMainThread {
@@ -120,87 +185,203 @@ class BlurWallpaperProvider(val context: Context) {
                 Toast.makeText(context, msg, Toast.LENGTH_LONG).show()
                 notifyWallpaperChanged()
             }
-            return
+        } finally {
+            mBitmapPool.release(downsampled)
+        }
+    }
+
+    /**
+     * Returns the key for the blurred wallpaper of the wallpaper identified by [wallpaper] with
+     * the current screen size and filter parameters.
+     */
+    private fun getCacheKey(wallpaper: String): String {
+        return "$wallpaper:${mDisplayMetrics.widthPixels}x${mDisplayMetrics.heightPixels}" +
+                ":$DOWNSAMPLE_FACTOR:$VIBRANCY_SATURATION:${wallpaperFilter.cacheKey}"
+    }
+
+    private fun getWallpaperId(): Int? {
+        if (!Utilities.ATLEAST_NOUGAT) return null
+        val id = mWallpaperManager.getWallpaperId(WallpaperManager.FLAG_SYSTEM)
+        return if (id >= 0) id else null
+    }
+
+    private fun hashPixels(bitmap: Bitmap): Int {
+        val row = IntArray(bitmap.width)
+        var hash = 1
+        for (y in 0 until bitmap.height) {
+            bitmap.getPixels(row, 0, bitmap.width, 0, y, bitmap.width, 1)
+            hash = 31 * hash + row.contentHashCode()
+        }
+        return hash
+    }
+
+    /**
+     * Publishes the cached blurred wallpaper for [key] if there is one. Nothing needs to be done
+     * if the blurred wallpaper for [key] is already shown.
+     */
+    private fun loadFromCache(key: String): Boolean {
+        if (key == mCurrentKey) return true
+        val cached = mBlurCache.load(key, mBitmapPool) ?: return false
+        Log.d("BWP", "loaded blur from cache")
+        publish(key, cached.bitmap, cached.wallpaperWidth, cached.wallpaperHeight)
+        return true
+    }
+
+    private fun publish(key: String, blurred: Bitmap, wallpaperWidth: Int, wallpaperHeight: Int) {
+        mCurrentKey = key
+        runOnMainThread {
+            setBlurred(blurred, wallpaperWidth, wallpaperHeight)
+            notifyWallpaperChanged()
         }
-        wallpaper = scaleToScreenSize(wallpaper)
-        val wallpaperHeight = wallpaper.height
-        wallpaperYOffset = if (wallpaperHeight > mDisplayHeight) {
-            (wallpaperHeight - mDisplayHeight) * 0.5f
+    }
+
+    /**
+     * Replaces the blurred wallpaper, must be called on the main thread so that no drawable is
+     * still drawing the old bitmap when it is returned to the pool.
+     */
+    private fun setBlurred(blurred: Bitmap?, wallpaperWidth: Int, wallpaperHeight: Int) {
+        val old = mBlurred
+        mBlurred = blurred
+        mWallpaperWidth = wallpaperWidth
+        mWallpaperHeight = wallpaperHeight
+        val displayHeight = mDisplayMetrics.heightPixels
+        wallpaperYOffset = if (wallpaperHeight > displayHeight) {
+            (wallpaperHeight - displayHeight) * 0.5f
         } else {
             0f
         }
-
-        mWallpaperWidth = wallpaper.width
-
-        placeholder = createPlaceholder(wallpaper.width, wallpaper.height)
-        wallpaper = applyVibrancy(wallpaper)
-        Log.d("BWP", "starting blur")
-
-        applyTask = wallpaperFilter.apply(wallpaper).setCallback { result, error ->
-            if (error == null) {
-                this@BlurWallpaperProvider.wallpaper = result
-                Log.d("BWP", "blur done")
-                runOnMainThread(::notifyWallpaperChanged)
-                wallpaper.recycle()
-            } else {
-                if (error is OutOfMemoryError) {
-                    prefs.enableBlur = false
-                    runOnMainThread {
-                        Toast.makeText(context, R.string.blur_oom, Toast.LENGTH_LONG).show()
-                        notifyWallpaperChanged()
-                    }
-                }
-                wallpaper.recycle()
-            }
-            applyTask = null
-            if (updatePending) {
-                updatePending = false
-                updateWallpaper()
+        shader = blurred?.let { bitmap ->
+            BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP).apply {
+                setLocalMatrix(Matrix().apply {
+                    setScale(wallpaperWidth.toFloat() / bitmap.width,
+                            wallpaperHeight.toFloat() / bitmap.height)
+                })
             }
         }
+        mBitmapPool.release(old)
     }
 
     private fun notifyWallpaperChanged() {
         mListeners.forEach(Listener::onWallpaperChanged)
     }
 
-    private fun scaleToScreenSize(bitmap: Bitmap): Bitmap {
-        val wm = context.getSystemService(Context.WINDOW_SERVICE) as WindowManager
-        val display = wm.defaultDisplay
-        display.getRealMetrics(mDisplayMetrics)
-
+    /**
+     * Loads the wallpaper scaled to cover the screen and downsampled by [DOWNSAMPLE_FACTOR],
+     * with the vibrancy filter applied. Whenever possible the wallpaper file is decoded in tiles
+     * with a sample size, so the full size wallpaper is never held in memory.
+     */
+    private fun loadDownsampledWallpaper(): Bitmap {
         val width = mDisplayMetrics.widthPixels
         val height = mDisplayMetrics.heightPixels
-        mDisplayHeight = height
-
-        val widthFactor = width.toFloat() / bitmap.width
-        val heightFactor = height.toFloat() / bitmap.height
 
-        val upscaleFactor = Math.max(widthFactor, heightFactor)
-        if (upscaleFactor <= 0) {
-            return bitmap
+        val decoder = openWallpaperDecoder()
+        try {
+            val drawable = if (decoder == null) mWallpaperManager.drawable else null
+            val sourceWidth = decoder?.width ?: drawable!!.intrinsicWidth
+            val sourceHeight = decoder?.height ?: drawable!!.intrinsicHeight
+
+            // Scale the wallpaper up or down so that it covers the whole screen
+            val scaleFactor = if (sourceWidth > 0 && sourceHeight > 0) {
+                Math.max(width.toFloat() / sourceWidth, height.toFloat() / sourceHeight)
+            } else 0f
+            mScaledWidth = Math.max(width, (sourceWidth * scaleFactor).ceilToInt())
+            mScaledHeight = Math.max(height, (sourceHeight * scaleFactor).ceilToInt())
+
+            val result = mBitmapPool.acquire(
+                    (mScaledWidth.toFloat() / DOWNSAMPLE_FACTOR).ceilToInt(),
+                    (mScaledHeight.toFloat() / DOWNSAMPLE_FACTOR).ceilToInt())
+            try {
+                result.eraseColor(Color.BLACK)
+                val canvas = Canvas(result)
+                val scale = scaleFactor / DOWNSAMPLE_FACTOR
+                if (decoder != null) {
+                    drawTiles(decoder, canvas, scale)
+                } else if (drawable != null) {
+                    if (scaleFactor > 0) {
+                        drawable.setBounds(0, 0, (sourceWidth * scale).ceilToInt(),
+                                (sourceHeight * scale).ceilToInt())
+                    } else {
+                        drawable.setBounds(0, 0, result.width, result.height)
+                    }
+                    drawable.colorFilter = mTilePaint.colorFilter
+                    drawable.draw(canvas)
+                }
+                return result
+            } catch (t: Throwable) {
+                mBitmapPool.release(result)
+                throw t
+            }
+        } finally {
+            decoder?.recycle()
         }
-
-        val scaledWidth = Math.max(width, (bitmap.width * upscaleFactor).ceilToInt())
-        val scaledHeight = Math.max(height, (bitmap.height * upscaleFactor).ceilToInt())
-        return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, false)
     }
 
-    private fun createPlaceholder(width: Int, height: Int): Bitmap {
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        sCanvas.setBitmap(bitmap)
-
-        mPath.moveTo(0f, 0f)
-        mPath.lineTo(0f, height.toFloat())
-        mPath.lineTo(width.toFloat(), height.toFloat())
-        mPath.lineTo(width.toFloat(), 0f)
-        mColorPaint.xfermode = null
-        mColorPaint.color = tintColor
-        sCanvas.drawPath(mPath, mColorPaint)
+    private fun openWallpaperDecoder(): BitmapRegionDecoder? {
+        if (!Utilities.ATLEAST_NOUGAT) return null
+        return try {
+            mWallpaperManager.getWallpaperFile(WallpaperManager.FLAG_SYSTEM)?.use { fd ->
+                BitmapRegionDecoder.newInstance(fd.fileDescriptor, false)
+            }
+        } catch (e: IOException) {
+            Log.w("BWP", "Unable to open the wallpaper file", e)
+            null
+        } catch (e: SecurityException) {
+            null
+        }
+    }
 
-        return bitmap
+    /**
+     * Decodes the wallpaper in tiles of [TILE_SIZE] pixels and draws them scaled by [scale],
+     * reusing a single tile bitmap.
+     */
+    private fun drawTiles(decoder: BitmapRegionDecoder, canvas: Canvas, scale: Float) {
+        var sampleSize = 1
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2
+        }
+        val tileSize = TILE_SIZE / sampleSize
+        val options = BitmapFactory.Options().apply {
+            inSampleSize = sampleSize
+            inPreferredConfig = Bitmap.Config.ARGB_8888
+            inMutable = true
+            inBitmap = mBitmapPool.acquire(tileSize, tileSize)
+        }
+        val src = Rect()
+        val tileSrc = Rect()
+        val dst = RectF()
+        try {
+            for (top in 0 until decoder.height step TILE_SIZE) {
+                for (left in 0 until decoder.width step TILE_SIZE) {
+                    src.set(left, top, Math.min(left + TILE_SIZE, decoder.width),
+                            Math.min(top + TILE_SIZE, decoder.height))
+                    val tile = decoder.decodeRegion(src, options) ?: continue
+                    // A reused tile bitmap can be larger than the decoded region
+                    tileSrc.set(0, 0,
+                            Math.min(tile.width, divideRoundUp(src.width(), sampleSize)),
+                            Math.min(tile.height, divideRoundUp(src.height(), sampleSize)))
+                    dst.set(src.left * scale, src.top * scale,
+                            src.right * scale, src.bottom * scale)
+                    canvas.drawBitmap(tile, tileSrc, dst, mTilePaint)
+                    if (tile !== options.inBitmap) {
+                        // The decoder couldn't reuse the tile bitmap, use the new one from now on
+                        options.inBitmap?.recycle()
+                        options.inBitmap = tile
+                    }
+                }
+            }
+        } finally {
+            options.inBitmap?.let {
+                if (it.width == tileSize && it.height == tileSize) {
+                    mBitmapPool.release(it)
+                } else {
+                    it.recycle()
+                }
+            }
+        }
     }
 
+    private fun divideRoundUp(value: Int, divisor: Int) = (value + divisor - 1) / divisor
+
     val tintColor: Int
         get() = 0x45ffffff // TODO: replace this with theme attr
 //        get() = Utilities.resolveAttributeData(context, R.attr.blurTintColor)
@@ -209,25 +390,6 @@ class BlurWallpaperProvider(val context: Context) {
         Utilities.THREAD_POOL_EXECUTOR.execute(mUpdateRunnable)
     }
 
-    private fun applyVibrancy(wallpaper: Bitmap): Bitmap {
-        val width = wallpaper.width
-        val height = wallpaper.height
-
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        val canvas = Canvas()
-        canvas.setBitmap(bitmap)
-
-        val colorMatrix = ColorMatrix()
-        colorMatrix.setSaturation(1.25f)
-        val filter = ColorMatrixColorFilter(colorMatrix)
-        mVibrancyPaint.colorFilter = filter
-        canvas.drawBitmap(wallpaper, 0f, 0f, mVibrancyPaint)
-
-        wallpaper.recycle()
-
-        return bitmap
-    }
-
     fun addListener(listener: Listener) {
         mListeners.add(listener)
         listener.onOffsetChanged(mOffset)
@@ -291,6 +453,14 @@ class BlurWallpaperProvider(val context: Context) {
         const val BLUR_ALLAPPS = 4
         const val DOWNSAMPLE_FACTOR = 8
 
+        private const val VIBRANCY_SATURATION = 1.25f
+
+        // Wallpaper tiles are decoded in squares of this many pixels of the original wallpaper
+        private const val TILE_SIZE = 512
+        // Enough for the downsampled wallpaper and its blurred copy of the current and the
+        // next update, and one tile
+        private const val BITMAP_POOL_SIZE = 4 * 1024 * 1024
+
         var isEnabled: Boolean = false
         private var sEnabledFlag: Int = 0
 
@@ -26,13 +26,6 @@ class ShaderBlurDrawable internal constructor(
 
     private var blurAlpha = 255
     private val blurPaint = Paint(Paint.FILTER_BITMAP_FLAG or Paint.ANTI_ALIAS_FLAG)
-    private var blurBitmap: Bitmap? = null
-        set(value) {
-            if (field != value) {
-                field = value
-                blurPaint.shader = value?.let { BitmapShader(it, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP) }
-            }
-        }
     private var blurOffset = 0f
         set(value) {
             if (field != value) {
@@ -81,7 +74,7 @@ class ShaderBlurDrawable internal constructor(
 
     override fun draw(canvas: Canvas, noRadius: Boolean) {
         if (blurAlpha == 0) return
-        blurBitmap = blurProvider.wallpaper
+        blurPaint.shader = blurProvider.shader
         setupBlurPath()
 
         canvas.translate(-blurOffset, 0f)
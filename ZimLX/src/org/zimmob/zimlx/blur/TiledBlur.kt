@@ -0,0 +1,127 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.blur
+
+import android.graphics.Bitmap
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Blurs bitmaps in horizontal strips, so that only a few rows of pixels are held in memory at a
+ * time. Each strip is read with enough extra rows above and below for the vertical passes, which
+ * gives exactly the same result as blurring the whole bitmap at once.
+ *
+ * The blur is three box blur passes in each direction, which is close to a gaussian blur with a
+ * standard deviation of about the radius. Instances reuse their buffers, so they must only be
+ * used from one thread at a time.
+ */
+class TiledBlur(private val stripHeight: Int = DEFAULT_STRIP_HEIGHT) {
+
+    private var pixels = IntArray(0)
+    private var scratch = IntArray(0)
+
+    /**
+     * Blurs [src] into [dst], which must have the same size.
+     */
+    fun blur(src: Bitmap, dst: Bitmap, radius: Int) {
+        val width = src.width
+        val height = src.height
+        require(dst.width == width && dst.height == height) { "Size mismatch" }
+
+        // Rows further than this from a strip don't affect it
+        val halo = max(radius, 0) * PASSES
+        val strip = max(stripHeight, halo)
+        ensureCapacity(width * min(height, strip + 2 * halo))
+
+        var top = 0
+        while (top < height) {
+            val bottom = min(top + strip, height)
+            val readTop = max(0, top - halo)
+            val readBottom = min(height, bottom + halo)
+            val rows = readBottom - readTop
+            src.getPixels(pixels, 0, width, 0, readTop, width, rows)
+            if (radius > 0) {
+                blurStrip(width, rows, radius)
+            }
+            dst.setPixels(pixels, (top - readTop) * width, width, 0, top, width, bottom - top)
+            top = bottom
+        }
+    }
+
+    private fun ensureCapacity(size: Int) {
+        if (pixels.size < size) {
+            pixels = IntArray(size)
+            scratch = IntArray(size)
+        }
+    }
+
+    private fun blurStrip(width: Int, rows: Int, radius: Int) {
+        var input = pixels
+        var output = scratch
+        for (pass in 0 until PASSES) {
+            boxBlur(input, output, rows, width, width, 1, radius)
+            input = output.also { output = input }
+        }
+        for (pass in 0 until PASSES) {
+            boxBlur(input, output, width, rows, 1, width, radius)
+            input = output.also { output = input }
+        }
+        if (input !== pixels) {
+            System.arraycopy(input, 0, pixels, 0, width * rows)
+        }
+    }
+
+    /**
+     * Runs a box blur along [lines] lines of [length] pixels each, clamping at both ends.
+     */
+    private fun boxBlur(input: IntArray, output: IntArray, lines: Int, length: Int,
+                        lineStride: Int, pixelStride: Int, radius: Int) {
+        val div = 2 * radius + 1
+        val last = length - 1
+        for (line in 0 until lines) {
+            val start = line * lineStride
+            var a = 0
+            var r = 0
+            var g = 0
+            var b = 0
+            for (i in -radius..radius) {
+                val c = input[start + min(max(i, 0), last) * pixelStride]
+                a += c ushr 24
+                r += (c shr 16) and 0xff
+                g += (c shr 8) and 0xff
+                b += c and 0xff
+            }
+            for (i in 0..last) {
+                output[start + i * pixelStride] =
+                        ((a / div) shl 24) or ((r / div) shl 16) or ((g / div) shl 8) or (b / div)
+                val add = input[start + min(i + radius + 1, last) * pixelStride]
+                val remove = input[start + max(i - radius, 0) * pixelStride]
+                a += (add ushr 24) - (remove ushr 24)
+                r += ((add shr 16) and 0xff) - ((remove shr 16) and 0xff)
+                g += ((add shr 8) and 0xff) - ((remove shr 8) and 0xff)
+                b += (add and 0xff) - (remove and 0xff)
+            }
+        }
+    }
+
+    companion object {
+
+        private const val PASSES = 3
+        private const val DEFAULT_STRIP_HEIGHT = 64
+    }
+}
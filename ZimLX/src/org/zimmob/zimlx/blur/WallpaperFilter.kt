@@ -18,60 +18,21 @@
 package org.zimmob.zimlx.blur
 
 import android.graphics.Bitmap
+import com.android.launcher3.util.BitmapPool
 import org.zimmob.zimlx.ZimPreferences
 
 interface WallpaperFilter {
 
     fun applyPrefs(prefs: ZimPreferences)
 
-    fun apply(wallpaper: Bitmap): ApplyTask
+    /**
+     * Describes all parameters affecting the output, so that it can be cached.
+     */
+    val cacheKey: String
 
-    class ApplyTask {
-
-        val emitter = Emitter()
-
-        private var result: Bitmap? = null
-        private var error: Throwable? = null
-
-        private var callback: ((Bitmap?, Throwable?) -> Unit)? = null
-
-        fun setCallback(callback: (Bitmap?, Throwable?) -> Unit): ApplyTask {
-            result?.let {
-                callback(it, null)
-                return this
-            }
-            error?.let {
-                callback(null, it)
-                return this
-            }
-            this.callback = callback
-            return this
-        }
-
-        inner class Emitter {
-
-            fun onSuccess(result: Bitmap) {
-                callback?.let {
-                    it(result, null)
-                    return
-                }
-                this@ApplyTask.result = result
-            }
-
-            fun onError(error: Throwable) {
-                callback?.let {
-                    it(null, error)
-                    return
-                }
-                this@ApplyTask.error = error
-            }
-        }
-
-        companion object {
-
-            inline fun create(source: (Emitter) -> Unit): ApplyTask {
-                return ApplyTask().also { source(it.emitter) }
-            }
-        }
-    }
+    /**
+     * Filters the downsampled [wallpaper] into a bitmap taken from [pool]. Called on a
+     * background thread, [wallpaper] is not modified.
+     */
+    fun apply(wallpaper: Bitmap, pool: BitmapPool): Bitmap
 }
@@ -19,6 +19,7 @@ package org.zimmob.zimlx.flowerpot
 
 import android.content.Context
 import org.zimmob.zimlx.ensureOnMainThread
+import org.zimmob.zimlx.flowerpot.parser.CompiledFlowerpots
 import org.zimmob.zimlx.flowerpot.parser.FlowerpotReader
 import org.zimmob.zimlx.flowerpot.rules.Rule
 import org.zimmob.zimlx.toTitleCase
@@ -41,20 +42,24 @@ class Flowerpot(private val context: Context, val name: String, private val load
     private var loaded = false
     val rules: MutableSet<Rule> = mutableSetOf()
     val size get() = rules.size
-    lateinit var apps: FlowerpotApps
+    val apps = FlowerpotApps()
 
+    /**
+     * Load the rules and make sure [apps] has been filled by the shared [FlowerpotCategorizer]
+     */
     fun ensureLoaded() {
+        ensureRulesLoaded()
+        Manager.getInstance(context).categorizer.ensureLoaded()
+    }
+
+    @Synchronized
+    internal fun ensureRulesLoaded() {
         if (!loaded) {
-            load()
+            loader(this)
             loaded = true
         }
     }
 
-    private fun load() {
-        loader(this)
-        apps = FlowerpotApps(context, this)
-    }
-
     /**
      * Load all data from
      */
@@ -109,9 +114,32 @@ class Flowerpot(private val context: Context, val name: String, private val load
     class Manager private constructor(private val context: Context) {
 
         private val pots = mutableMapOf<String, Flowerpot>()
+        private var compiled: CompiledFlowerpots? = null
+
+        /**
+         * Sorts the apps into all pots at once
+         */
+        val categorizer by lazy { FlowerpotCategorizer(context, pots.values.toList(), compiled) }
 
         init {
-            loadAssets()
+            loadCompiledAssets()
+            if (pots.isEmpty()) {
+                loadAssets()
+            }
+        }
+
+        /**
+         * Load the pots compiled into a single file at build time. Their package rules are looked
+         * up by the [categorizer] and never added to [Flowerpot.rules].
+         */
+        private fun loadCompiledAssets() {
+            val compiled = CompiledFlowerpots.fromAssets(context) ?: return
+            compiled.potNames.forEachIndexed { index, name ->
+                pots[name] = Flowerpot(context, name) {
+                    rules.addAll(compiled.getRules(index))
+                }
+            }
+            this.compiled = compiled
         }
 
         /**
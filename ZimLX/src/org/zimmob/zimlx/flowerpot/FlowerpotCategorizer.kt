@@ -0,0 +1,201 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.flowerpot
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.LauncherActivityInfo
+import android.os.UserHandle
+import com.android.launcher3.compat.LauncherAppsCompat
+import com.android.launcher3.compat.UserManagerCompat
+import com.android.launcher3.shortcuts.ShortcutInfoCompat
+import com.android.launcher3.util.ComponentKey
+import org.zimmob.zimlx.flowerpot.parser.CompiledFlowerpots
+import org.zimmob.zimlx.flowerpot.rules.CodeRule
+import org.zimmob.zimlx.flowerpot.rules.Rule
+import java.util.*
+
+/**
+ * Sorts the installed apps into all pots in a single pass.
+ *
+ * The rules of all pots are compiled once into a package index, the distinct intent rules and
+ * the distinct code rules, each mapping to the set of pots it belongs to. An app then costs one
+ * index lookup plus one check per code rule, no matter how many pots there are. Package changes
+ * only recategorize the changed package.
+ *
+ * Pots loaded from [compiled] have no package rules, those are looked up in its package table.
+ */
+class FlowerpotCategorizer(private val context: Context, private val pots: List<Flowerpot>,
+                           private val compiled: CompiledFlowerpots? = null)
+    : LauncherAppsCompat.OnAppsChangedCallbackCompat {
+
+    private val launcherApps = LauncherAppsCompat.getInstance(context)
+    private var loaded = false
+
+    // Package name -> pots with a package rule for it
+    private val packageIndex = HashMap<String, BitSet>()
+    // Intent to query -> pots with a rule for it
+    private val intentRules = ArrayList<Pair<Intent, BitSet>>()
+    // Package name -> pots with an intent rule it handles
+    private val intentIndex = HashMap<String, BitSet>()
+    private val codeRules = ArrayList<Pair<CodeRule, BitSet>>()
+    // Index in the compiled file -> index in pots
+    private val compiledIndices = IntArray(compiled?.potNames?.size ?: 0) { -1 }
+
+    private val tmpMatches = BitSet(pots.size)
+
+    @Synchronized
+    fun ensureLoaded() {
+        if (loaded) return
+        loaded = true
+        compile()
+        queryIntentMatches()
+        UserManagerCompat.getInstance(context).userProfiles.forEach {
+            addFromPackage(null, it)
+        }
+        launcherApps.addOnAppsChangedCallback(this)
+    }
+
+    private fun compile() {
+        val intents = LinkedHashMap<Rule, BitSet>()
+        val code = LinkedHashMap<CodeRule, BitSet>()
+        pots.forEachIndexed { index, pot ->
+            pot.ensureRulesLoaded()
+            for (rule in pot.rules) {
+                when (rule) {
+                    is Rule.Package -> packageIndex.getOrPut(rule.filter) { BitSet() }.set(index)
+                    is Rule.IntentAction, is Rule.IntentCategory -> intents.getOrPut(rule) { BitSet() }.set(index)
+                    is Rule.CodeRule -> code.getOrPut(CodeRule.get(rule.rule, *rule.args)) { BitSet() }.set(index)
+                }
+            }
+        }
+        intents.forEach { (rule, potSet) ->
+            val intent = when (rule) {
+                is Rule.IntentAction -> Intent(rule.action)
+                is Rule.IntentCategory -> Intent(Intent.ACTION_MAIN).addCategory(rule.category)
+                else -> throw IllegalStateException()
+            }
+            intentRules.add(Pair(intent, potSet))
+        }
+        code.forEach { (rule, potSet) -> codeRules.add(Pair(rule, potSet)) }
+        compiled?.potNames?.forEachIndexed { index, name ->
+            compiledIndices[index] = pots.indexOfFirst { it.name == name }
+        }
+    }
+
+    /**
+     * Query the packages handling any intent rule, or only those of [packageName] if not null
+     */
+    private fun queryIntentMatches(packageName: String? = null) {
+        if (packageName == null) {
+            intentIndex.clear()
+        } else {
+            intentIndex.remove(packageName)
+        }
+        for ((intent, potSet) in intentRules) {
+            val query = if (packageName != null) Intent(intent).setPackage(packageName) else intent
+            context.packageManager.queryIntentActivities(query, 0).forEach {
+                intentIndex.getOrPut(it.activityInfo.packageName) { BitSet() }.or(potSet)
+            }
+        }
+    }
+
+    private fun addFromPackage(packageName: String?, user: UserHandle) {
+        launcherApps.getActivityList(packageName, user).forEach(::categorize)
+    }
+
+    private fun categorize(info: LauncherActivityInfo) {
+        val matches = tmpMatches
+        matches.clear()
+        val packageName = info.componentName.packageName
+        packageIndex[packageName]?.let(matches::or)
+        compiled?.let {
+            var mask = it.getPots(packageName)
+            while (mask != 0) {
+                val index = compiledIndices[Integer.numberOfTrailingZeros(mask)]
+                if (index >= 0) matches.set(index)
+                mask = mask and (mask - 1)
+            }
+        }
+        intentIndex[packageName]?.let(matches::or)
+        for ((rule, potSet) in codeRules) {
+            // Skip rules which can't add any pot
+            if (matches.containsAll(potSet)) continue
+            if (rule.matches(info.applicationInfo)) {
+                matches.or(potSet)
+            }
+        }
+        if (matches.isEmpty) return
+
+        val key = ComponentKey(info.componentName, info.user)
+        var index = matches.nextSetBit(0)
+        while (index >= 0) {
+            pots[index].apps.add(key)
+            index = matches.nextSetBit(index + 1)
+        }
+    }
+
+    private fun BitSet.containsAll(other: BitSet): Boolean {
+        var index = other.nextSetBit(0)
+        while (index >= 0) {
+            if (!get(index)) return false
+            index = other.nextSetBit(index + 1)
+        }
+        return true
+    }
+
+    private fun removePackage(packageName: String, user: UserHandle) {
+        pots.forEach { it.apps.removePackage(packageName, user) }
+    }
+
+    @Synchronized
+    override fun onPackageAdded(packageName: String, user: UserHandle) {
+        removePackage(packageName, user)
+        queryIntentMatches(packageName)
+        addFromPackage(packageName, user)
+    }
+
+    override fun onPackageChanged(packageName: String, user: UserHandle) {
+        onPackageAdded(packageName, user)
+    }
+
+    @Synchronized
+    override fun onPackageRemoved(packageName: String, user: UserHandle) {
+        removePackage(packageName, user)
+    }
+
+    override fun onPackagesAvailable(packageNames: Array<out String>, user: UserHandle, replacing: Boolean) {
+        packageNames.forEach { onPackageAdded(it, user) }
+    }
+
+    override fun onPackagesUnavailable(packageNames: Array<out String>, user: UserHandle, replacing: Boolean) {
+        packageNames.forEach { onPackageRemoved(it, user) }
+    }
+
+    override fun onPackagesSuspended(packageNames: Array<out String>, user: UserHandle) {
+        packageNames.forEach { onPackageRemoved(it, user) }
+    }
+
+    override fun onPackagesUnsuspended(packageNames: Array<out String>, user: UserHandle) {
+        packageNames.forEach { onPackageAdded(it, user) }
+    }
+
+    override fun onShortcutsChanged(packageName: String?, shortcuts: MutableList<ShortcutInfoCompat>?, user: UserHandle?) {
+
+    }
+}
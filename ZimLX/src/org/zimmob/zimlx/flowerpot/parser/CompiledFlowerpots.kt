@@ -0,0 +1,180 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.flowerpot.parser
+
+import android.content.Context
+import android.util.Log
+import org.zimmob.zimlx.flowerpot.Flowerpot
+import org.zimmob.zimlx.flowerpot.FlowerpotFormatException
+import org.zimmob.zimlx.flowerpot.rules.Rule
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * All flowerpots as compiled by the compileFlowerpots build task, see flowerpot/compile.gradle
+ * for the layout.
+ *
+ * Only the pot names and the few intent and code rules are read up front. Package rules stay in
+ * the mapped file as a sorted table which [getPots] binary searches.
+ */
+class CompiledFlowerpots(private val buffer: ByteBuffer) {
+
+    val potNames: List<String>
+    private val potRules: List<List<Rule>>
+
+    private val packageCount: Int
+    private val offsetsStart: Int
+    private val masksStart: Int
+    private val stringsStart: Int
+
+    init {
+        if (buffer.int != MAGIC) {
+            throw FlowerpotFormatException("Not a compiled flowerpot file")
+        }
+        val binaryVersion = buffer.int
+        if (binaryVersion != BINARY_VERSION) {
+            throw FlowerpotFormatException("Unsupported binary version $binaryVersion")
+        }
+        val version = buffer.int
+        if (!Flowerpot.SUPPORTED_VERSIONS.contains(version)) {
+            throw FlowerpotFormatException("Unsupported version $version (supported are ${Flowerpot.SUPPORTED_VERSIONS.joinToString()})")
+        }
+
+        val potCount = buffer.short.toInt() and 0xFFFF
+        val names = ArrayList<String>(potCount)
+        val rules = ArrayList<List<Rule>>(potCount)
+        repeat(potCount) {
+            names.add(readString())
+            rules.add(List(buffer.short.toInt() and 0xFFFF) { readRule() })
+        }
+        potNames = names
+        potRules = rules
+
+        packageCount = buffer.int
+        offsetsStart = buffer.position()
+        masksStart = offsetsStart + (packageCount + 1) * 4
+        stringsStart = masksStart + packageCount * 4
+    }
+
+    private fun readString(): String {
+        val bytes = ByteArray(buffer.short.toInt() and 0xFFFF)
+        buffer.get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    private fun readRule(): Rule {
+        val type = buffer.get().toInt()
+        val value = readString()
+        return when (type) {
+            RULE_INTENT_ACTION -> Rule.IntentAction(value)
+            RULE_INTENT_CATEGORY -> Rule.IntentCategory(value)
+            RULE_CODE -> Rule.CodeRule(value, Array(buffer.get().toInt()) { readString() })
+            else -> throw FlowerpotFormatException("Unknown rule type $type")
+        }
+    }
+
+    /**
+     * The intent and code rules of the pot at [index], package rules are only available through
+     * [getPots]
+     */
+    fun getRules(index: Int) = potRules[index]
+
+    /**
+     * Returns a bit mask of the indices of all pots with a package rule for [packageName]
+     */
+    fun getPots(packageName: String): Int {
+        val key = packageName.toByteArray(Charsets.UTF_8)
+        var low = 0
+        var high = packageCount - 1
+        while (low <= high) {
+            val mid = (low + high).ushr(1)
+            val cmp = compare(mid, key)
+            when {
+                cmp < 0 -> low = mid + 1
+                cmp > 0 -> high = mid - 1
+                else -> return buffer.getInt(masksStart + mid * 4)
+            }
+        }
+        return 0
+    }
+
+    /**
+     * Compares the package at [index] to [key] by their unsigned bytes, like the build task sorts
+     */
+    private fun compare(index: Int, key: ByteArray): Int {
+        val start = buffer.getInt(offsetsStart + index * 4)
+        val length = buffer.getInt(offsetsStart + index * 4 + 4) - start
+        val position = stringsStart + start
+        for (i in 0 until Math.min(length, key.size)) {
+            val diff = (buffer.get(position + i).toInt() and 0xFF) - (key[i].toInt() and 0xFF)
+            if (diff != 0) return diff
+        }
+        return length - key.size
+    }
+
+    companion object {
+
+        private const val TAG = "CompiledFlowerpots"
+
+        /**
+         * Path relative to assets/ of the compiled flowerpot file
+         */
+        const val ASSETS_PATH = "flowerpot.bin"
+
+        private const val MAGIC = 0x46504F54
+        private const val BINARY_VERSION = 1
+        private const val RULE_INTENT_ACTION = 1
+        private const val RULE_INTENT_CATEGORY = 2
+        private const val RULE_CODE = 3
+
+        /**
+         * Maps the compiled flowerpot file from the assets, or returns null if there is none
+         */
+        fun fromAssets(context: Context): CompiledFlowerpots? {
+            return try {
+                CompiledFlowerpots(mapAsset(context))
+            } catch (e: FileNotFoundException) {
+                null
+            } catch (e: IOException) {
+                Log.e(TAG, "Failed to read compiled flowerpots", e)
+                null
+            } catch (e: FlowerpotFormatException) {
+                Log.e(TAG, "Failed to read compiled flowerpots", e)
+                null
+            } catch (e: BufferUnderflowException) {
+                Log.e(TAG, "Compiled flowerpots are truncated", e)
+                null
+            }
+        }
+
+        private fun mapAsset(context: Context): ByteBuffer {
+            val fd = try {
+                context.assets.openFd(ASSETS_PATH)
+            } catch (e: FileNotFoundException) {
+                // Compressed assets can't be mapped, this throws again if there is no file at all
+                return context.assets.open(ASSETS_PATH).use { ByteBuffer.wrap(it.readBytes()) }
+            }
+            return fd.createInputStream().use {
+                it.channel.map(FileChannel.MapMode.READ_ONLY, fd.startOffset, fd.declaredLength)
+            }
+        }
+    }
+}
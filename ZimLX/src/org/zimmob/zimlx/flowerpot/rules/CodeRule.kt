@@ -52,8 +52,9 @@ sealed class CodeRule(vararg val args: String) {
     }
 
     companion object {
-        private val cache = mutableMapOf<Pair<String, Array<out String>>, CodeRule>()
-        fun get(name: String, vararg args: String) = cache.getOrPut(Pair(name, args)) {
+        // Arrays don't implement equals, so the args are keyed as a list
+        private val cache = mutableMapOf<Pair<String, List<String>>, CodeRule>()
+        fun get(name: String, vararg args: String) = cache.getOrPut(Pair(name, args.asList())) {
             when (name) {
                 "isGame" -> IsGame(*args)
                 "category" -> Category(*args)
@@ -24,15 +24,9 @@ import android.content.Intent
 import com.android.launcher3.LauncherAppState
 import com.android.launcher3.LauncherState
 import com.android.launcher3.Utilities
-import okhttp3.Request
-import org.json.JSONArray
 import org.zimmob.zimlx.globalsearch.SearchProvider
-import org.zimmob.zimlx.toArrayList
-import org.zimmob.zimlx.util.OkHttpClientBuilder
 
 abstract class WebSearchProvider(context: Context) : SearchProvider(context) {
-    protected val client = OkHttpClientBuilder().build(context)
-
     override val supportsVoiceSearch = false
     override val supportsAssistant = false
     override val supportsFeed = false
@@ -41,9 +35,10 @@ abstract class WebSearchProvider(context: Context) : SearchProvider(context) {
      */
     protected abstract val searchUrl: String
     /**
-     * Suggestions API URL. %s will be replaced with the search query.
+     * Suggestions API URL. %s will be replaced with the search query. Loaded through
+     * [WebSuggestionsLoader].
      */
-    protected abstract val suggestionsUrl: String?
+    abstract val suggestionsUrl: String?
 
     override fun startSearch(callback: (intent: Intent) -> Unit) {
         val launcher = LauncherAppState.getInstanceNoCreate().launcher
@@ -52,20 +47,6 @@ abstract class WebSearchProvider(context: Context) : SearchProvider(context) {
         }
     }
 
-    open fun getSuggestions(query: String): List<String> {
-        if (suggestionsUrl == null) return emptyList()
-        try {
-            val response = client.newCall(Request.Builder().url(suggestionsUrl!!.format(query)).build()).execute()
-            return JSONArray(response.body?.string())
-                    .getJSONArray(1)
-                    .toArrayList<String>()
-                    .take(MAX_SUGGESTIONS)
-        } catch (ex: Exception) {
-            //e(ex.message ?: "", ex)
-        }
-        return emptyList()
-    }
-
     open fun openResults(query: String) {
         Utilities.openURLinBrowser(context, getResultUrl(query))
     }
@@ -0,0 +1,167 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.globalsearch.providers.web
+
+import android.Manifest
+import android.content.Context
+import android.content.pm.PackageManager
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.util.LruCache
+import androidx.annotation.VisibleForTesting
+import androidx.core.content.ContextCompat
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import org.json.JSONArray
+import org.json.JSONException
+import org.zimmob.zimlx.toArrayList
+import org.zimmob.zimlx.util.OkHttpClientBuilder
+import org.zimmob.zimlx.util.ZimSingletonHolder
+import java.io.IOException
+
+/**
+ * Loads web search suggestions for the app search without blocking it.
+ *
+ * A request is only sent once the query stopped changing for [DEBOUNCE_DELAY] ms, and a new
+ * query cancels the request of the previous one. Results are cached by url, so an earlier
+ * query is answered right away, and while the suggestions for a longer query load the cached
+ * ones of its longest prefix which still match are shown instead.
+ *
+ * Nothing is loaded if the app doesn't hold the INTERNET permission.
+ *
+ * Must only be used on the main thread.
+ */
+class WebSuggestionsLoader @VisibleForTesting constructor(private val client: OkHttpClient) {
+
+    // Requests would only fail without network access, so none are made
+    private var enabled = true
+
+    private constructor(context: Context) : this(OkHttpClientBuilder().build(context)) {
+        enabled = ContextCompat.checkSelfPermission(context, Manifest.permission.INTERNET) ==
+                PackageManager.PERMISSION_GRANTED
+    }
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val cache = LruCache<String, List<String>>(CACHE_SIZE)
+
+    private var pendingLoad: Runnable? = null
+    private var call: Call? = null
+    // Changed by every load and cancel, so that responses to superseded queries are dropped
+    private var generation = 0
+
+    /**
+     * Returns the suggestions for [query] which are known right away, or null if there are
+     * none. Unless they were cached, the suggestions for [query] are then loaded and sent to
+     * [callback] on the main thread, if neither [load] nor [cancel] is called before.
+     *
+     * @param suggestionsUrl the suggestions API url, %s will be replaced with the query
+     */
+    fun load(suggestionsUrl: String, query: String, callback: (List<String>) -> Unit): List<String>? {
+        cancel()
+        if (!enabled) return null
+        val url = formatUrl(suggestionsUrl, query)
+        cache.get(url)?.let { return it }
+
+        val loadGeneration = generation
+        val load = Runnable {
+            pendingLoad = null
+            val request = try {
+                Request.Builder().url(url).build()
+            } catch (e: IllegalArgumentException) {
+                return@Runnable
+            }
+            call = client.newCall(request).apply {
+                enqueue(object : Callback {
+
+                    override fun onFailure(call: Call, e: IOException) {
+                        // Keep showing the previous suggestions
+                    }
+
+                    override fun onResponse(call: Call, response: Response) {
+                        val suggestions = response.use { parse(it) } ?: return
+                        cache.put(url, suggestions)
+                        handler.post {
+                            if (generation == loadGeneration) {
+                                this@WebSuggestionsLoader.call = null
+                                callback(suggestions)
+                            }
+                        }
+                    }
+                })
+            }
+        }
+        pendingLoad = load
+        handler.postDelayed(load, DEBOUNCE_DELAY)
+        return getFromPrefix(suggestionsUrl, query)
+    }
+
+    /**
+     * Cancels the pending load, if any
+     */
+    fun cancel() {
+        generation++
+        pendingLoad?.let { handler.removeCallbacks(it) }
+        pendingLoad = null
+        call?.cancel()
+        call = null
+    }
+
+    private fun getFromPrefix(suggestionsUrl: String, query: String): List<String>? {
+        for (end in query.length - 1 downTo 1) {
+            val suggestions = cache.get(formatUrl(suggestionsUrl, query.substring(0, end)))
+            if (suggestions != null) {
+                return suggestions.filter { it.startsWith(query, ignoreCase = true) }
+            }
+        }
+        return null
+    }
+
+    private fun formatUrl(suggestionsUrl: String, query: String) =
+            suggestionsUrl.format(Uri.encode(query))
+
+    /**
+     * Parses an OpenSearch suggestions response, which all supported providers use
+     */
+    private fun parse(response: Response): List<String>? {
+        if (!response.isSuccessful) return null
+        return try {
+            val body = response.body?.string() ?: return null
+            JSONArray(body)
+                    .getJSONArray(1)
+                    .toArrayList<String>()
+                    .take(WebSearchProvider.MAX_SUGGESTIONS)
+        } catch (e: IOException) {
+            null
+        } catch (e: JSONException) {
+            null
+        }
+    }
+
+    companion object : ZimSingletonHolder<WebSuggestionsLoader>(::WebSuggestionsLoader) {
+
+        @VisibleForTesting
+        const val DEBOUNCE_DELAY = 150L
+        private const val CACHE_SIZE = 64
+    }
+}
@@ -82,9 +82,12 @@ class EditIconActivity : SettingsBaseActivity() {
             if (isFolder) {
                 packs.forEach {
                     it.ensureInitialLoadComplete()
+                    var found = 0
                     it.getAllIcons({ list ->
                         // Max 3 icons per pack
-                        list.mapNotNull { it as? IconPack.Entry }.take(3).forEach { entry ->
+                        val entries = list.mapNotNull { it as? IconPack.Entry }.take(3 - found)
+                        found += entries.size
+                        entries.forEach { entry ->
                             runOnUiThread {
                                 val item = IconItem(entry, it is DefaultPack, it.displayName)
                                 val index = icons.size - 1
@@ -95,7 +98,7 @@ class EditIconActivity : SettingsBaseActivity() {
                             }
                         }
                     }, {
-                        false
+                        found >= 3
                     }, {
                         // Filter for folder icons
                         it.contains("folder", true)
@@ -86,9 +86,22 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
                          customIconEntry: IconPackManager.CustomIconEntry?,
                          drawableFactory: ZimDrawableFactory): FastBitmapDrawable?
 
+    /**
+     * Sends all icons of the pack to [callback] in pages, in the order they should be shown. The
+     * first page is kept small so that the first icons can be shown right away, later pages have
+     * up to [PAGE_SIZE] entries. Stops as soon as [cancel] returns true.
+     */
     open fun getAllIcons(callback: (List<PackEntry>) -> Unit, cancel: () -> Boolean, filter: (item: String) -> Boolean = { _ -> true }) {
         ensureInitialLoadComplete()
-        callback(categorize(filterDuplicates(entries)).filter { if (it is Entry) filter(it.identifierName) else true })
+        if (cancel()) return
+        val all = categorize(filterDuplicates(entries)).filter { if (it is Entry) filter(it.identifierName) else true }
+        var start = 0
+        while (start < all.size) {
+            if (cancel()) return
+            val end = Math.min(all.size, start + if (start == 0) FIRST_PAGE_SIZE else PAGE_SIZE)
+            callback(all.subList(start, end))
+            start = end
+        }
     }
 
     abstract fun supportsMasking(): Boolean
@@ -136,4 +149,11 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
 
         abstract fun toCustomEntry(): IconPackManager.CustomIconEntry
     }
+
+    companion object {
+
+        // About one screen of the icon picker
+        const val FIRST_PAGE_SIZE = 32
+        const val PAGE_SIZE = 256
+    }
 }
@@ -0,0 +1,332 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.iconpack
+
+import android.content.ComponentName
+import android.util.Log
+import com.google.android.apps.nexuslauncher.clock.CustomClock
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * The parsed appfilter of an icon pack, kept in a file so that the XML is only parsed again
+ * after the pack is updated.
+ *
+ * The file is memory mapped. Components are found with a binary search over a table sorted by
+ * the hash of the component, so a lookup only decodes the strings of the entries it compares.
+ * Each component entry has a slot for the resolved drawable id, which is written back on the
+ * first lookup, so later starts don't need to resolve it again. The calendars, clocks, dynamic
+ * drawables and mask are small and are read in full.
+ *
+ * All strings are stored once in a pool at the end of the file as a 2 byte length followed by
+ * the UTF-8 bytes, and referenced by their offset in the file.
+ */
+class IconPackCache private constructor(private val buffer: ByteBuffer) {
+
+    val componentCount = buffer.getInt(COMPONENT_COUNT)
+    private val componentTable = buffer.getInt(COMPONENT_TABLE)
+
+    /**
+     * Returns the index of [component] in the component table, or -1 if the pack has no icon
+     * for it
+     */
+    fun findComponent(component: ComponentName): Int {
+        val key = component.flattenToString()
+        val hash = key.hashCode()
+        var low = 0
+        var high = componentCount
+        // Find the first entry with the hash
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (getHash(mid) < hash) low = mid + 1 else high = mid
+        }
+        var index = low
+        while (index < componentCount && getHash(index) == hash) {
+            if (readString(componentEntry(index) + 4) == key) return index
+            index++
+        }
+        return -1
+    }
+
+    fun getComponent(index: Int): ComponentName? =
+            ComponentName.unflattenFromString(readString(componentEntry(index) + 4))
+
+    fun getDrawableName(index: Int) = readString(componentEntry(index) + 8)
+
+    /**
+     * Returns the drawable id stored by [setDrawableId], or [ID_UNRESOLVED]
+     */
+    fun getDrawableId(index: Int) = buffer.getInt(componentEntry(index) + 12)
+
+    fun setDrawableId(index: Int, id: Int) {
+        buffer.putInt(componentEntry(index) + 12, id)
+    }
+
+    fun getCalendars(): Map<ComponentName, String> {
+        val calendars = HashMap<ComponentName, String>()
+        forEachEntry(CALENDAR_TABLE, 8) { entry ->
+            ComponentName.unflattenFromString(readString(entry))?.let {
+                calendars[it] = readString(entry + 4)
+            }
+        }
+        return calendars
+    }
+
+    /**
+     * Returns the clock metadata by drawable name
+     */
+    fun getClocks(): Map<String, CustomClock.Metadata> {
+        val clocks = HashMap<String, CustomClock.Metadata>()
+        forEachEntry(CLOCK_TABLE, 28) { entry ->
+            clocks[readString(entry)] = CustomClock.Metadata(
+                    buffer.getInt(entry + 4), buffer.getInt(entry + 8), buffer.getInt(entry + 12),
+                    buffer.getInt(entry + 16), buffer.getInt(entry + 20), buffer.getInt(entry + 24))
+        }
+        return clocks
+    }
+
+    /**
+     * Returns the xml name of the dynamic drawables by drawable name
+     */
+    fun getDynamicDrawables(): Map<String, String> {
+        val drawables = HashMap<String, String>()
+        forEachEntry(DYNAMIC_TABLE, 8) { entry ->
+            drawables[readString(entry)] = readString(entry + 4)
+        }
+        return drawables
+    }
+
+    /**
+     * The scale factor as read from the appfilter, which may be a dimension resource id
+     */
+    val maskScaleFactor get() = buffer.getFloat(buffer.getInt(MASK))
+
+    /**
+     * Adds the stored mask entries to [mask], using [createEntry] for the drawable names
+     */
+    fun readMask(mask: IconMask, createEntry: (String) -> IconPackImpl.Entry) {
+        var position = buffer.getInt(MASK)
+        mask.onlyMaskLegacy = buffer.getInt(position + 4) != 0
+        position += 8
+        for (list in arrayOf(mask.iconBackEntries, mask.iconMaskEntries, mask.iconUponEntries)) {
+            val count = buffer.getInt(position)
+            position += 4
+            for (i in 0 until count) {
+                list.add(createEntry(readString(position)))
+                position += 4
+            }
+        }
+    }
+
+    private fun componentEntry(index: Int) = componentTable + index * COMPONENT_ENTRY_SIZE
+
+    private fun getHash(index: Int) = buffer.getInt(componentEntry(index))
+
+    private inline fun forEachEntry(tableHeader: Int, entrySize: Int, action: (Int) -> Unit) {
+        val table = buffer.getInt(tableHeader)
+        val count = buffer.getInt(tableHeader + 4)
+        for (i in 0 until count) {
+            action(table + i * entrySize)
+        }
+    }
+
+    private fun readString(entryField: Int): String {
+        val offset = buffer.getInt(entryField)
+        val length = buffer.getShort(offset).toInt() and 0xFFFF
+        // Absolute reads only, so that lookups from different threads don't share a position
+        val bytes = ByteArray(length)
+        for (i in 0 until length) {
+            bytes[i] = buffer.get(offset + 2 + i)
+        }
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    /**
+     * Collects the parsed appfilter and writes it in the format read by [IconPackCache]
+     */
+    class Builder {
+
+        val components = HashMap<ComponentName, String>()
+        val calendars = HashMap<ComponentName, String>()
+        // Hour, minute and second layer index, then default hour, minute and second
+        val clocks = HashMap<String, IntArray>()
+        val dynamicDrawables = HashMap<String, String>()
+        var scaleFactor = 1f
+        var onlyMaskLegacy = false
+        val iconBacks = ArrayList<String>()
+        val iconMasks = ArrayList<String>()
+        val iconUpons = ArrayList<String>()
+
+        private val strings = LinkedHashMap<String, Int>()
+        private val stringPool = ByteArrayOutputStream()
+        private val stringPoolData = DataOutputStream(stringPool)
+
+        /**
+         * Returns the cache file contents for the given version of the pack
+         */
+        fun build(versionCode: Long, lastUpdateTime: Long): ByteArray {
+            val sortedComponents = components.entries
+                    .map { it.key.flattenToString() to it.value }
+                    .sortedBy { it.first.hashCode() }
+
+            val componentTable = HEADER_SIZE
+            val calendarTable = componentTable + sortedComponents.size * COMPONENT_ENTRY_SIZE
+            val clockTable = calendarTable + calendars.size * 8
+            val dynamicTable = clockTable + clocks.size * 28
+            val maskStart = dynamicTable + dynamicDrawables.size * 8
+            val stringsStart = maskStart + 8 + 4 * 3 +
+                    4 * (iconBacks.size + iconMasks.size + iconUpons.size)
+
+            val bytes = ByteArrayOutputStream(stringsStart)
+            val out = DataOutputStream(bytes)
+            out.writeInt(MAGIC)
+            out.writeInt(FORMAT_VERSION)
+            out.writeLong(versionCode)
+            out.writeLong(lastUpdateTime)
+            out.writeInt(sortedComponents.size)
+            out.writeInt(componentTable)
+            out.writeInt(calendarTable)
+            out.writeInt(calendars.size)
+            out.writeInt(clockTable)
+            out.writeInt(clocks.size)
+            out.writeInt(dynamicTable)
+            out.writeInt(dynamicDrawables.size)
+            out.writeInt(maskStart)
+
+            for ((component, drawable) in sortedComponents) {
+                out.writeInt(component.hashCode())
+                out.writeInt(stringsStart + intern(component))
+                out.writeInt(stringsStart + intern(drawable))
+                out.writeInt(ID_UNRESOLVED)
+            }
+            for ((component, prefix) in calendars) {
+                out.writeInt(stringsStart + intern(component.flattenToString()))
+                out.writeInt(stringsStart + intern(prefix))
+            }
+            for ((drawable, clock) in clocks) {
+                out.writeInt(stringsStart + intern(drawable))
+                clock.forEach { out.writeInt(it) }
+            }
+            for ((drawable, xml) in dynamicDrawables) {
+                out.writeInt(stringsStart + intern(drawable))
+                out.writeInt(stringsStart + intern(xml))
+            }
+            out.writeFloat(scaleFactor)
+            out.writeInt(if (onlyMaskLegacy) 1 else 0)
+            for (list in arrayOf(iconBacks, iconMasks, iconUpons)) {
+                out.writeInt(list.size)
+                list.forEach { out.writeInt(stringsStart + intern(it)) }
+            }
+            stringPool.writeTo(out)
+            return bytes.toByteArray()
+        }
+
+        /**
+         * Returns the offset of [string] in the string pool
+         */
+        private fun intern(string: String): Int {
+            return strings.getOrPut(string) {
+                val offset = stringPoolData.size()
+                val bytes = string.toByteArray(Charsets.UTF_8)
+                stringPoolData.writeShort(bytes.size)
+                stringPoolData.write(bytes)
+                offset
+            }
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "IconPackCache"
+
+        private const val MAGIC = 0x49435043 // ICPC
+        // Change this whenever the file format or the parsing of the appfilter changes
+        private const val FORMAT_VERSION = 1
+
+        const val ID_UNRESOLVED = -1
+
+        // Header: magic, format version, pack version code and update time, then the tables
+        private const val COMPONENT_COUNT = 24
+        private const val COMPONENT_TABLE = 28
+        private const val CALENDAR_TABLE = 32
+        private const val CLOCK_TABLE = 40
+        private const val DYNAMIC_TABLE = 48
+        private const val MASK = 56
+        private const val HEADER_SIZE = 60
+
+        // Hash, component, drawable name and resolved drawable id
+        private const val COMPONENT_ENTRY_SIZE = 16
+
+        /**
+         * Writes [data] from [Builder.build] to [file]. The file is written next to the old one
+         * and renamed, so a crash never leaves a partially written cache behind.
+         */
+        fun save(file: File, data: ByteArray): Boolean {
+            val tmp = File(file.path + ".tmp")
+            try {
+                file.parentFile?.mkdirs()
+                FileOutputStream(tmp).use { it.write(data) }
+                if (!tmp.renameTo(file)) {
+                    throw IOException("Failed to rename $tmp")
+                }
+                return true
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to save the icon pack cache", e)
+                tmp.delete()
+                return false
+            }
+        }
+
+        /**
+         * Returns a cache reading [data] from [Builder.build] in memory
+         */
+        fun wrap(data: ByteArray) = IconPackCache(ByteBuffer.wrap(data))
+
+        /**
+         * Returns the cache in [file] if it was written for the given version of the pack, or null
+         */
+        fun open(file: File, versionCode: Long, lastUpdateTime: Long): IconPackCache? {
+            if (!file.exists()) return null
+            try {
+                RandomAccessFile(file, "rw").use { raf ->
+                    val length = raf.length()
+                    if (length < HEADER_SIZE || length > Int.MAX_VALUE) return null
+                    // The mapping stays valid after the file is closed
+                    val buffer = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, length)
+                    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION
+                            || buffer.getLong(8) != versionCode
+                            || buffer.getLong(16) != lastUpdateTime
+                            || buffer.getInt(MASK) !in HEADER_SIZE until length) {
+                        return null
+                    }
+                    return IconPackCache(buffer)
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to open the icon pack cache", e)
+                file.delete()
+                return null
+            }
+        }
+    }
+}
@@ -44,21 +44,32 @@ import org.zimmob.zimlx.adaptive.AdaptiveIconGenerator
 import org.zimmob.zimlx.get
 import org.zimmob.zimlx.iconpack.*
 import org.zimmob.zimlx.toTitleCase
+import java.io.File
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.collections.ArrayList
 
 class IconPackImpl(context: Context, packPackageName: String) : IconPack(context, packPackageName) {
 
-    private val packComponents: MutableMap<ComponentName, Entry> = HashMap()
-    private val packCalendars: MutableMap<ComponentName, String> = HashMap()
+    private var packCache: IconPackCache? = null
+    // Entries of the components looked up so far, null for components without an icon
+    private val packComponents = HashMap<ComponentName, Entry?>()
+    private var packCalendars: Map<ComponentName, String> = emptyMap()
     private val packClocks: MutableMap<Int, CustomClock.Metadata> = HashMap()
     private val packDynamicDrawables: MutableMap<Int, DynamicDrawable.Metadata> = HashMap()
     private var packMask: IconMask = IconMask()
     private val defaultPack = DefaultPack(context)
     private val packResources = context.packageManager.getResourcesForApplication(packPackageName)
     private val prefs by lazy { Utilities.getZimPrefs(context) }
-    override val entries get() = packComponents.values.toList()
+    override val entries: List<Entry>
+        get() {
+            val cache = packCache ?: return emptyList()
+            return (0 until cache.componentCount).map {
+                val id = cache.getDrawableId(it)
+                Entry(cache.getDrawableName(it), if (id != IconPackCache.ID_UNRESOLVED) id else null)
+            }
+        }
 
     init {
         if (prefs.showDebugInfo) {
@@ -85,100 +96,41 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
 
     override fun loadPack() {
         try {
-            val startTime = System.currentTimeMillis()
-            val res = packResources
-            val compStart = "ComponentInfo{"
-            val compStartlength = compStart.length
-            val compEnd = "}"
-            val compEndLength = compEnd.length
-
-            val parseXml = getXml("appfilter") ?: throw IllegalStateException("parser is null")
-            while (parseXml.next() != XmlPullParser.END_DOCUMENT) {
-                if (parseXml.eventType == XmlPullParser.START_TAG) {
-                    val name = parseXml.name
-                    val isCalendar = name == "calendar"
-                    when {
-                        isCalendar || name == "item" -> {
-                            var componentName: String? = parseXml[null, "component"]
-                            val drawableName = parseXml[if (isCalendar) "prefix" else "drawable"]
-                            if (componentName != null && drawableName != null) {
-                                if (componentName.startsWith(compStart) && componentName.endsWith(compEnd)) {
-                                    componentName = componentName.substring(compStartlength, componentName.length - compEndLength)
-                                }
-                                val parsed = ComponentName.unflattenFromString(componentName)
-                                if (parsed != null) {
-                                    if (isCalendar) {
-                                        packCalendars[parsed] = drawableName
-                                    } else {
-                                        packComponents[parsed] = Entry(drawableName)
-                                    }
-                                }
-                            }
-                        }
-                        name == "dynamic-clock" -> {
-                            val drawableName = parseXml["drawable"]
-                            if (drawableName != null) {
-                                val drawableId = getDrawableId(drawableName)
-                                if (parseXml is XmlResourceParser && drawableId != 0) {
-                                    packClocks[drawableId] = CustomClock.Metadata(
-                                            parseXml.getAttributeIntValue(null, "hourLayerIndex", -1),
-                                            parseXml.getAttributeIntValue(null, "minuteLayerIndex", -1),
-                                            parseXml.getAttributeIntValue(null, "secondLayerIndex", -1),
-                                            parseXml.getAttributeIntValue(null, "defaultHour", 0),
-                                            parseXml.getAttributeIntValue(null, "defaultMinute", 0),
-                                            parseXml.getAttributeIntValue(null, "defaultSecond", 0))
-                                }
-                            }
-                        }
-                        name == "scale" -> {
-                            val scale = parseXml["factor"]!!.toFloat()
-                            if (scale > 0x7f070000) {
-                                packMask.iconScale = packResources.getDimension(scale.toInt())
-                            } else {
-                                packMask.iconScale = scale
-                            }
-                        }
-                        name == "iconback" -> {
-                            // TODO: handle packs with multiple masks
-                            addImgsTo(parseXml, packMask.iconBackEntries)
-                        }
-                        name == "iconmask" -> {
-                            addImgsTo(parseXml, packMask.iconMaskEntries)
-                        }
-                        name == "iconupon" -> {
-                            addImgsTo(parseXml, packMask.iconUponEntries)
-                        }
-                        name == "config" -> {
-                            val onlyMaskLegacy = parseXml["onlyMaskLegacy"]
-                            if (!TextUtils.isEmpty(onlyMaskLegacy)) {
-                                packMask.onlyMaskLegacy = onlyMaskLegacy!!.toBoolean()
-                            }
-                        }
-                    }
+            val info = context.packageManager.getPackageInfo(packPackageName, 0)
+            val versionCode = info.versionCode.toLong()
+            val file = File(context.cacheDir, "$CACHE_DIR/$packPackageName")
+            var cache = IconPackCache.open(file, versionCode, info.lastUpdateTime)
+            if (cache == null) {
+                val data = parsePack().build(versionCode, info.lastUpdateTime)
+                if (IconPackCache.save(file, data)) {
+                    cache = IconPackCache.open(file, versionCode, info.lastUpdateTime)
+                }
+                if (cache == null) {
+                    cache = IconPackCache.wrap(data)
                 }
             }
-            // TODO: only run this on icon packs with oneplus intent filter to reduce overhead for others
-            val parseDrawableXml = getXml("drawable")
-            if (parseDrawableXml != null) {
-                while (parseDrawableXml.next() != XmlPullParser.END_DOCUMENT) {
-                    if (parseDrawableXml.eventType == XmlPullParser.START_TAG) {
-                        val name = parseDrawableXml.name
-                        if (name == "item") {
-                            val dynamicDrawable = parseDrawableXml["dynamic_drawable"]
-                            if (dynamicDrawable != null) {
-                                val drawableId = res.getIdentifier(dynamicDrawable, "drawable",
-                                        packPackageName)
-                                if (drawableId != 0) {
-                                    packDynamicDrawables[drawableId] = DynamicDrawable.Metadata(
-                                            parseDrawableXml["xml"]!!,
-                                            packPackageName)
-                                }
-                            }
-                        }
-                    }
+
+            packCalendars = cache.getCalendars()
+            cache.getClocks().forEach { (drawableName, metadata) ->
+                val drawableId = getDrawableId(drawableName)
+                if (drawableId != 0) {
+                    packClocks[drawableId] = metadata
+                }
+            }
+            cache.getDynamicDrawables().forEach { (drawableName, xml) ->
+                val drawableId = getDrawableId(drawableName)
+                if (drawableId != 0) {
+                    packDynamicDrawables[drawableId] = DynamicDrawable.Metadata(xml, packPackageName)
                 }
             }
-            val endTime = System.currentTimeMillis()
+            val scale = cache.maskScaleFactor
+            if (scale > 0x7f070000) {
+                packMask.iconScale = packResources.getDimension(scale.toInt())
+            } else {
+                packMask.iconScale = scale
+            }
+            cache.readMask(packMask) { Entry(it) }
+            packCache = cache
             return
         } catch (e: PackageManager.NameNotFoundException) {
             e.printStackTrace()
@@ -188,27 +140,141 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             e.printStackTrace()
         } catch (e: IllegalStateException) {
             e.printStackTrace()
+        } catch (e: Resources.NotFoundException) {
+            e.printStackTrace()
         }
         Toast.makeText(context, "Failed to parse AppFilter", Toast.LENGTH_SHORT).show()
     }
 
-    private fun addImgsTo(parseXml: XmlPullParser, collection: MutableCollection<Entry>) {
+    /**
+     * Reads the appfilter and the dynamic drawables of the pack
+     */
+    private fun parsePack(): IconPackCache.Builder {
+        val builder = IconPackCache.Builder()
+        val compStart = "ComponentInfo{"
+        val compStartlength = compStart.length
+        val compEnd = "}"
+        val compEndLength = compEnd.length
+
+        val parseXml = getXml("appfilter") ?: throw IllegalStateException("parser is null")
+        while (parseXml.next() != XmlPullParser.END_DOCUMENT) {
+            if (parseXml.eventType == XmlPullParser.START_TAG) {
+                val name = parseXml.name
+                val isCalendar = name == "calendar"
+                when {
+                    isCalendar || name == "item" -> {
+                        var componentName: String? = parseXml[null, "component"]
+                        val drawableName = parseXml[if (isCalendar) "prefix" else "drawable"]
+                        if (componentName != null && drawableName != null) {
+                            if (componentName.startsWith(compStart) && componentName.endsWith(compEnd)) {
+                                componentName = componentName.substring(compStartlength, componentName.length - compEndLength)
+                            }
+                            val parsed = ComponentName.unflattenFromString(componentName)
+                            if (parsed != null) {
+                                if (isCalendar) {
+                                    builder.calendars[parsed] = drawableName
+                                } else {
+                                    builder.components[parsed] = drawableName
+                                }
+                            }
+                        }
+                    }
+                    name == "dynamic-clock" -> {
+                        val drawableName = parseXml["drawable"]
+                        if (drawableName != null && parseXml is XmlResourceParser) {
+                            builder.clocks[drawableName] = intArrayOf(
+                                    parseXml.getAttributeIntValue(null, "hourLayerIndex", -1),
+                                    parseXml.getAttributeIntValue(null, "minuteLayerIndex", -1),
+                                    parseXml.getAttributeIntValue(null, "secondLayerIndex", -1),
+                                    parseXml.getAttributeIntValue(null, "defaultHour", 0),
+                                    parseXml.getAttributeIntValue(null, "defaultMinute", 0),
+                                    parseXml.getAttributeIntValue(null, "defaultSecond", 0))
+                        }
+                    }
+                    name == "scale" -> {
+                        // Resolved when the cache is read, the factor may be a dimension id
+                        builder.scaleFactor = parseXml["factor"]!!.toFloat()
+                    }
+                    name == "iconback" -> {
+                        // TODO: handle packs with multiple masks
+                        addImgsTo(parseXml, builder.iconBacks)
+                    }
+                    name == "iconmask" -> {
+                        addImgsTo(parseXml, builder.iconMasks)
+                    }
+                    name == "iconupon" -> {
+                        addImgsTo(parseXml, builder.iconUpons)
+                    }
+                    name == "config" -> {
+                        val onlyMaskLegacy = parseXml["onlyMaskLegacy"]
+                        if (!TextUtils.isEmpty(onlyMaskLegacy)) {
+                            builder.onlyMaskLegacy = onlyMaskLegacy!!.toBoolean()
+                        }
+                    }
+                }
+            }
+        }
+        // TODO: only run this on icon packs with oneplus intent filter to reduce overhead for others
+        val parseDrawableXml = getXml("drawable")
+        if (parseDrawableXml != null) {
+            while (parseDrawableXml.next() != XmlPullParser.END_DOCUMENT) {
+                if (parseDrawableXml.eventType == XmlPullParser.START_TAG) {
+                    val name = parseDrawableXml.name
+                    if (name == "item") {
+                        val dynamicDrawable = parseDrawableXml["dynamic_drawable"]
+                        if (dynamicDrawable != null) {
+                            builder.dynamicDrawables[dynamicDrawable] = parseDrawableXml["xml"]!!
+                        }
+                    }
+                }
+            }
+        }
+        return builder
+    }
+
+    private fun addImgsTo(parseXml: XmlPullParser, collection: MutableCollection<String>) {
         for (i in (0 until parseXml.attributeCount)) {
             if (parseXml.getAttributeName(i).startsWith("img")) {
                 val drawableName = parseXml.getAttributeValue(i)
                 if (!TextUtils.isEmpty(drawableName)) {
-                    collection.add(Entry(drawableName))
+                    collection.add(drawableName)
                 }
             }
         }
     }
 
     override fun getEntryForComponent(key: ComponentKey): Entry? {
-        val entry = packComponents[key.componentName]
+        val entry = getComponentEntry(key.componentName)
         if (entry?.isAvailable != true) return null
         return entry
     }
 
+    /**
+     * Returns the entry of [component] from the pack cache, which is only read for the
+     * components that are actually requested
+     */
+    private fun getComponentEntry(component: ComponentName?): Entry? {
+        if (component == null) return null
+        synchronized(packComponents) {
+            if (packComponents.containsKey(component)) return packComponents[component]
+        }
+        val cache = packCache ?: return null
+        val index = cache.findComponent(component)
+        val entry = if (index >= 0) {
+            val drawableName = cache.getDrawableName(index)
+            var drawableId = cache.getDrawableId(index)
+            if (drawableId == IconPackCache.ID_UNRESOLVED) {
+                drawableId = getDrawableId(drawableName)
+                cache.setDrawableId(index, drawableId)
+            }
+            Entry(drawableName, drawableId)
+        } else null
+        synchronized(packComponents) {
+            packComponents[component] = entry
+        }
+        return entry
+    }
+
     override fun getMaskEntryForComponent(key: ComponentKey): IconPack.Entry? {
         if (!supportsMasking()) return null
         return MaskEntry(key)
@@ -246,8 +312,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         val drawableId = when {
             customIconEntry?.icon != null -> getDrawableId(customIconEntry.icon)
             packCalendars.containsKey(component) -> getDrawableId(packCalendars[component] + Calendar.getInstance().get(Calendar.DAY_OF_MONTH))
-            packComponents.containsKey(component) -> packComponents[component]!!.drawableId
-            else -> 0
+            else -> getComponentEntry(component)?.drawableId ?: 0
         }
 
         if (drawableId != 0) {
@@ -313,8 +378,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             val component = itemInfo.targetComponent
             val drawableId = when {
                 customIconEntry?.icon != null -> getDrawableId(customIconEntry.icon)
-                packComponents.containsKey(component) -> packComponents[component]!!.drawableId
-                else -> 0
+                else -> getComponentEntry(component)?.drawableId ?: 0
             }
             if (packClocks.containsKey(drawableId)) {
                 val drawable = AdaptiveIconCompat.wrap(packResources.getDrawable(drawableId))
@@ -333,47 +397,39 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
     }
 
     override fun getAllIcons(callback: (List<PackEntry>) -> Unit, cancel: () -> Boolean, filter: (item: String) -> Boolean) {
-        var lastSend = System.currentTimeMillis() - 900
-        var tmpList = ArrayList<PackEntry>()
-        val sendResults = { force: Boolean ->
-            val current = System.currentTimeMillis()
-            if (force || current - lastSend >= 1000) {
-                callback(tmpList)
-                tmpList = ArrayList()
-                lastSend = current
-            }
+        var pageSize = FIRST_PAGE_SIZE
+        var page = ArrayList<PackEntry>(pageSize)
+        val sendPage = {
+            callback(page)
+            pageSize = PAGE_SIZE
+            page = ArrayList(pageSize)
         }
         var found = false
-        val startTime = System.currentTimeMillis()
-        var entry: Entry
         try {
             val parser = getXml("drawable")
             while (parser != null && parser.next() != XmlPullParser.END_DOCUMENT) {
                 if (cancel()) return
                 if (parser.eventType != XmlPullParser.START_TAG) continue
                 if ("category" == parser.name) {
-                    tmpList.add(CategoryTitle(parser["title"]!!))
-                    sendResults(false)
+                    page.add(CategoryTitle(parser["title"]!!))
                 } else if ("item" == parser.name) {
                     val drawableName = parser["drawable"]!!
                     if (filter(drawableName)) {
                         val resId = getDrawableId(drawableName)
                         if (resId != 0) {
-                            entry = Entry(drawableName, resId)
-                            tmpList.add(entry)
-                            sendResults(false)
+                            page.add(Entry(drawableName, resId))
                             found = true
                         }
                     }
                 }
+                if (page.size >= pageSize) sendPage()
             }
-            sendResults(true)
-            if (found) {
-                return
-            }
+            if (page.isNotEmpty()) sendPage()
         } catch (e: Exception) {
             e.printStackTrace()
         }
+        // Entries which were already sent would be sent twice by the fallback
+        if (found) return
         super.getAllIcons(callback, cancel, filter)
     }
 
@@ -408,8 +464,12 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         }
     }
 
-    private val idCache = mutableMapOf<String, Int>()
-    private fun getDrawableId(name: String) = packResources.getIdentifier(name, "drawable", packPackageName)// idCache.getOrPut(name) {    }
+    // Resolved drawable ids by name, as getIdentifier is slow
+    private val idCache = ConcurrentHashMap<String, Int>()
+
+    private fun getDrawableId(name: String) = idCache.getOrPut(name) {
+        packResources.getIdentifier(name, "drawable", packPackageName)
+    }
 
     fun createEntry(icon: Intent.ShortcutIconResource): Entry {
         val id = packResources.getIdentifier(icon.resourceName, null, null)
@@ -468,4 +528,9 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         override fun toCustomEntry() = IconPackManager.CustomIconEntry(packPackageName, key.toString(), "mask")
     }
 
+    companion object {
+
+        // Directory in the cache dir with the parsed appfilter of each icon pack
+        private const val CACHE_DIR = "icon_packs"
+    }
 }
@@ -20,12 +20,14 @@ package org.zimmob.zimlx.iconpack
 import android.app.Activity
 import android.content.Context
 import android.content.Intent
-import android.graphics.drawable.Drawable
+import android.graphics.Bitmap
+import android.graphics.drawable.BitmapDrawable
 import android.os.Bundle
 import android.os.Handler
 import android.os.Message
 import android.os.Process
 import android.text.TextUtils
+import android.util.LruCache
 import android.view.*
 import android.widget.SearchView
 import android.widget.TextView
@@ -36,12 +38,13 @@ import androidx.recyclerview.widget.RecyclerView
 import com.android.launcher3.LauncherModel
 import com.android.launcher3.R
 import com.android.launcher3.compat.LauncherAppsCompat
+import com.android.launcher3.graphics.BitmapRenderer
 import kotlinx.android.synthetic.main.activity_settings_search.*
 import org.zimmob.zimlx.*
 import org.zimmob.zimlx.iconpack.EditIconActivity.Companion.EXTRA_ENTRY
 import org.zimmob.zimlx.settings.ui.SettingsBaseActivity
 import org.zimmob.zimlx.views.FadingImageView
-import java.text.Collator
+import java.text.Normalizer
 import java.util.*
 import java.util.concurrent.Semaphore
 
@@ -56,18 +59,27 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
     private var actualItems = ArrayList<AdapterItem>()
     private val adapter = IconGridAdapter()
     private val layoutManager = GridLayoutManager(this, 1)
+    @Volatile
     private var canceled = false
-    private val collator = Collator.getInstance()
     private val showDebugInfo = zimPrefs.showDebugInfo
 
     private var dynamicPadding = 0
 
+    private val previewSize by lazy { resources.getDimensionPixelSize(R.dimen.icon_preview_size) }
+    private val thumbnails = object : LruCache<String, Bitmap>(
+            (Runtime.getRuntime().maxMemory() / THUMBNAIL_CACHE_FRACTION).toInt()) {
+        override fun sizeOf(key: String, value: Bitmap) = value.byteCount
+    }
+
     private val pickerComponent by lazy {
         LauncherAppsCompat.getInstance(this)
                 .getActivityList(iconPack.packPackageName, Process.myUserHandle()).firstOrNull()?.componentName
     }
 
     private var searchItems: MutableList<AdapterItem>? = null
+    // Only accessed on the icon pack ui thread, like the search handler
+    private val searchIndex = SearchIndex()
+    private var searchQuery: String? = null
     private val searchHandler = object : Handler(LauncherModel.getIconPackUiLooper()) {
         override fun handleMessage(msg: Message) {
             if (msg.what == R.id.message_search) {
@@ -109,10 +121,6 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
                 waiter.release()
             }
         }
-        collator.apply {
-            decomposition = Collator.CANONICAL_DECOMPOSITION
-            strength = Collator.TERTIARY
-        }
     }
 
     override fun finish() {
@@ -128,15 +136,20 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
                 else -> null
             }
         }
+        newItems.forEach { if (it is IconItem) searchIndex.add(it) }
+        // Add the new results of a search which was started while the pack was loading
+        searchQuery?.let { processSearchQuery(it) }
         runOnUiThread {
-            if (items.size == 1 && items[0] is LoadingItem) {
-                items.removeAt(0)
-                adapter.notifyItemRemoved(0)
+            // While searching, the adapter shows the search results instead
+            val showing = searchItems == null
+            if (actualItems.size == 1 && actualItems[0] is LoadingItem) {
+                actualItems.removeAt(0)
+                if (showing) adapter.notifyItemRemoved(0)
             }
 
-            val addIndex = items.size
-            items.addAll(newItems)
-            adapter.notifyItemRangeInserted(addIndex, newItems.size)
+            val addIndex = actualItems.size
+            actualItems.addAll(newItems)
+            if (showing) adapter.notifyItemRangeInserted(addIndex, newItems.size)
         }
     }
 
@@ -156,9 +169,8 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
     private fun processSearchQuery(query: String?) {
         val q = query?.trim()
-        val filtered = if (!TextUtils.isEmpty(q)) {
-            actualItems.filter { it is IconItem && collator.matches(q!!, it.entry.displayName) }.toMutableList()
-        } else null
+        searchQuery = if (!TextUtils.isEmpty(q)) q else null
+        val filtered = searchQuery?.let { searchIndex.search(it) }
         runOnUiThread {
             val hashCode = items.hashCode()
             searchItems = filtered
@@ -312,13 +324,21 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
             }
 
             fun bind(item: IconItem) {
-                (itemView as FadingImageView).image = null
+                val imageView = itemView as FadingImageView
+                imageView.image = null
                 iconLoader = item
-                iconLoader?.loadIcon()
+                val thumbnail = thumbnails.get(item.entry.identifierName)
+                if (thumbnail != null) {
+                    // Don't fade in icons which were already shown
+                    imageView.setImageBitmap(thumbnail)
+                    name = item.entry.displayName
+                } else {
+                    item.loadIcon(thumbnails, previewSize)
+                }
             }
 
-            override fun onIconLoaded(drawable: Drawable, name: String) {
-                (itemView as FadingImageView).image = drawable
+            override fun onIconLoaded(thumbnail: Bitmap, name: String) {
+                (itemView as FadingImageView).image = BitmapDrawable(resources, thumbnail)
                 this.name = name
             }
 
@@ -354,19 +374,105 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
     class IconItem(val entry: IconPack.Entry) : AdapterItem() {
 
+        @Volatile
         var callback: Callback? = null
 
-        fun loadIcon() {
+        /**
+         * Draws the icon at [size] and adds it to [thumbnails], so that the full size drawable
+         * isn't kept around
+         */
+        fun loadIcon(thumbnails: LruCache<String, Bitmap>, size: Int) {
             runOnUiWorkerThread {
-                val drawable = entry.drawable
+                // Skip icons which were scrolled past before their turn came
+                if (callback == null) return@runOnUiWorkerThread
+                val key = entry.identifierName
+                val thumbnail = thumbnails.get(key) ?: BitmapRenderer.createSoftwareBitmap(size, size) {
+                    val drawable = entry.drawable
+                    drawable.setBounds(0, 0, size, size)
+                    drawable.draw(it)
+                }.also { thumbnails.put(key, it) }
                 val displayName = entry.displayName
-                runOnMainThread { callback?.onIconLoaded(drawable, displayName) }
+                runOnMainThread { callback?.onIconLoaded(thumbnail, displayName) }
             }
         }
 
         interface Callback {
 
-            fun onIconLoaded(drawable: Drawable, name: String)
+            fun onIconLoaded(thumbnail: Bitmap, name: String)
+        }
+    }
+
+    /**
+     * Prefix index over the words of the icon names. An icon matches a query if every word of
+     * the query is the start of a word of its name, ignoring case and accents.
+     */
+    private class SearchIndex {
+
+        private val items = ArrayList<IconItem>()
+        private val words = ArrayList<IndexWord>()
+        private var sorted = true
+
+        fun add(item: IconItem) {
+            val index = items.size
+            items.add(item)
+            (splitWords(item.entry.displayName) + splitWords(item.entry.identifierName))
+                    .distinct().forEach { words.add(IndexWord(it, index)) }
+            sorted = false
+        }
+
+        /**
+         * Returns the matching items in the order they were added
+         */
+        fun search(query: String): MutableList<AdapterItem> {
+            val queryWords = splitWords(query)
+            if (queryWords.isEmpty()) return ArrayList()
+            if (!sorted) {
+                words.sortBy { it.word }
+                sorted = true
+            }
+            var matches: BitSet? = null
+            for (prefix in queryWords) {
+                val wordMatches = BitSet(items.size)
+                var i = lowerBound(prefix)
+                while (i < words.size && words[i].word.startsWith(prefix)) {
+                    wordMatches.set(words[i].item)
+                    i++
+                }
+                if (matches == null) matches = wordMatches else matches.and(wordMatches)
+            }
+            val result = ArrayList<AdapterItem>(matches!!.cardinality())
+            var i = matches.nextSetBit(0)
+            while (i >= 0) {
+                result.add(items[i])
+                i = matches.nextSetBit(i + 1)
+            }
+            return result
+        }
+
+        private fun lowerBound(word: String): Int {
+            var low = 0
+            var high = words.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (words[mid].word < word) low = mid + 1 else high = mid
+            }
+            return low
+        }
+
+        private fun splitWords(text: String): List<String> {
+            return Normalizer.normalize(text, Normalizer.Form.NFD)
+                    .replace(ACCENTS, "")
+                    .toLowerCase(Locale.ROOT)
+                    .split(WORD_SEPARATORS)
+                    .filter { it.isNotEmpty() }
+        }
+
+        private class IndexWord(val word: String, val item: Int)
+
+        companion object {
+
+            private val ACCENTS = Regex("\\p{Mn}+")
+            private val WORD_SEPARATORS = Regex("[^\\p{L}\\p{N}]+")
         }
     }
 
@@ -375,6 +481,8 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
     companion object {
 
         private const val EXTRA_ICON_PACK = "pack"
+        // Part of the heap used for the thumbnails of the icons
+        private const val THUMBNAIL_CACHE_FRACTION = 16
 
         fun newIntent(context: Context, provider: IconPackManager.PackProvider): Intent {
             return Intent(context, IconPickerActivity::class.java).apply {
@@ -19,6 +19,7 @@ package org.zimmob.zimlx.iconpack
 
 import android.content.Context
 import android.content.pm.LauncherActivityInfo
+import android.content.pm.PackageManager
 import android.graphics.drawable.AdaptiveIconDrawable
 import android.graphics.drawable.Drawable
 import com.android.launcher3.ItemInfo
@@ -26,10 +27,12 @@ import com.android.launcher3.R
 import com.android.launcher3.Utilities
 import com.android.launcher3.shortcuts.ShortcutInfoCompat
 import com.google.android.apps.nexuslauncher.DynamicIconProvider
+import org.zimmob.zimlx.override.AppInfoProvider
 
 class ZimIconProvider(context: Context) : DynamicIconProvider(context) {
 
     private val iconPackManager by lazy { IconPackManager.getInstance(context) }
+    private val appInfoProvider by lazy { AppInfoProvider.getInstance(context) }
 
     override fun getIcon(launcherActivityInfo: LauncherActivityInfo, iconDpi: Int, flattenDrawable: Boolean): Drawable {
         return iconPackManager.getIcon(launcherActivityInfo, iconDpi, flattenDrawable, null, this).assertNotAdaptiveIconDrawable(launcherActivityInfo)
@@ -43,6 +46,15 @@ class ZimIconProvider(context: Context) : DynamicIconProvider(context) {
         return iconPackManager.getIcon(shortcutInfo, iconDpi).assertNotAdaptiveIconDrawable(shortcutInfo)
     }
 
+    override fun getIconResourceId(pm: PackageManager, launcherActivityInfo: LauncherActivityInfo): Int {
+        // Icon pack and custom icons can change without the app being updated
+        if (iconPackManager.packList.appliedPacks.any { it !is DefaultPack }
+                || appInfoProvider.getCustomIconEntry(launcherActivityInfo) != null) {
+            return 0
+        }
+        return super.getIconResourceId(pm, launcherActivityInfo)
+    }
+
     fun getDynamicIcon(launcherActivityInfo: LauncherActivityInfo?, iconDpi: Int, flattenDrawable: Boolean): Drawable {
         return super.getIcon(launcherActivityInfo, iconDpi, flattenDrawable).assertNotAdaptiveIconDrawable(launcherActivityInfo)
     }
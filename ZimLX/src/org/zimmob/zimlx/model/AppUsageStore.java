@@ -0,0 +1,212 @@
+package org.zimmob.zimlx.model;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.launcher3.LauncherModel;
+
+import org.zimmob.zimlx.util.DbHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Launch counts per package, kept in memory and written to {@link DbHelper} in the background.
+ *
+ * Packages are mapped to a slot in a primitive count array. Changes only update the memory and
+ * are written together in one transaction on the worker thread after {@link #FLUSH_DELAY}, so
+ * none of the methods touch the disk on the calling thread.
+ *
+ * The stored counts are loaded on the worker thread. Snapshots taken on other background threads
+ * wait for them, the main thread is told by {@link #runWhenLoaded} once they are there instead.
+ */
+public class AppUsageStore {
+
+    private static final long FLUSH_DELAY = 5000;
+
+    private static AppUsageStore sInstance;
+
+    public static synchronized AppUsageStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppUsageStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final Handler mWorkerHandler;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlushRunnable = this::flush;
+
+    private final HashMap<String, Integer> mIndices = new HashMap<>();
+    private String[] mPackages = new String[32];
+    private int[] mCounts = new int[32];
+    private int mSize;
+
+    // Changes which haven't been written yet
+    private HashMap<String, Integer> mPendingIncrements = new HashMap<>();
+    private HashSet<String> mPendingRemovals = new HashSet<>();
+    private boolean mFlushPending;
+
+    private boolean mLoaded;
+    private final ArrayList<Runnable> mLoadCallbacks = new ArrayList<>();
+
+    // Guards loading, mDb is only set once the stored counts were loaded
+    private final Object mLoadLock = new Object();
+    private DbHelper mDb;
+
+    @VisibleForTesting
+    AppUsageStore(Context context) {
+        mContext = context;
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mWorkerHandler.post(this::ensureLoaded);
+    }
+
+    /**
+     * Counts a launch of {@code packageName}
+     */
+    public synchronized void increment(String packageName) {
+        Integer index = mIndices.get(packageName);
+        mCounts[index != null ? index : add(packageName)]++;
+        Integer pending = mPendingIncrements.get(packageName);
+        mPendingIncrements.put(packageName, pending != null ? pending + 1 : 1);
+        scheduleFlush();
+    }
+
+    /**
+     * Forgets the launches of all {@code packageNames}
+     */
+    public synchronized void remove(List<String> packageNames) {
+        for (String packageName : packageNames) {
+            removeFromMemory(packageName);
+            mPendingIncrements.remove(packageName);
+            mPendingRemovals.add(packageName);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Returns a copy of the current counts, which doesn't change with later launches.
+     *
+     * Off the main thread this loads the stored counts first if they aren't loaded yet. On the
+     * main thread the snapshot may miss them, so callers use {@link #runWhenLoaded} to take
+     * another one once they are loaded.
+     */
+    public Snapshot getSnapshot() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            ensureLoaded();
+        }
+        synchronized (this) {
+            return new Snapshot(new HashMap<>(mIndices), Arrays.copyOf(mCounts, mSize));
+        }
+    }
+
+    /**
+     * Runs {@code callback} on the main thread once the stored counts are loaded. Returns false
+     * without running it if they already are, in which case snapshots are complete.
+     */
+    public synchronized boolean runWhenLoaded(Runnable callback) {
+        if (mLoaded) {
+            return false;
+        }
+        mLoadCallbacks.add(callback);
+        return true;
+    }
+
+    private int add(String packageName) {
+        if (mSize == mCounts.length) {
+            mCounts = Arrays.copyOf(mCounts, mSize * 2);
+            mPackages = Arrays.copyOf(mPackages, mSize * 2);
+        }
+        mPackages[mSize] = packageName;
+        mCounts[mSize] = 0;
+        mIndices.put(packageName, mSize);
+        return mSize++;
+    }
+
+    private void removeFromMemory(String packageName) {
+        Integer index = mIndices.remove(packageName);
+        if (index == null) return;
+        // Move the last package into the free slot
+        int last = --mSize;
+        if (index != last) {
+            mPackages[index] = mPackages[last];
+            mCounts[index] = mCounts[last];
+            mIndices.put(mPackages[index], index);
+        }
+        mPackages[last] = null;
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushPending) {
+            mFlushPending = true;
+            mWorkerHandler.postDelayed(mFlushRunnable, FLUSH_DELAY);
+        }
+    }
+
+    private void ensureLoaded() {
+        synchronized (mLoadLock) {
+            if (mDb != null) {
+                return;
+            }
+            DbHelper db = new DbHelper(mContext);
+            List<AppCountInfo> counts = db.getAppsCount();
+            ArrayList<Runnable> callbacks;
+            synchronized (this) {
+                for (AppCountInfo info : counts) {
+                    String packageName = info.getPackageName();
+                    // Launches and removals before loading happened after the stored counts
+                    if (mPendingRemovals.contains(packageName)) continue;
+                    Integer index = mIndices.get(packageName);
+                    mCounts[index != null ? index : add(packageName)] += info.getCount();
+                }
+                mLoaded = true;
+                callbacks = new ArrayList<>(mLoadCallbacks);
+                mLoadCallbacks.clear();
+            }
+            mDb = db;
+            for (Runnable callback : callbacks) {
+                mUiHandler.post(callback);
+            }
+        }
+    }
+
+    private void flush() {
+        ensureLoaded();
+        HashMap<String, Integer> increments;
+        HashSet<String> removals;
+        synchronized (this) {
+            mFlushPending = false;
+            increments = mPendingIncrements;
+            removals = mPendingRemovals;
+            mPendingIncrements = new HashMap<>();
+            mPendingRemovals = new HashSet<>();
+        }
+        mDb.applyChanges(increments, removals);
+    }
+
+    /**
+     * Launch counts at the time {@link #getSnapshot()} was called
+     */
+    public static class Snapshot {
+
+        private final HashMap<String, Integer> mIndices;
+        private final int[] mCounts;
+
+        private Snapshot(HashMap<String, Integer> indices, int[] counts) {
+            mIndices = indices;
+            mCounts = counts;
+        }
+
+        public int getCount(String packageName) {
+            Integer index = mIndices.get(packageName);
+            return index != null ? mCounts[index] : 0;
+        }
+    }
+}
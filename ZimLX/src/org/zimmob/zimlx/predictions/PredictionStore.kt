@@ -0,0 +1,329 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.predictions
+
+import android.content.Context
+import android.os.Handler
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import com.android.launcher3.LauncherModel
+import java.io.*
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Launch history for app predictions. Every app has an exponentially decaying score, plus one
+ * for every hour of the day and every day of the week, so that apps which are used at this time
+ * are ranked higher.
+ *
+ * Scores decay without ever touching the other apps: a launch adds a boost which doubles every
+ * [HALF_LIFE], so older launches weigh exponentially less than newer ones. All scores are scaled
+ * down together once the boost gets too large for a float.
+ *
+ * Apps are kept in a fixed number of slots in primitive arrays. When all are in use, a new app
+ * replaces the one with the lowest score. The ranking is cached and only rebuilt after a change
+ * or when the hour changes. Changes are written to a small binary file in batches on the worker
+ * thread.
+ *
+ * All methods are thread safe.
+ */
+class PredictionStore(private val file: AtomicFile, private val capacity: Int = CAPACITY,
+                      private val clock: () -> Long = System::currentTimeMillis) {
+
+    private val keys = arrayOfNulls<String>(capacity)
+    private val scores = FloatArray(capacity * STRIDE)
+    private val indices = HashMap<String, Int>()
+    // Time at which a launch adds a boost of exactly 1
+    private var epoch = 0L
+    private var loaded = false
+
+    private val calendar = Calendar.getInstance()
+    private var ranked: List<String>? = null
+    private var rankedBucket = -1
+
+    private val saveHandler = Handler(LauncherModel.getWorkerLooper())
+    private val saveRunnable = Runnable { save() }
+    private var savePending = false
+
+    /**
+     * Records a launch of [key] at the current time.
+     */
+    @Synchronized
+    fun recordLaunch(key: String) {
+        ensureLoaded()
+        val now = clock()
+        val boost = getBoost(now)
+        val base = (indices[key] ?: allocate(key)) * STRIDE
+        calendar.timeInMillis = now
+        scores[base + TOTAL] += boost
+        scores[base + HOURS + calendar.get(Calendar.HOUR_OF_DAY)] += boost
+        scores[base + DAYS + calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY] += boost
+        onChanged()
+    }
+
+    /**
+     * Adds [launches] launches of [key] at the current time which aren't tied to any hour or
+     * day, used to import the launch history of older versions.
+     */
+    @Synchronized
+    fun addLaunches(key: String, launches: Int) {
+        ensureLoaded()
+        // May drop slots with low scores, so it has to run before the slot is allocated
+        val boost = getBoost(clock())
+        val base = (indices[key] ?: allocate(key)) * STRIDE
+        scores[base + TOTAL] += launches * boost
+        onChanged()
+    }
+
+    /**
+     * Returns all keys, best first for the current time. The result is cached until the next
+     * change or until the hour changes, and must not be modified.
+     */
+    @Synchronized
+    fun getRanked(): List<String> {
+        ensureLoaded()
+        calendar.timeInMillis = clock()
+        val hour = calendar.get(Calendar.HOUR_OF_DAY)
+        val day = calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY
+        val bucket = day * 24 + hour
+        ranked?.let { if (rankedBucket == bucket) return it }
+
+        val order = ArrayList<Int>(indices.size)
+        val rankScores = FloatArray(capacity)
+        for (i in 0 until capacity) {
+            if (keys[i] == null) continue
+            val base = i * STRIDE
+            // Launches in the neighbouring hours count half
+            val hourScore = scores[base + HOURS + hour] +
+                    (scores[base + HOURS + (hour + 23) % 24] +
+                            scores[base + HOURS + (hour + 1) % 24]) / 2
+            rankScores[i] = scores[base + TOTAL] + HOUR_WEIGHT * hourScore +
+                    DAY_WEIGHT * scores[base + DAYS + day]
+            order.add(i)
+        }
+        order.sortWith(Comparator { a, b -> rankScores[b].compareTo(rankScores[a]) })
+        val result = order.map { keys[it]!! }
+        ranked = result
+        rankedBucket = bucket
+        return result
+    }
+
+    /**
+     * Returns the launch score of [key] regardless of the time of day, relative to the last
+     * time all scores were scaled down.
+     */
+    @VisibleForTesting
+    @Synchronized
+    fun getTotalScore(key: String): Float {
+        ensureLoaded()
+        return indices[key]?.let { scores[it * STRIDE + TOTAL] } ?: 0f
+    }
+
+    @Synchronized
+    fun remove(key: String) {
+        ensureLoaded()
+        val index = indices.remove(key) ?: return
+        keys[index] = null
+        Arrays.fill(scores, index * STRIDE, (index + 1) * STRIDE, 0f)
+        onChanged()
+    }
+
+    /**
+     * Moves the scores of [key] to [replacement], adding them to the scores of [replacement]
+     * if it already exists.
+     */
+    @Synchronized
+    fun replace(key: String, replacement: String) {
+        ensureLoaded()
+        val index = indices[key] ?: return
+        val target = indices[replacement]
+        if (target == null) {
+            indices.remove(key)
+            indices[replacement] = index
+            keys[index] = replacement
+            onChanged()
+            return
+        }
+        for (i in 0 until STRIDE) {
+            scores[target * STRIDE + i] += scores[index * STRIDE + i]
+        }
+        remove(key)
+    }
+
+    @Synchronized
+    fun clear() {
+        ensureLoaded()
+        Arrays.fill(keys, null)
+        Arrays.fill(scores, 0f)
+        indices.clear()
+        onChanged()
+    }
+
+    private fun onChanged() {
+        ranked = null
+        if (!savePending) {
+            savePending = true
+            saveHandler.postDelayed(saveRunnable, SAVE_DELAY)
+        }
+    }
+
+    /**
+     * Returns the boost of a launch at [time], scaling down all scores first if it would get
+     * too large.
+     */
+    private fun getBoost(time: Long): Float {
+        val boost = Math.pow(2.0, (time - epoch).toDouble() / HALF_LIFE)
+        if (boost < MAX_BOOST) return boost.toFloat()
+
+        val scale = (1 / boost).toFloat()
+        for (i in 0 until capacity) {
+            if (keys[i] == null) continue
+            val base = i * STRIDE
+            for (j in base until base + STRIDE) {
+                scores[j] *= scale
+            }
+            // Drop apps which haven't been used for ages
+            if (scores[base + TOTAL] < MIN_SCORE) {
+                indices.remove(keys[i])
+                keys[i] = null
+                Arrays.fill(scores, base, base + STRIDE, 0f)
+            }
+        }
+        epoch = time
+        return 1f
+    }
+
+    /**
+     * Returns the slot for a new [key], replacing the key with the lowest score if all are used.
+     */
+    private fun allocate(key: String): Int {
+        var index = -1
+        for (i in 0 until capacity) {
+            if (keys[i] == null) {
+                index = i
+                break
+            }
+            if (index < 0 || scores[i * STRIDE + TOTAL] < scores[index * STRIDE + TOTAL]) {
+                index = i
+            }
+        }
+        keys[index]?.let { indices.remove(it) }
+        Arrays.fill(scores, index * STRIDE, (index + 1) * STRIDE, 0f)
+        keys[index] = key
+        indices[key] = index
+        return index
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        loaded = true
+        try {
+            DataInputStream(BufferedInputStream(file.openRead())).use { input ->
+                if (input.readInt() != VERSION) return
+                epoch = input.readLong()
+                val count = Math.min(input.readInt(), capacity)
+                for (i in 0 until count) {
+                    val key = input.readUTF()
+                    keys[i] = key
+                    indices[key] = i
+                    for (j in i * STRIDE until (i + 1) * STRIDE) {
+                        scores[j] = input.readFloat()
+                    }
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            // Nothing recorded yet
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to load predictions", e)
+            Arrays.fill(keys, null)
+            Arrays.fill(scores, 0f)
+            indices.clear()
+        }
+    }
+
+    private fun save() {
+        val data = synchronized(this) {
+            savePending = false
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use { out ->
+                out.writeInt(VERSION)
+                out.writeLong(epoch)
+                out.writeInt(indices.size)
+                for (i in 0 until capacity) {
+                    val key = keys[i] ?: continue
+                    out.writeUTF(key)
+                    for (j in i * STRIDE until (i + 1) * STRIDE) {
+                        out.writeFloat(scores[j])
+                    }
+                }
+            }
+            bytes.toByteArray()
+        }
+
+        var out: FileOutputStream? = null
+        try {
+            out = file.startWrite()
+            out.write(data)
+            file.finishWrite(out)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to save predictions", e)
+            out?.let(file::failWrite)
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "PredictionStore"
+        private const val VERSION = 1
+
+        const val APP_LAUNCHES = "app_launches"
+        const val CAPACITY = 64
+
+        private const val TOTAL = 0
+        private const val HOURS = 1
+        private const val DAYS = HOURS + 24
+        private const val STRIDE = DAYS + 7
+
+        private val HALF_LIFE = TimeUnit.DAYS.toMillis(7).toDouble()
+        private const val MAX_BOOST = 1e20
+        private const val MIN_SCORE = 1e-3f
+        private const val HOUR_WEIGHT = 2f
+        private const val DAY_WEIGHT = .5f
+        private val SAVE_DELAY = TimeUnit.SECONDS.toMillis(10)
+
+        private val instances = HashMap<String, PredictionStore>()
+
+        /**
+         * Returns the store for [name], which is shared by the whole process.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun getInstance(context: Context, name: String = APP_LAUNCHES,
+                        capacity: Int = CAPACITY): PredictionStore {
+            synchronized(instances) {
+                return instances.getOrPut(name) {
+                    val file = File(context.applicationContext.filesDir, "predictions_$name")
+                    PredictionStore(AtomicFile(file), capacity)
+                }
+            }
+        }
+    }
+}
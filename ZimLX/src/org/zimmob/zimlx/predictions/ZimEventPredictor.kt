@@ -50,8 +50,8 @@ open class ZimEventPredictor(private val context: Context) : CustomAppPredictor(
     private val handler by lazy { Handler(handlerThread.looper) }
 
     private val devicePrefs = Utilities.getDevicePrefs(context)
-    private val appsList = CountRankedArrayPreference(devicePrefs, "recent_app_launches", 250)
-    private val phonesList = CountRankedArrayPreference(devicePrefs, "plugged_app_launches", 20)
+    private val appsList = PredictionStore.getInstance(context, "recent_app_launches", 250)
+    private val phonesList = PredictionStore.getInstance(context, "plugged_app_launches", 20)
 
     /**
      * Time at which headphones have been plugged in / connected. 0 if disconnected, -1 before initialized
@@ -112,6 +112,21 @@ open class ZimEventPredictor(private val context: Context) : CustomAppPredictor(
         if (isPredictorEnabled) {
             setupBroadcastReceiver()
         }
+        handler.post {
+            migrateLaunches("recent_app_launches", appsList)
+            migrateLaunches("plugged_app_launches", phonesList)
+        }
+    }
+
+    /**
+     * Imports the launch list which older versions kept in the device prefs under [key].
+     */
+    private fun migrateLaunches(key: String, store: PredictionStore) {
+        val launches = devicePrefs.getString(key, null) ?: return
+        launches.split(";").filter { it.isNotEmpty() }
+                .groupingBy { it }.eachCount()
+                .forEach { (app, count) -> store.addLaunches(app, count) }
+        devicePrefs.edit().remove(key).apply()
     }
 
     private fun setupBroadcastReceiver() {
@@ -148,16 +163,14 @@ open class ZimEventPredictor(private val context: Context) : CustomAppPredictor(
     private fun logAppLaunchImpl(v: View?, intent: Intent?, user: UserHandle) {
         if (isPredictorEnabled) {
             if (intent?.component != null && mAppFilter.shouldShowApp(intent.component, user)) {
-                clearRemovedComponents()
-
                 var changed = false
                 val key = ComponentKey(intent.component, user).toString()
                 if (recursiveIsDrawer(v)) {
-                    appsList.add(key)
+                    appsList.recordLaunch(key)
                     changed = true
                 }
                 if (relevantForPhones) {
-                    phonesList.add(key)
+                    phonesList.recordLaunch(key)
                     phonesLaunches++
                     changed = true
                 }
@@ -169,62 +182,62 @@ open class ZimEventPredictor(private val context: Context) : CustomAppPredictor(
         }
     }
 
-    // TODO: There must be a better, more elegant way to concatenate these lists
     override fun getPredictions(): MutableList<ComponentKeyMapper> {
         return if (isPredictorEnabled) {
-            clearRemovedComponents()
             val user = Process.myUserHandle()
-            val appList = if (phonesJustConnected) phonesList.getRanked().take(MAX_HEADPHONE_SUGGESTIONS).toMutableList() else mutableListOf()
-            appList.addAll(appsList.getRanked().filterNot { appList.contains(it) }.take(MAX_PREDICTIONS - appList.size))
-            val fullList = appList.map { getComponentFromString(it) }
-                    .filterNot { isHiddenApp(context, it.key) }.toMutableList()
+            val hiddenApps = Utilities.getZimPrefs(context).hiddenPredictionAppSet
+            val appList = mutableListOf<String>()
+            if (phonesJustConnected) {
+                takeExisting(phonesList, hiddenApps, appList, MAX_HEADPHONE_SUGGESTIONS)
+            }
+            takeExisting(appsList, hiddenApps, appList, MAX_PREDICTIONS)
+            val fullList = appList.mapTo(mutableListOf()) { getComponentFromString(it) }
             if (fullList.size < MAX_PREDICTIONS) {
                 fullList.addAll(
                         PLACE_HOLDERS.mapNotNull { packageManager.getLaunchIntentForPackage(it)?.component }
                                 .map { ComponentKeyMapper(context, ComponentKey(it, user)) }
+                                .filterNot { it.key.toString() in hiddenApps }
                 )
             }
             fullList.take(MAX_PREDICTIONS).toMutableList()
         } else mutableListOf()
     }
 
-    // TODO: Extension function?
-    private fun clearRemovedComponents() {
-        appsList.removeAll {
-            val component = getComponentFromString(it).key?.componentName ?: return@removeAll true
-            try {
-                packageManager.getActivityInfo(component, 0)
-                false
-            } catch (ignored: PackageManager.NameNotFoundException) {
-                val intent = packageManager.getLaunchIntentForPackage(component.packageName)
-                if (intent != null) {
-                    val componentInfo = intent.component
-                    if (componentInfo != null) {
-                        val key = ComponentKey(componentInfo, Process.myUserHandle())
-                        appsList.replace(it, key.toString())
-                        return@removeAll false
-                    }
-                }
-                true
-            }
+    /**
+     * Adds the best ranked apps of [store] which still exist and aren't hidden to [out], until it
+     * holds [max] apps. Only the apps looked at are checked, so this doesn't depend on the size of
+     * the store.
+     */
+    private fun takeExisting(store: PredictionStore, hiddenApps: Set<String>,
+                             out: MutableList<String>, max: Int) {
+        for (app in store.getRanked()) {
+            if (out.size >= max) return
+            if (app in out || app in hiddenApps || !checkComponentExists(store, app)) continue
+            out.add(app)
         }
-        phonesList.removeAll {
-            val component = getComponentFromString(it).key?.componentName ?: return@removeAll true
-            try {
-                packageManager.getActivityInfo(component, 0)
-                false
-            } catch (ignored: PackageManager.NameNotFoundException) {
-                val intent = packageManager.getLaunchIntentForPackage(component.packageName)
-                if (intent != null) {
-                    val componentInfo = intent.component
-                    if (componentInfo != null) {
-                        val key = ComponentKey(componentInfo, Process.myUserHandle())
-                        phonesList.replace(it, key.toString())
-                        return@removeAll false
-                    }
-                }
-                true
+    }
+
+    /**
+     * Returns whether the activity of [app] still exists. If it doesn't, its launches are moved
+     * to the launch activity of the same package in [store], if there is one.
+     */
+    private fun checkComponentExists(store: PredictionStore, app: String): Boolean {
+        val component = getComponentFromString(app).key?.componentName
+        if (component == null) {
+            store.remove(app)
+            return false
+        }
+        return try {
+            packageManager.getActivityInfo(component, 0)
+            true
+        } catch (ignored: PackageManager.NameNotFoundException) {
+            val componentInfo = packageManager.getLaunchIntentForPackage(component.packageName)?.component
+            if (componentInfo != null) {
+                store.replace(app, ComponentKey(componentInfo, Process.myUserHandle()).toString())
+            } else {
+                store.remove(app)
             }
+            false
         }
     }
 
@@ -244,39 +257,6 @@ open class ZimEventPredictor(private val context: Context) : CustomAppPredictor(
         return super.isPredictorEnabled() && Utilities.getReflectionPrefs(context).getLong("reflection_most_recent_usage", 0L) == 0L
     }
 
-    /**
-     * A ranked list with roll over to get/store currently relevant events and rank them by occurence
-     */
-    inner class CountRankedArrayPreference(private val prefs: SharedPreferences, private val key: String, private val maxSize: Int = -1, private val delimiter: String = ";") {
-        private var list = load()
-
-        fun getRanked() : Set<String> = list.distinct().sortedBy { value -> list.count { it == value } }.reversed().toSet()
-
-        fun add(string: String) {
-            list.add(0, string)
-            if (maxSize >= 0 && list.size > maxSize) {
-                list = list.drop(maxSize).toMutableList()
-            }
-            save()
-        }
-
-        fun clear() {
-            list.clear()
-            prefs.edit().remove(key).apply()
-        }
-        fun removeAll(filter: (String) -> Boolean) = list.removeAll(filter)
-        fun replace(filter: String, replacement: String) {
-            list = list.map { if (it == filter) replacement else it }.toMutableList()
-        }
-        fun contains(element: String) = list.contains(element)
-
-        private fun load() = (prefs.getString(key, "")?: "").split(delimiter).toMutableList()
-        private fun save() {
-            val strValue = list.joinToString(delimiter)
-            prefs.edit().putString(key, strValue).apply()
-        }
-    }
-
     private fun actionToString(id: String, publisher: String, badge: String) = JSONObject().apply {
         put(KEY_ID, id)
         put(KEY_PUBLISHER, publisher)
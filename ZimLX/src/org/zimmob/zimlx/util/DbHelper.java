@@ -1,10 +1,10 @@
 package org.zimmob.zimlx.util;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import com.android.launcher3.LauncherFiles;
 
@@ -12,6 +12,8 @@ import org.zimmob.zimlx.model.AppCountInfo;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class DbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_HOME = LauncherFiles.LAUNCHER_DB2;
@@ -55,6 +57,7 @@ public class DbHelper extends SQLiteOpenHelper {
         String SQL_QUERY = "SELECT package_name, package_count FROM app_count;";
         Cursor cursor = db.rawQuery(SQL_QUERY, null);
         if (!cursor.moveToFirst()) {
+            cursor.close();
             return apps;
         }
         do {
@@ -68,32 +71,37 @@ public class DbHelper extends SQLiteOpenHelper {
         return apps;
     }
 
-    public void updateAppCount(String packageName) {
-        String SQL_QUERY = "SELECT package_count FROM app_count WHERE package_name='" + packageName + "';";
-        Cursor cursor = db.rawQuery(SQL_QUERY, null);
-        int appCount = 0;
-        if (cursor.moveToFirst()) {
-            appCount = cursor.getInt(0);
-        } else {
-            saveAppCount(packageName);
+    /**
+     * Adds the launch counts of {@code increments} and deletes the packages in {@code removals},
+     * all in one transaction.
+     */
+    public void applyChanges(Map<String, Integer> increments, Set<String> removals) {
+        db.beginTransaction();
+        try {
+            SQLiteStatement delete = db.compileStatement(
+                    "DELETE FROM " + TABLE_APP_COUNT + " WHERE " + COLUMN_PACKAGE_NAME + "=?");
+            for (String packageName : removals) {
+                delete.bindString(1, packageName);
+                delete.executeUpdateDelete();
+            }
+            SQLiteStatement update = db.compileStatement(
+                    "UPDATE " + TABLE_APP_COUNT + " SET " + COLUMN_PACKAGE_COUNT + "="
+                            + COLUMN_PACKAGE_COUNT + "+? WHERE " + COLUMN_PACKAGE_NAME + "=?");
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO " + TABLE_APP_COUNT + " (" + COLUMN_PACKAGE_NAME + ", "
+                            + COLUMN_PACKAGE_COUNT + ") VALUES (?, ?)");
+            for (Map.Entry<String, Integer> entry : increments.entrySet()) {
+                update.bindLong(1, entry.getValue());
+                update.bindString(2, entry.getKey());
+                if (update.executeUpdateDelete() == 0) {
+                    insert.bindString(1, entry.getKey());
+                    insert.bindLong(2, entry.getValue());
+                    insert.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-
-        cursor.close();
-        appCount++;
-        ContentValues cv = new ContentValues();
-        cv.put(COLUMN_PACKAGE_COUNT, appCount);
-        db.update(TABLE_APP_COUNT, cv, "package_name='" + packageName + "'", null);
-
-    }
-
-    private void saveAppCount(String packageName) {
-        ContentValues itemValues = new ContentValues();
-        itemValues.put(COLUMN_PACKAGE_NAME, packageName);
-        itemValues.put(COLUMN_PACKAGE_COUNT, 0);
-        db.insert(TABLE_APP_COUNT, null, itemValues);
-    }
-
-    public void deleteApp(String packageName) {
-        db.delete(TABLE_APP_COUNT, "package_name='" + packageName + "'", null);
     }
 }
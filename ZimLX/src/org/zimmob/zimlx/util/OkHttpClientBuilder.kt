@@ -22,8 +22,12 @@ import okhttp3.OkHttpClient
 import okhttp3.logging.HttpLoggingInterceptor
 import org.zimmob.zimlx.zimPrefs
 
+/**
+ * Builds clients which share the connection pool and dispatcher of one base client, so that
+ * connections to the same host are reused and the number of threads stays bounded.
+ */
 class OkHttpClientBuilder {
-    private val builder = OkHttpClient.Builder()
+    private val builder = baseClient.newBuilder()
     private val queryParams = mutableMapOf<String, String>()
 
     fun addQueryParam(param: Pair<String, String>): OkHttpClientBuilder {
@@ -50,4 +54,9 @@ class OkHttpClientBuilder {
         })
         return builder.build()
     }
+
+    companion object {
+
+        private val baseClient by lazy { OkHttpClient() }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+import java.util.HashMap;
+
+/**
+ * Benchmark stub for the system properties, whose implementation is native. Reports the
+ * properties of an API 28 device so that version checks take the current code paths.
+ */
+public class SystemProperties {
+
+    private static final HashMap<String, String> sProperties = new HashMap<>();
+
+    static {
+        sProperties.put("ro.build.version.sdk", "28");
+        sProperties.put("ro.build.version.release", "9");
+        sProperties.put("ro.build.version.codename", "REL");
+        sProperties.put("ro.build.type", "user");
+        sProperties.put("ro.debuggable", "0");
+    }
+
+    public static String get(String key) {
+        return get(key, "");
+    }
+
+    public static synchronized String get(String key, String def) {
+        String value = sProperties.get(key);
+        return value == null ? def : value;
+    }
+
+    public static int getInt(String key, int def) {
+        try {
+            return Integer.parseInt(get(key));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static long getLong(String key, long def) {
+        try {
+            return Long.parseLong(get(key));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String value = get(key);
+        if (value.isEmpty()) {
+            return def;
+        }
+        return value.equals("1") || value.equals("y") || value.equals("yes")
+                || value.equals("on") || value.equals("true");
+    }
+
+    public static synchronized void set(String key, String val) {
+        sProperties.put(key, val);
+    }
+
+    public static void addChangeCallback(Runnable callback) { }
+}
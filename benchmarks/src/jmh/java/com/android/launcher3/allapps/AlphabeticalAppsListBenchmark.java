@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import android.content.res.Configuration;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.compat.AlphabeticIndexCompat;
+import com.android.launcher3.util.BenchmarkData;
+import com.android.launcher3.util.LabelComparator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmarks the section building of {@link AlphabeticalAppsList#onAppsUpdated}: sorting the apps
+ * by title and computing the fast scroller section of every app. The list itself needs a
+ * launcher, so the same helpers are driven directly.
+ */
+@State(Scope.Benchmark)
+public class AlphabeticalAppsListBenchmark {
+
+    @Param({"200", "800"})
+    public int appCount;
+
+    private List<AppInfo> mApps;
+    private LabelComparator mComparator;
+    private AlphabeticIndexCompat mIndexer;
+
+    @Setup
+    public void setup() {
+        mApps = BenchmarkData.apps(appCount);
+        mComparator = new LabelComparator();
+        Configuration config = new Configuration();
+        config.setLocale(Locale.US);
+        mIndexer = new AlphabeticIndexCompat(config);
+    }
+
+    @Benchmark
+    public List<AppInfo> sortApps() {
+        ArrayList<AppInfo> apps = new ArrayList<>(mApps);
+        apps.sort((a, b) -> mComparator.compare(a.title.toString(), b.title.toString()));
+        return apps;
+    }
+
+    @Benchmark
+    public List<String> computeSections() {
+        ArrayList<String> sections = new ArrayList<>();
+        String lastSection = null;
+        for (AppInfo app : mApps) {
+            String section = mIndexer.computeSectionName(app.title);
+            if (!section.equals(lastSection)) {
+                sections.add(section);
+                lastSection = section;
+            }
+        }
+        return sections;
+    }
+}
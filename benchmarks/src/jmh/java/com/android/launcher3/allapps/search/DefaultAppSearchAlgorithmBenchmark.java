@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.util.BenchmarkData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Benchmarks the word start matching of {@link DefaultAppSearchAlgorithm} over all apps, which
+ * runs for every key stroke in the all apps search.
+ */
+@State(Scope.Benchmark)
+public class DefaultAppSearchAlgorithmBenchmark {
+
+    @Param({"200", "800"})
+    public int appCount;
+
+    @Param({"c", "cal", "mail", "asth"})
+    public String query;
+
+    private List<AppInfo> mApps;
+    private DefaultAppSearchAlgorithm.StringMatcher mMatcher;
+
+    @Setup
+    public void setup() {
+        mApps = BenchmarkData.apps(appCount);
+        mMatcher = DefaultAppSearchAlgorithm.StringMatcher.getInstance();
+    }
+
+    @Benchmark
+    public int matches() {
+        int count = 0;
+        for (AppInfo app : mApps) {
+            if (DefaultAppSearchAlgorithm.matches(app, query, mMatcher)) count++;
+        }
+        return count;
+    }
+}
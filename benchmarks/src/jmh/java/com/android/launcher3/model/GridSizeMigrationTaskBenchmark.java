@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.graphics.Point;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Benchmarks the placement search of {@link GridSizeMigrationTask} when shrinking a full screen
+ * by one row and one column. The items are provided directly instead of being read from the DB.
+ */
+@State(Scope.Benchmark)
+public class GridSizeMigrationTaskBenchmark {
+
+    @Param({"5", "6", "8"})
+    public int gridSize;
+
+    // Number of 2x2 widgets on the screen, the rest is filled with icons
+    @Param({"0", "2", "4"})
+    public int widgetCount;
+
+    private ArrayList<GridSizeMigrationTask.DbEntry> mItems;
+
+    @Setup
+    public void setup() {
+        mItems = new ArrayList<>();
+        boolean[][] occupied = new boolean[gridSize][gridSize];
+        Random random = new Random(gridSize * 10 + widgetCount);
+        long id = 0;
+        for (int i = 0; i < widgetCount; i++) {
+            int x = 2 * i % (gridSize - 1);
+            int y = 1 + 2 * (2 * i / (gridSize - 1));
+            GridSizeMigrationTask.DbEntry widget = entry(id++, x, y, 2, 2);
+            widget.itemType = Favorites.ITEM_TYPE_APPWIDGET;
+            widget.minSpanX = widget.minSpanY = 2;
+            widget.weight = 2.4f;
+            mItems.add(widget);
+            occupied[x][y] = occupied[x + 1][y] = occupied[x][y + 1] = occupied[x + 1][y + 1] = true;
+        }
+        // The first row is left to the QSB
+        for (int y = 1; y < gridSize; y++) {
+            for (int x = 0; x < gridSize; x++) {
+                if (!occupied[x][y] && random.nextInt(5) != 0) {
+                    GridSizeMigrationTask.DbEntry icon = entry(id++, x, y, 1, 1);
+                    icon.itemType = Favorites.ITEM_TYPE_APPLICATION;
+                    icon.weight = 0.8f;
+                    mItems.add(icon);
+                }
+            }
+        }
+    }
+
+    private static GridSizeMigrationTask.DbEntry entry(long id, int x, int y, int spanX,
+            int spanY) {
+        GridSizeMigrationTask.DbEntry entry = new GridSizeMigrationTask.DbEntry();
+        entry.id = id;
+        entry.screenId = 0;
+        entry.cellX = x;
+        entry.cellY = y;
+        entry.spanX = entry.minSpanX = spanX;
+        entry.spanY = entry.minSpanY = spanY;
+        return entry;
+    }
+
+    @Benchmark
+    public int migrateScreen() {
+        BenchmarkMigrationTask task = new BenchmarkMigrationTask(
+                new Point(gridSize, gridSize), new Point(gridSize - 1, gridSize - 1));
+        task.migrateScreen(0);
+        return task.mUpdates + task.mCarryOver.size();
+    }
+
+    private class BenchmarkMigrationTask extends GridSizeMigrationTask {
+
+        int mUpdates;
+
+        BenchmarkMigrationTask(Point sourceSize, Point targetSize) {
+            super(null, null, new HashSet<>(), sourceSize, targetSize);
+        }
+
+        @Override
+        protected ArrayList<DbEntry> loadWorkspaceEntries(long screen) {
+            // migrateScreen only modifies copies of the loaded items
+            return mItems;
+        }
+
+        @Override
+        protected void update(DbEntry item) {
+            mUpdates++;
+        }
+    }
+}
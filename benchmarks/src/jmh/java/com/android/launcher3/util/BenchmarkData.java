@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.content.ComponentName;
+
+import com.android.launcher3.AppInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic test data shared by the benchmarks.
+ */
+public class BenchmarkData {
+
+    private static final String[] WORDS = {
+            "Google", "Maps", "Camera", "Calendar", "Clock", "Settings", "Play", "Store",
+            "Music", "Photos", "Drive", "Keep", "Notes", "Messages", "Phone", "Contacts",
+            "Files", "Calculator", "Weather", "News", "Podcasts", "Translate", "Wallet",
+            "Fit", "Authenticator", "Chrome", "Firefox", "Signal", "Telegram", "Launcher",
+            "2048", "Ästhetik", "Éditions", "über", "YouTube", "WhatsApp", "k-9 Mail"};
+
+    /**
+     * Returns {@param count} app titles made of one to three words, the same for every call.
+     */
+    public static List<String> appTitles(int count) {
+        Random random = new Random(count);
+        ArrayList<String> titles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int words = 1 + random.nextInt(3);
+            StringBuilder title = new StringBuilder();
+            for (int j = 0; j < words; j++) {
+                if (j > 0) title.append(' ');
+                title.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            titles.add(title.toString());
+        }
+        return titles;
+    }
+
+    /**
+     * Returns {@param count} apps with the titles of {@link #appTitles}.
+     */
+    public static List<AppInfo> apps(int count) {
+        List<String> titles = appTitles(count);
+        ArrayList<AppInfo> apps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            AppInfo info = new AppInfo();
+            info.title = titles.get(i);
+            info.componentName = new ComponentName("com.example.app" + i, "Activity" + i);
+            apps.add(info);
+        }
+        return apps;
+    }
+}
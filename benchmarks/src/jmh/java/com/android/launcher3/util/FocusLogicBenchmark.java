@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.view.KeyEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmarks the keyboard navigation of {@link FocusLogic} on a sparsely filled workspace page.
+ */
+@State(Scope.Benchmark)
+public class FocusLogicBenchmark {
+
+    private static final int[] KEYS = {KeyEvent.KEYCODE_DPAD_LEFT, KeyEvent.KEYCODE_DPAD_RIGHT,
+            KeyEvent.KEYCODE_DPAD_UP, KeyEvent.KEYCODE_DPAD_DOWN};
+
+    @Param({"5", "8"})
+    public int gridSize;
+
+    private int[][] mMatrix;
+    private int mItemCount;
+
+    @Setup
+    public void setup() {
+        // Same layout as FocusLogic.createSparseMatrix, with every third cell empty
+        mMatrix = new int[gridSize][gridSize];
+        Random random = new Random(gridSize);
+        int index = 0;
+        for (int x = 0; x < gridSize; x++) {
+            Arrays.fill(mMatrix[x], FocusLogic.EMPTY);
+            for (int y = 0; y < gridSize; y++) {
+                if (random.nextInt(3) != 0) {
+                    mMatrix[x][y] = index++;
+                }
+            }
+        }
+        mItemCount = index;
+    }
+
+    @Benchmark
+    public int navigateAllItems() {
+        int result = 0;
+        for (int i = 0; i < mItemCount; i++) {
+            for (int key : KEYS) {
+                result += FocusLogic.handleKeyEvent(key, mMatrix, i, 1, 3, false);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Benchmarks {@link GridOccupancy}, as used when finding space for new items and during drag
+ * and drop.
+ */
+@State(Scope.Benchmark)
+public class GridOccupancyBenchmark {
+
+    @Param({"5", "8", "10"})
+    public int gridSize;
+
+    // Fraction of the cells which are occupied, in percent
+    @Param({"50", "90"})
+    public int fill;
+
+    private GridOccupancy mOccupancy;
+    private final int[] mVacant = new int[2];
+
+    @Setup
+    public void setup() {
+        mOccupancy = new GridOccupancy(gridSize, gridSize);
+        Random random = new Random(gridSize * 100 + fill);
+        for (int x = 0; x < gridSize; x++) {
+            for (int y = 0; y < gridSize; y++) {
+                if (random.nextInt(100) < fill) {
+                    mOccupancy.markCells(x, y, 1, 1, true);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean findVacantCell1x1() {
+        return mOccupancy.findVacantCell(mVacant, 1, 1);
+    }
+
+    @Benchmark
+    public boolean findVacantCell2x2() {
+        return mOccupancy.findVacantCell(mVacant, 2, 2);
+    }
+
+    @Benchmark
+    public int isRegionVacant() {
+        int vacant = 0;
+        for (int x = 0; x < gridSize - 1; x++) {
+            for (int y = 0; y < gridSize - 1; y++) {
+                if (mOccupancy.isRegionVacant(x, y, 2, 2)) vacant++;
+            }
+        }
+        return vacant;
+    }
+
+    @Benchmark
+    public GridOccupancy copyAndMark() {
+        GridOccupancy copy = new GridOccupancy(gridSize, gridSize);
+        mOccupancy.copyTo(copy);
+        copy.markCells(1, 1, 2, 2, true);
+        copy.markCells(0, 0, gridSize, 1, false);
+        return copy;
+    }
+}
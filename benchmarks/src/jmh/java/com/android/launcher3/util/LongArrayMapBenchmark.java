@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Benchmarks {@link LongArrayMap}, which holds all workspace items by id in the model.
+ */
+@State(Scope.Benchmark)
+public class LongArrayMapBenchmark {
+
+    @Param({"100", "1000"})
+    public int size;
+
+    private LongArrayMap<Object> mMap;
+    private long[] mIds;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(size);
+        mMap = new LongArrayMap<>();
+        mIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            // Ids are mostly increasing, as they are allocated by the launcher provider
+            mIds[i] = i * 2 + random.nextInt(2);
+            mMap.put(mIds[i], mIds[i]);
+        }
+    }
+
+    @Benchmark
+    public LongArrayMap<Object> build() {
+        LongArrayMap<Object> map = new LongArrayMap<>();
+        for (long id : mIds) {
+            map.put(id, this);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public int lookup() {
+        int found = 0;
+        for (long id : mIds) {
+            if (mMap.containsKey(id)) found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int iterate() {
+        int count = 0;
+        for (Object o : mMap) {
+            if (o != null) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public LongArrayMap<Object> cloneMap() {
+        return mMap.clone();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Benchmarks {@link MultiHashMap}, as used to group shortcuts and widgets by package.
+ */
+@State(Scope.Benchmark)
+public class MultiHashMapBenchmark {
+
+    @Param({"100", "1000"})
+    public int size;
+
+    private List<String> mValues;
+    private MultiHashMap<String, String> mMap;
+
+    @Setup
+    public void setup() {
+        mValues = BenchmarkData.appTitles(size);
+        mMap = build();
+    }
+
+    @Benchmark
+    public MultiHashMap<String, String> build() {
+        MultiHashMap<String, String> map = new MultiHashMap<>();
+        for (String value : mValues) {
+            // Group by the first word, like items of the same package
+            int space = value.indexOf(' ');
+            map.addToList(space < 0 ? value : value.substring(0, space), value);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public MultiHashMap<String, String> cloneMap() {
+        return mMap.clone();
+    }
+}
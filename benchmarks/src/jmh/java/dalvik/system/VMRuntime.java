@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dalvik.system;
+
+import java.lang.reflect.Array;
+
+/**
+ * Benchmark stub for the runtime hooks used by the framework collections, whose implementation
+ * is native. Arrays are never padded on the JVM.
+ */
+public final class VMRuntime {
+
+    private static final VMRuntime sRuntime = new VMRuntime();
+
+    private VMRuntime() { }
+
+    public static VMRuntime getRuntime() {
+        return sRuntime;
+    }
+
+    public Object newUnpaddedArray(Class<?> componentType, int minLength) {
+        return Array.newInstance(componentType, minLength);
+    }
+
+    public Object newNonMovableArray(Class<?> componentType, int length) {
+        return Array.newInstance(componentType, length);
+    }
+
+    public int getTargetSdkVersion() {
+        return 28;
+    }
+
+    public boolean is64Bit() {
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.allapps;
+
+import com.android.launcher3.util.BenchmarkData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.xdrop.fuzzywuzzy.FuzzySearch;
+import me.xdrop.fuzzywuzzy.model.BoundExtractedResult;
+
+/**
+ * Compares {@link FuzzyScorer} with FuzzySearch.extractAll as used by the all apps search before,
+ * for one keystroke of a query against a set of app titles.
+ */
+@State(Scope.Benchmark)
+public class FuzzyScorerBenchmark {
+
+    @Param({"200", "800"})
+    public int appCount;
+
+    @Param({"c", "cal", "calcul", "google mps"})
+    public String query;
+
+    private final FuzzyScorer mScorer = new FuzzyScorer();
+    private final WinklerWeightedRatio mRatio = new WinklerWeightedRatio();
+    private List<App> mApps;
+
+    @Setup
+    public void setup() {
+        mApps = new ArrayList<>(appCount);
+        for (String title : BenchmarkData.appTitles(appCount)) {
+            mApps.add(new App(title));
+        }
+    }
+
+    @Benchmark
+    public List<App> fuzzyWuzzy() {
+        List<BoundExtractedResult<App>> results = FuzzySearch.extractAll(query, mApps,
+                app -> app.title, mRatio, FuzzyAppSearchAlgorithm.MIN_SCORE);
+        results.sort((a, b) -> {
+            int result = Integer.compare(b.getScore(), a.getScore());
+            return result != 0 ? result : a.getReferent().title.compareTo(b.getReferent().title);
+        });
+        List<App> apps = new ArrayList<>(results.size());
+        for (BoundExtractedResult<App> result : results) {
+            apps.add(result.getReferent());
+        }
+        return apps;
+    }
+
+    @Benchmark
+    public List<App> fuzzyScorer() {
+        return mScorer.rank(query, mApps, FuzzyAppSearchAlgorithm.MIN_SCORE, Integer.MAX_VALUE,
+                app -> app.title, app -> app.processedTitle);
+    }
+
+    public static class App {
+        final String title;
+        final String processedTitle;
+
+        App(String title) {
+            this.title = title;
+            processedTitle = FuzzyScorer.process(title);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.flowerpot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.zimmob.zimlx.flowerpot.parser.FlowerpotReader;
+import org.zimmob.zimlx.flowerpot.rules.Rule;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks parsing all the flowerpot files shipped in the assets, which happens whenever the
+ * drawer categories are loaded.
+ */
+@State(Scope.Benchmark)
+public class FlowerpotReaderBenchmark {
+
+    private final ArrayList<byte[]> mFiles = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        File dir = new File(System.getProperty("benchmark.assets", "../assets"),
+                Flowerpot.ASSETS_PATH);
+        File[] files = dir.listFiles();
+        if (files == null || files.length == 0) {
+            throw new IOException("No flowerpot files found in " + dir);
+        }
+        for (File file : files) {
+            mFiles.add(Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Benchmark
+    public int readAllRules() throws IOException {
+        int count = 0;
+        for (byte[] file : mFiles) {
+            try (FlowerpotReader reader = new FlowerpotReader(new ByteArrayInputStream(file))) {
+                List<Rule> rules = reader.readRules();
+                count += rules.size();
+            }
+        }
+        return count;
+    }
+}
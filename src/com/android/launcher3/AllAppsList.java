@@ -202,6 +202,7 @@ public class AllAppsList {
                     add(new AppInfo(context, info, user), info);
                 } else {
                     mIconCache.getTitleAndIcon(applicationInfo, info, true /* useLowResIcon */);
+                    applicationInfo.sortKeys = null;
                     modified.add(applicationInfo);
                 }
             }
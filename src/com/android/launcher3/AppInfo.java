@@ -25,6 +25,7 @@ import android.os.Build;
 import android.os.Process;
 import android.os.UserHandle;
 
+import com.android.launcher3.allapps.AppSortKeys;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.PackageManagerHelper;
@@ -46,6 +47,11 @@ public class AppInfo extends ItemInfoWithIcon {
      */
     public int isDisabled = ShortcutInfo.DEFAULT;
 
+    /**
+     * Cached keys for sorting the drawer, null until the first sort or after a package update.
+     */
+    public AppSortKeys sortKeys;
+
     public AppInfo() {
         itemType = LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
     }
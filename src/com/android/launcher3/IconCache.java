@@ -16,6 +16,7 @@
 
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -40,6 +41,7 @@ import android.os.SystemClock;
 import android.os.UserHandle;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.core.graphics.ColorUtils;
@@ -48,10 +50,12 @@ import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.BitmapRenderer;
+import com.android.launcher3.graphics.IconNormalizer.Normalization;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.InstantAppResolver;
+import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.SQLiteCacheHelper;
@@ -59,10 +63,14 @@ import com.android.launcher3.util.Thunk;
 
 import org.zimmob.zimlx.iconpack.ZimIconProvider;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -75,6 +83,13 @@ public class IconCache {
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
 
+    // The in-memory tier uses 1/MEMORY_CACHE_HEAP_DIVISOR of the app memory class.
+    private static final int MEMORY_CACHE_HEAP_DIVISOR = 8;
+
+    // Maximum number of components read from the DB in a single query, to stay well below the
+    // SQLite limit on bound arguments.
+    private static final int MAX_DB_BATCH_SIZE = 500;
+
     // Empty class name is used for storing package default entry.
     public static final String EMPTY_CLASS_NAME = ".";
 
@@ -83,6 +98,9 @@ public class IconCache {
 
     private static final int LOW_RES_SCALE_FACTOR = 5;
 
+    // Scale, bounds and mask shape flag of a stored Normalization
+    private static final int NORMALIZATION_SIZE = 5 * 4 + 1;
+
     @Thunk
     static final Object ICON_UPDATE_TOKEN = new Object();
 
@@ -96,7 +114,10 @@ public class IconCache {
     @Thunk
     final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache = new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    private final MemoryCache mCache;
+    // Entries which are not backed by the DB, like promise icons. These are never evicted.
+    private final HashMap<ComponentKey, CacheEntry> mPinnedEntries =
+            new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
     private final InstantAppResolver mInstantAppResolver;
     private final int mIconDpi;
     @Thunk
@@ -119,6 +140,9 @@ public class IconCache {
         mIconDpi = inv.fillResIconDpi;
         mIconDb = new IconDB(context, inv.iconBitmapSize);
 
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mCache = new MemoryCache(am.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_HEAP_DIVISOR);
+
         mIconProvider = IconProvider.newInstance(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
 
@@ -209,7 +233,9 @@ public class IconCache {
      * Remove any records for the supplied ComponentName.
      */
     public synchronized void remove(ComponentName componentName, UserHandle user) {
-        mCache.remove(new ComponentKey(componentName, user));
+        ComponentKey key = new ComponentKey(componentName, user);
+        mPinnedEntries.remove(key);
+        mCache.remove(key);
     }
 
     /**
@@ -217,31 +243,64 @@ public class IconCache {
      */
     private void removeFromMemCacheLocked(String packageName, UserHandle user) {
         HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key : mCache.keySet()) {
+        for (ComponentKey key : mCache.snapshot().keySet()) {
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                forDeletion.add(key);
+            }
+        }
+        for (ComponentKey key : mPinnedEntries.keySet()) {
             if (key.componentName.getPackageName().equals(packageName)
                     && key.user.equals(user)) {
                 forDeletion.add(key);
             }
         }
         for (ComponentKey condemned : forDeletion) {
+            mPinnedEntries.remove(condemned);
             mCache.remove(condemned);
         }
     }
 
+    /**
+     * Returns the in-memory entry for {@param key}, or null if it is not present.
+     * This method is not thread safe, it must be called from a synchronized method.
+     */
+    private CacheEntry getMemCacheEntryLocked(ComponentKey key) {
+        CacheEntry entry = mPinnedEntries.get(key);
+        return entry != null ? entry : mCache.get(key);
+    }
+
+    /**
+     * Adds an entry backed by the DB to the memory cache, where it may be evicted at any time.
+     * This method is not thread safe, it must be called from a synchronized method.
+     */
+    private void putMemCacheEntryLocked(ComponentKey key, CacheEntry entry) {
+        mPinnedEntries.remove(key);
+        mCache.put(key, entry);
+    }
+
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
     public synchronized void updateIconsForPkg(String packageName, UserHandle user) {
-        removeIconsForPkg(packageName, user);
+        PackageInfo info;
         try {
-            PackageInfo info = mPackageManager.getPackageInfo(packageName,
+            info = mPackageManager.getPackageInfo(packageName,
                     PackageManager.GET_UNINSTALLED_PACKAGES);
-            long userSerial = mUserManager.getSerialNumberForUser(user);
-            for (LauncherActivityInfo app : mLauncherApps.getActivityList(packageName, user)) {
-                addIconToDBAndMemCache(app, info, userSerial, false /*replace existing*/);
-            }
         } catch (NameNotFoundException e) {
             Log.d(TAG, "Package not found", e);
+            removeIconsForPkg(packageName, user);
+            return;
+        }
+        long userSerial = mUserManager.getSerialNumberForUser(user);
+        List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(packageName, user);
+        // Read the normalizations before removing the rows, the icons are often unchanged
+        HashMap<ComponentName, Normalization> normalizations =
+                getNormalizationsFromDB(info, userSerial, apps);
+        removeIconsForPkg(packageName, user);
+        for (LauncherActivityInfo app : apps) {
+            addIconToDBAndMemCache(app, info, userSerial, false /*replace existing*/, null,
+                    normalizations.get(app.getComponentName()));
         }
     }
 
@@ -258,7 +317,8 @@ public class IconCache {
 
     public synchronized void removeAllIcons() {
         Preconditions.assertWorkerThread();
-        mCache.clear();
+        mCache.evictAll();
+        mPinnedEntries.clear();
         mIconDb.delete(null, null);
     }
 
@@ -304,13 +364,15 @@ public class IconCache {
 
         HashSet<Integer> itemsToRemove = new HashSet<>();
         Stack<LauncherActivityInfo> appsToUpdate = new Stack<>();
+        HashMap<ComponentName, Normalization> normalizations = new HashMap<>();
 
         Cursor c = null;
         try {
             c = mIconDb.query(
                     new String[]{IconDB.COLUMN_ROWID, IconDB.COLUMN_COMPONENT,
                             IconDB.COLUMN_LAST_UPDATED, IconDB.COLUMN_VERSION,
-                            IconDB.COLUMN_SYSTEM_STATE},
+                            IconDB.COLUMN_SYSTEM_STATE, IconDB.COLUMN_ICON_RES,
+                            IconDB.COLUMN_NORMALIZATION},
                     IconDB.COLUMN_USER + " = ? ",
                     new String[]{Long.toString(userSerial)});
 
@@ -319,6 +381,8 @@ public class IconCache {
             final int indexVersion = c.getColumnIndex(IconDB.COLUMN_VERSION);
             final int rowIndex = c.getColumnIndex(IconDB.COLUMN_ROWID);
             final int systemStateIndex = c.getColumnIndex(IconDB.COLUMN_SYSTEM_STATE);
+            final int iconResIndex = c.getColumnIndex(IconDB.COLUMN_ICON_RES);
+            final int normalizationIndex = c.getColumnIndex(IconDB.COLUMN_NORMALIZATION);
 
             while (c.moveToNext()) {
                 String cn = c.getString(indexComponent);
@@ -339,9 +403,10 @@ public class IconCache {
                 long updateTime = c.getLong(indexLastUpdate);
                 int version = c.getInt(indexVersion);
                 LauncherActivityInfo app = componentMap.remove(component);
-                if (version == info.versionCode && updateTime == info.lastUpdateTime &&
-                        TextUtils.equals(c.getString(systemStateIndex),
-                                mIconProvider.getIconSystemState(info.packageName))) {
+                boolean samePackage = version == info.versionCode
+                        && updateTime == info.lastUpdateTime;
+                if (samePackage && TextUtils.equals(c.getString(systemStateIndex),
+                        mIconProvider.getIconSystemState(info.packageName))) {
                     continue;
                 }
                 if (app == null) {
@@ -349,6 +414,11 @@ public class IconCache {
                     itemsToRemove.add(c.getInt(rowIndex));
                 } else {
                     appsToUpdate.add(app);
+                    Normalization normalization = samePackage ? readNormalization(
+                            c, iconResIndex, normalizationIndex, app) : null;
+                    if (normalization != null) {
+                        normalizations.put(component, normalization);
+                    }
                 }
             }
         } catch (SQLiteException e) {
@@ -369,7 +439,7 @@ public class IconCache {
             Stack<LauncherActivityInfo> appsToAdd = new Stack<>();
             appsToAdd.addAll(componentMap.values());
             new SerializedIconUpdateTask(userSerial, pkgInfoMap,
-                    appsToAdd, appsToUpdate).scheduleNext();
+                    appsToAdd, appsToUpdate, normalizations).scheduleNext();
         }
     }
 
@@ -378,14 +448,18 @@ public class IconCache {
      * @param replaceExisting if true, it will recreate the bitmap even if it already exists in
      *                        the memory. This is useful then the previous bitmap was created using
      *                        old data.
+     * @param icon the already rendered icon of {@param app}, or null to render it here
+     * @param normalization the normalization of the icon of {@param app}, which is stored with
+     *                      it if valid. If null, it is computed when rendering the icon here.
      */
     @Thunk
-    synchronized void addIconToDBAndMemCache(LauncherActivityInfo app,
-                                             PackageInfo info, long userSerial, boolean replaceExisting) {
+    synchronized void addIconToDBAndMemCache(LauncherActivityInfo app, PackageInfo info,
+                                             long userSerial, boolean replaceExisting,
+                                             BitmapInfo icon, Normalization normalization) {
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
         CacheEntry entry = null;
         if (!replaceExisting) {
-            entry = mCache.get(key);
+            entry = getMemCacheEntryLocked(key);
             // We can't reuse the entry if the high-res icon is not present.
             if (entry == null || entry.isLowResIcon || entry.icon == null) {
                 entry = null;
@@ -393,21 +467,107 @@ public class IconCache {
         }
         if (entry == null) {
             entry = new CacheEntry();
-            LauncherIcons li = LauncherIcons.obtain(mContext);
-            li.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
-                    app.getApplicationInfo().targetSdkVersion).applyTo(entry);
-            li.recycle();
+            if (icon != null) {
+                icon.applyTo(entry);
+            } else {
+                if (normalization == null) {
+                    normalization = new Normalization();
+                }
+                LauncherIcons li = LauncherIcons.obtain(mContext);
+                li.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
+                        app.getApplicationInfo().targetSdkVersion, false, normalization)
+                        .applyTo(entry);
+                li.recycle();
+            }
+        } else {
+            // The existing icon may have been rendered from a different drawable
+            normalization = null;
         }
         entry.title = app.getLabel();
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
+        putMemCacheEntryLocked(key, entry);
 
         Bitmap lowResIcon = generateLowResIcon(entry.icon);
         ContentValues values = newContentValues(entry.icon, lowResIcon, entry.color,
                 entry.title.toString(), app.getApplicationInfo().packageName);
+        int iconRes = mIconProvider.getIconResourceId(mPackageManager, app);
+        if (iconRes != 0 && normalization != null && normalization.isValid()) {
+            values.put(IconDB.COLUMN_ICON_RES, iconRes);
+            values.put(IconDB.COLUMN_NORMALIZATION, flattenNormalization(normalization));
+        }
         addIconToDB(values, app.getComponentName(), info, userSerial);
     }
 
+    /**
+     * Returns the stored normalizations of the icons of {@param apps} which are still valid,
+     * see {@link #readNormalization}.
+     */
+    private HashMap<ComponentName, Normalization> getNormalizationsFromDB(
+            PackageInfo info, long userSerial, List<LauncherActivityInfo> apps) {
+        HashMap<ComponentName, Normalization> normalizations = new HashMap<>();
+        if (apps.isEmpty()) {
+            return normalizations;
+        }
+        HashMap<ComponentName, LauncherActivityInfo> componentMap = new HashMap<>();
+        for (LauncherActivityInfo app : apps) {
+            componentMap.put(app.getComponentName(), app);
+        }
+        try (Cursor c = mIconDb.query(
+                new String[]{IconDB.COLUMN_COMPONENT, IconDB.COLUMN_LAST_UPDATED,
+                        IconDB.COLUMN_VERSION, IconDB.COLUMN_ICON_RES,
+                        IconDB.COLUMN_NORMALIZATION},
+                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ? AND "
+                        + IconDB.COLUMN_VERSION + " = ? AND "
+                        + IconDB.COLUMN_LAST_UPDATED + " = ?",
+                new String[]{info.packageName + "/%", Long.toString(userSerial),
+                        Integer.toString(info.versionCode), Long.toString(info.lastUpdateTime)})) {
+            while (c.moveToNext()) {
+                ComponentName component = ComponentName.unflattenFromString(c.getString(0));
+                LauncherActivityInfo app = componentMap.get(component);
+                Normalization normalization = app != null ? readNormalization(c, 3, 4, app) : null;
+                if (normalization != null) {
+                    normalizations.put(component, normalization);
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon normalizations", e);
+        }
+        return normalizations;
+    }
+
+    /**
+     * Returns the normalization stored in the current row of {@param c}, or null if there is none
+     * or the icon of {@param app} is now loaded from a different resource. The caller must have
+     * checked that the row belongs to the current version of the package.
+     */
+    private Normalization readNormalization(Cursor c, int iconResIndex, int normalizationIndex,
+                                            LauncherActivityInfo app) {
+        int iconRes = c.getInt(iconResIndex);
+        byte[] data = c.getBlob(normalizationIndex);
+        if (iconRes == 0 || data == null || data.length != NORMALIZATION_SIZE
+                || iconRes != mIconProvider.getIconResourceId(mPackageManager, app)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        Normalization normalization = new Normalization();
+        normalization.scale = buffer.getFloat();
+        normalization.bounds.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+                buffer.getFloat());
+        normalization.isMaskShape = buffer.get() != 0;
+        return normalization;
+    }
+
+    private static byte[] flattenNormalization(Normalization normalization) {
+        return ByteBuffer.allocate(NORMALIZATION_SIZE)
+                .putFloat(normalization.scale)
+                .putFloat(normalization.bounds.left)
+                .putFloat(normalization.bounds.top)
+                .putFloat(normalization.bounds.right)
+                .putFloat(normalization.bounds.bottom)
+                .put((byte) (normalization.isMaskShape ? 1 : 0))
+                .array();
+    }
+
     /**
      * Updates {@param values} to contain versioning information and adds it to the DB.
      * @param values {@link ContentValues} containing icon & title
@@ -497,6 +657,49 @@ public class IconCache {
         }
     }
 
+    /**
+     * Fill in all {@param infos} with their icon and label, same as
+     * {@link #getTitleAndIcon(ItemInfoWithIcon, boolean)}. All entries missing from memory are
+     * read from the DB with a single query per user, instead of one query per item.
+     */
+    public synchronized void getTitleAndIcon(
+            List<? extends ItemInfoWithIcon> infos, boolean useLowResIcon) {
+        Preconditions.assertWorkerThread();
+        ArrayList<ItemInfoWithIcon> pending = new ArrayList<>();
+        HashSet<ComponentKey> pendingKeys = new HashSet<>();
+        for (ItemInfoWithIcon info : infos) {
+            ComponentName cn = info.getTargetComponent();
+            if (cn == null) {
+                getTitleAndIcon(info, useLowResIcon);
+                continue;
+            }
+            ComponentKey key = new ComponentKey(cn, info.user);
+            CacheEntry entry = getMemCacheEntryLocked(key);
+            if (entry != null && !(entry.isLowResIcon && !useLowResIcon)) {
+                applyCacheEntry(entry, info);
+            } else {
+                pending.add(info);
+                pendingKeys.add(key);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        HashMap<ComponentKey, CacheEntry> loaded = getEntriesFromDB(pendingKeys, useLowResIcon);
+        for (ItemInfoWithIcon info : pending) {
+            ComponentKey key = new ComponentKey(info.getTargetComponent(), info.user);
+            CacheEntry entry = loaded.get(key);
+            if (entry != null && !TextUtils.isEmpty(entry.title) && !DEBUG_IGNORE_CACHE) {
+                putMemCacheEntryLocked(key, entry);
+                applyCacheEntry(entry, info);
+            } else {
+                // Not in the DB, or the entry needs more data. Go through the regular path.
+                getTitleAndIcon(info, useLowResIcon);
+            }
+        }
+    }
+
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
@@ -547,10 +750,9 @@ public class IconCache {
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
         Preconditions.assertWorkerThread();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        CacheEntry entry = getMemCacheEntryLocked(cacheKey);
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             LauncherActivityInfo info = null;
@@ -595,6 +797,8 @@ public class IconCache {
                     entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
                 }
             }
+            // Only add the entry once it is filled, as the memory tier is sized by its icon.
+            putMemCacheEntryLocked(cacheKey, entry);
         }
         return entry;
     }
@@ -613,7 +817,7 @@ public class IconCache {
         removeFromMemCacheLocked(packageName, user);
 
         ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        CacheEntry entry = getMemCacheEntryLocked(cacheKey);
 
         // For icon caching, do not go through DB. Just update the in-memory entry.
         if (entry == null) {
@@ -628,7 +832,9 @@ public class IconCache {
             li.recycle();
         }
         if (!TextUtils.isEmpty(title) && entry.icon != null) {
-            mCache.put(cacheKey, entry);
+            // The entry is not persisted, so it can't be evicted from memory.
+            mCache.remove(cacheKey);
+            mPinnedEntries.put(cacheKey, entry);
         }
     }
 
@@ -645,7 +851,7 @@ public class IconCache {
                                                 boolean useLowResIcon) {
         Preconditions.assertWorkerThread();
         ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        CacheEntry entry = getMemCacheEntryLocked(cacheKey);
 
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
@@ -692,7 +898,7 @@ public class IconCache {
 
             // Only add a filled-out entry to the cache
             if (entryUpdated) {
-                mCache.put(cacheKey, entry);
+                putMemCacheEntryLocked(cacheKey, entry);
             }
         }
         return entry;
@@ -708,18 +914,7 @@ public class IconCache {
                     new String[]{cacheKey.componentName.flattenToString(),
                             Long.toString(mUserManager.getSerialNumberForUser(cacheKey.user))});
             if (c.moveToNext()) {
-                entry.icon = loadIconNoResize(c, 0, lowRes ? mLowResOptions : mHighResOptions);
-                // Set the alpha to be 255, so that we never have a wrong color
-                entry.color = ColorUtils.setAlphaComponent(c.getInt(1), 255);
-                entry.isLowResIcon = lowRes;
-                entry.title = c.getString(2);
-                if (entry.title == null) {
-                    entry.title = "";
-                    entry.contentDescription = "";
-                } else {
-                    entry.contentDescription = mUserManager.getBadgedLabelForUser(
-                            entry.title, cacheKey.user);
-                }
+                readEntryFromCursor(c, entry, cacheKey.user, lowRes);
                 return true;
             }
         } catch (SQLiteException e) {
@@ -732,6 +927,84 @@ public class IconCache {
         return false;
     }
 
+    /**
+     * Reads the entries for all {@param keys} from the DB, using one query per user and batch.
+     * @return the entries which were found in the DB.
+     */
+    private HashMap<ComponentKey, CacheEntry> getEntriesFromDB(
+            Collection<ComponentKey> keys, boolean lowRes) {
+        HashMap<ComponentKey, CacheEntry> result = new HashMap<>();
+        MultiHashMap<UserHandle, ComponentKey> keysByUser = new MultiHashMap<>();
+        for (ComponentKey key : keys) {
+            keysByUser.addToList(key.user, key);
+        }
+
+        for (Map.Entry<UserHandle, ArrayList<ComponentKey>> userKeys : keysByUser.entrySet()) {
+            UserHandle user = userKeys.getKey();
+            String userSerial = Long.toString(mUserManager.getSerialNumberForUser(user));
+            ArrayList<ComponentKey> allKeys = userKeys.getValue();
+
+            for (int start = 0; start < allKeys.size(); start += MAX_DB_BATCH_SIZE) {
+                int end = Math.min(start + MAX_DB_BATCH_SIZE, allKeys.size());
+                String[] args = new String[end - start + 1];
+                args[0] = userSerial;
+                StringBuilder selection = new StringBuilder(IconDB.COLUMN_USER)
+                        .append(" = ? AND ").append(IconDB.COLUMN_COMPONENT).append(" IN (");
+                HashMap<String, ComponentKey> keysByName = new HashMap<>();
+                for (int i = start; i < end; i++) {
+                    String name = allKeys.get(i).componentName.flattenToString();
+                    keysByName.put(name, allKeys.get(i));
+                    args[i - start + 1] = name;
+                    selection.append(i == start ? "?" : ",?");
+                }
+                selection.append(")");
+
+                Cursor c = null;
+                try {
+                    c = mIconDb.query(
+                            new String[]{lowRes ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
+                                    IconDB.COLUMN_ICON_COLOR, IconDB.COLUMN_LABEL,
+                                    IconDB.COLUMN_COMPONENT},
+                            selection.toString(), args);
+                    while (c.moveToNext()) {
+                        ComponentKey key = keysByName.get(c.getString(3));
+                        if (key != null) {
+                            CacheEntry entry = new CacheEntry();
+                            readEntryFromCursor(c, entry, user, lowRes);
+                            result.put(key, entry);
+                        }
+                    }
+                } catch (SQLiteException e) {
+                    Log.d(TAG, "Error reading icon cache", e);
+                    // Continue with whatever we have read so far
+                } finally {
+                    if (c != null) {
+                        c.close();
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fills {@param entry} from a cursor whose first three columns are the icon, icon color and
+     * label.
+     */
+    private void readEntryFromCursor(Cursor c, CacheEntry entry, UserHandle user, boolean lowRes) {
+        entry.icon = loadIconNoResize(c, 0, lowRes ? mLowResOptions : mHighResOptions);
+        // Set the alpha to be 255, so that we never have a wrong color
+        entry.color = ColorUtils.setAlphaComponent(c.getInt(1), 255);
+        entry.isLowResIcon = lowRes;
+        entry.title = c.getString(2);
+        if (entry.title == null) {
+            entry.title = "";
+            entry.contentDescription = "";
+        } else {
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+        }
+    }
+
     public static abstract class IconLoadRequest implements Runnable {
         private final Handler mHandler;
         private final Runnable mEndRunnable;
@@ -756,58 +1029,167 @@ public class IconCache {
         }
     }
 
+    /**
+     * Whether the mem cache has an entry for {@param key} which
+     * {@link #addIconToDBAndMemCache} can reuse when not replacing existing icons.
+     */
+    private synchronized boolean hasHighResMemCacheEntry(ComponentKey key) {
+        CacheEntry entry = getMemCacheEntryLocked(key);
+        return entry != null && !entry.isLowResIcon && entry.icon != null;
+    }
+
     /**
      * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfo list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * LauncherActivityInfo list. Items are updated/added in small batches, so that the
+     * worker thread doesn't get blocked. The icons of a batch are rendered in parallel.
      */
     @Thunk
     class SerializedIconUpdateTask implements Runnable {
+        private static final int BATCH_SIZE = 16;
+
         private final long mUserSerial;
+        private final UserHandle mUser;
         private final HashMap<String, PackageInfo> mPkgInfoMap;
         private final Stack<LauncherActivityInfo> mAppsToAdd;
         private final Stack<LauncherActivityInfo> mAppsToUpdate;
+        // Stored normalizations of the icons in mAppsToUpdate
+        private final HashMap<ComponentName, Normalization> mNormalizations;
         private final HashSet<String> mUpdatedPackages = new HashSet<>();
 
+        private final ArrayList<LauncherActivityInfo> mBatch = new ArrayList<>(BATCH_SIZE);
+        private final ArrayList<Drawable> mBatchIcons = new ArrayList<>(BATCH_SIZE);
+        private final int[] mBatchTargetSdks = new int[BATCH_SIZE];
+        private final Normalization[] mBatchNormalizations = new Normalization[BATCH_SIZE];
+        // Index in mBatchIcons of the icon of each app in mBatch, or -1 if it has none
+        private final int[] mBatchIconIndices = new int[BATCH_SIZE];
+        private final BitmapInfo[] mBatchResults = new BitmapInfo[BATCH_SIZE];
+
+        private final long mStartTime = SystemClock.uptimeMillis();
+        private long mRenderTime;
+        private int mRenderedCount;
+
         @Thunk
         SerializedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
                                  Stack<LauncherActivityInfo> appsToAdd,
-                                 Stack<LauncherActivityInfo> appsToUpdate) {
+                                 Stack<LauncherActivityInfo> appsToUpdate,
+                                 HashMap<ComponentName, Normalization> normalizations) {
             mUserSerial = userSerial;
+            mUser = mUserManager.getUserForSerialNumber(userSerial);
             mPkgInfoMap = pkgInfoMap;
             mAppsToAdd = appsToAdd;
             mAppsToUpdate = appsToUpdate;
+            mNormalizations = normalizations;
         }
 
         @Override
         public void run() {
             if (!mAppsToUpdate.isEmpty()) {
-                LauncherActivityInfo app = mAppsToUpdate.pop();
-                String pkg = app.getComponentName().getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-                addIconToDBAndMemCache(app, info, mUserSerial, true /*replace existing*/);
-                mUpdatedPackages.add(pkg);
+                takeBatch(mAppsToUpdate, true /*replace existing*/);
+                for (int i = 0; i < mBatch.size(); i++) {
+                    LauncherActivityInfo app = mBatch.get(i);
+                    String pkg = app.getComponentName().getPackageName();
+                    PackageInfo info = mPkgInfoMap.get(pkg);
+                    addIconToDBAndMemCache(app, info, mUserSerial, true /*replace existing*/,
+                            mBatchResults[i], getBatchNormalization(i));
+                    mUpdatedPackages.add(pkg);
+                }
+                clearBatch();
 
                 if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
                     // No more app to update. Notify model.
                     LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
-                            mUpdatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
+                            mUpdatedPackages, mUser);
                 }
 
                 // Let it run one more time.
                 scheduleNext();
             } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfo app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
-                // app should have package info, this is not guaranteed by the api
-                if (info != null) {
-                    addIconToDBAndMemCache(app, info, mUserSerial, false /*replace existing*/);
+                takeBatch(mAppsToAdd, false /*replace existing*/);
+                for (int i = 0; i < mBatch.size(); i++) {
+                    LauncherActivityInfo app = mBatch.get(i);
+                    PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
+                    addIconToDBAndMemCache(app, info, mUserSerial, false /*replace existing*/,
+                            mBatchResults[i], getBatchNormalization(i));
                 }
+                clearBatch();
 
                 if (!mAppsToAdd.isEmpty()) {
                     scheduleNext();
+                } else {
+                    onDone();
+                }
+            } else {
+                onDone();
+            }
+        }
+
+        /**
+         * Moves up to {@link #BATCH_SIZE} apps to {@link #mBatch} and renders the icons of those
+         * which need one into {@link #mBatchResults}
+         */
+        private void takeBatch(Stack<LauncherActivityInfo> apps, boolean replaceExisting) {
+            while (!apps.isEmpty() && mBatch.size() < BATCH_SIZE) {
+                LauncherActivityInfo app = apps.pop();
+                // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
+                // app should have package info, this is not guaranteed by the api
+                if (mPkgInfoMap.get(app.getComponentName().getPackageName()) == null) {
+                    continue;
                 }
+                if (!replaceExisting && hasHighResMemCacheEntry(
+                        new ComponentKey(app.getComponentName(), app.getUser()))) {
+                    // The existing icon is reused, nothing to render
+                    mBatchIconIndices[mBatch.size()] = -1;
+                } else {
+                    mBatchIconIndices[mBatch.size()] = mBatchIcons.size();
+                    mBatchTargetSdks[mBatchIcons.size()] =
+                            app.getApplicationInfo().targetSdkVersion;
+                    Normalization normalization = mNormalizations.remove(app.getComponentName());
+                    mBatchNormalizations[mBatchIcons.size()] =
+                            normalization != null ? normalization : new Normalization();
+                    mBatchIcons.add(getFullResIcon(app));
+                }
+                mBatch.add(app);
+            }
+            if (mBatchIcons.isEmpty()) {
+                return;
+            }
+
+            long start = SystemClock.uptimeMillis();
+            BitmapInfo[] icons = LauncherIcons.createBadgedIconBitmaps(
+                    mContext, mBatchIcons, mBatchTargetSdks, mBatchNormalizations, mUser);
+            mRenderTime += SystemClock.uptimeMillis() - start;
+            mRenderedCount += icons.length;
+
+            for (int i = 0; i < mBatch.size(); i++) {
+                int index = mBatchIconIndices[i];
+                mBatchResults[i] = index >= 0 ? icons[index] : null;
+            }
+        }
+
+        /**
+         * Returns the normalization of the icon rendered for the {@param i}th app in the batch
+         */
+        private Normalization getBatchNormalization(int i) {
+            int index = mBatchIconIndices[i];
+            return index >= 0 ? mBatchNormalizations[index] : null;
+        }
+
+        private void clearBatch() {
+            mBatch.clear();
+            mBatchIcons.clear();
+            for (int i = 0; i < mBatchResults.length; i++) {
+                mBatchResults[i] = null;
+                mBatchNormalizations[i] = null;
+            }
+        }
+
+        private void onDone() {
+            if (mRenderedCount > 0) {
+                Log.d(TAG, String.format("Rendered %d icons in %d ms, %.1f icons/s (%d ms total)",
+                        mRenderedCount, mRenderTime,
+                        mRenderedCount * 1000f / Math.max(mRenderTime, 1),
+                        SystemClock.uptimeMillis() - mStartTime));
+                mRenderedCount = 0;
             }
         }
 
@@ -817,7 +1199,7 @@ public class IconCache {
     }
 
     private static final class IconDB extends SQLiteCacheHelper {
-        private final static int RELEASE_VERSION = 22;
+        private final static int RELEASE_VERSION = 23;
 
         private final static String TABLE_NAME = "icons";
         private final static String COLUMN_ROWID = "rowid";
@@ -830,6 +1212,10 @@ public class IconCache {
         private final static String COLUMN_ICON_COLOR = "icon_color";
         private final static String COLUMN_LABEL = "label";
         private final static String COLUMN_SYSTEM_STATE = "system_state";
+        // Resource id of the source of the icon, 0 if it can't be identified
+        private final static String COLUMN_ICON_RES = "icon_res";
+        // Result of IconNormalizer for the icon, only valid if the icon_res is set
+        private final static String COLUMN_NORMALIZATION = "normalization";
 
         public IconDB(Context context, int iconPixelSize) {
             super(context, LauncherFiles.APP_ICONS_DB,
@@ -849,6 +1235,8 @@ public class IconCache {
                     COLUMN_ICON_COLOR + " INTEGER NOT NULL DEFAULT 0, " +
                     COLUMN_LABEL + " TEXT, " +
                     COLUMN_SYSTEM_STATE + " TEXT, " +
+                    COLUMN_ICON_RES + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_NORMALIZATION + " BLOB, " +
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") " +
                     ");");
         }
@@ -909,6 +1297,26 @@ public class IconCache {
         void reapplyItemInfo(ItemInfoWithIcon info);
     }
 
+    /**
+     * In-memory tier of the cache, bounded by the size of the icon bitmaps rather than the number
+     * of entries. Low-res entries are much smaller, so many more of them can be kept.
+     */
+    private static class MemoryCache extends LruCache<ComponentKey, CacheEntry> {
+
+        // Approximate size of the entry itself, excluding the bitmap.
+        private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+        MemoryCache(int maxSizeBytes) {
+            super(maxSizeBytes);
+        }
+
+        @Override
+        protected int sizeOf(ComponentKey key, CacheEntry entry) {
+            return ENTRY_OVERHEAD_BYTES
+                    + (entry.icon == null ? 0 : entry.icon.getAllocationByteCount());
+        }
+    }
+
     public static class CacheEntry extends BitmapInfo {
         public CharSequence title = "";
         public CharSequence contentDescription = "";
@@ -2,6 +2,7 @@ package com.android.launcher3;
 
 import android.content.Context;
 import android.content.pm.LauncherActivityInfo;
+import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 
@@ -43,6 +44,19 @@ public class IconProvider {
         return mSystemState;
     }
 
+    /**
+     * Returns the id of the resource {@link #getIcon} loads for {@param info}, or 0 if the icon
+     * can change while the package stays the same, so that nothing derived from it is reused.
+     */
+    public int getIconResourceId(PackageManager pm, LauncherActivityInfo info) {
+        try {
+            // The activity's own icon, or the application icon if it doesn't set one
+            return pm.getActivityInfo(info.getComponentName(), 0).getIconResource();
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
     /**
      * @param flattenDrawable true if the caller does not care about the specification of the
      *                        original icon as long as the flattened version looks the same.
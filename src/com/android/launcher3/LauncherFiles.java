@@ -22,14 +22,18 @@ public class LauncherFiles {
     // Google Reflection client preferences
     public static final String REFLECTION_PREFERENCES_KEY = "reflection.private.properties";
     public static final String WIDGET_PREVIEWS_DB = "widgetpreviews.db";
+    public static final String WIDGET_PREVIEWS_STORE = "widget_previews.dat";
     public static final String APP_ICONS_DB = "app_icons.db";
+    public static final String BACKPORT_SHORTCUTS_STORE = "backport_shortcuts.dat";
     private static final String XML = ".xml";
     public static final List<String> ALL_FILES = Collections.unmodifiableList(Arrays.asList(
             LAUNCHER_DB,
             SHARED_PREFERENCES_KEY + XML,
             WIDGET_PREVIEWS_DB,
+            WIDGET_PREVIEWS_STORE,
             MANAGED_USER_PREFERENCES_KEY + XML,
             DEVICE_PREFERENCES_KEY + XML,
             REFLECTION_PREFERENCES_KEY + XML,
-            APP_ICONS_DB));
+            APP_ICONS_DB,
+            BACKPORT_SHORTCUTS_STORE));
 }
@@ -43,6 +43,7 @@ import com.android.launcher3.model.BaseModelUpdateTask;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.CacheDataUpdatedTask;
 import com.android.launcher3.model.LoaderResults;
+import com.android.launcher3.model.LoaderPhaseTimings;
 import com.android.launcher3.model.LoaderTask;
 import com.android.launcher3.model.ModelWriter;
 import com.android.launcher3.model.PackageInstallStateChangedTask;
@@ -95,6 +96,7 @@ public class LauncherModel extends BroadcastReceiver
     LoaderTask mLoaderTask;
     @Thunk
     boolean mIsLoaderTaskRunning;
+    private LoaderPhaseTimings mLoaderTimings;
 
     @Thunk
     static final HandlerThread sWorkerThread = new HandlerThread("launcher-loader");
@@ -208,9 +210,11 @@ public class LauncherModel extends BroadcastReceiver
 
     /**
      * Runs the specified runnable immediately if called from the worker thread, otherwise it is
-     * posted on the worker thread handler.
+     * posted on the worker thread handler. Item updates which are still journaled by a
+     * {@link ModelWriter} are written first, so that the runnable sees them.
      */
     private static void runOnWorkerThread(Runnable r) {
+        ModelWriter.flushAllPendingUpdates();
         if (sWorkerThread.getThreadId() == Process.myTid()) {
             r.run();
         } else {
@@ -542,6 +546,7 @@ public class LauncherModel extends BroadcastReceiver
         synchronized (mLock) {
             stopLoader();
             mLoaderTask = new LoaderTask(mApp, mBgAllAppsList, sBgDataModel, results);
+            mLoaderTimings = mLoaderTask.getTimings();
             runOnWorkerThread(mLoaderTask);
         }
     }
@@ -726,9 +731,24 @@ public class LauncherModel extends BroadcastReceiver
                         + " componentName=" + info.componentName.getPackageName());
             }
         }
+        LoaderPhaseTimings timings = getLoaderTimings();
+        if (timings != null) {
+            timings.dump(prefix, writer);
+        }
         sBgDataModel.dump(prefix, fd, writer, args);
     }
 
+    /**
+     * @return the phase timings of the most recently started loader, or null if the loader
+     * has not run yet.
+     */
+    @Nullable
+    public LoaderPhaseTimings getLoaderTimings() {
+        synchronized (mLock) {
+            return mLoaderTimings;
+        }
+    }
+
     public Callbacks getCallback() {
         return mCallbacks != null ? mCallbacks.get() : null;
     }
@@ -395,10 +395,39 @@ public class LauncherProvider extends ContentProvider {
                 mOpenHelper.removeGhostWidgets(mOpenHelper.getWritableDatabase());
                 return null;
             }
+            case LauncherSettings.Settings.METHOD_UPDATE_ITEMS: {
+                updateItems(extras.getLongArray(LauncherSettings.Settings.EXTRA_ITEM_IDS),
+                        extras.getParcelableArrayList(LauncherSettings.Settings.EXTRA_VALUE));
+                return null;
+            }
         }
         return null;
     }
 
+    /**
+     * Updates many favorites in one transaction, notifying the listeners only once.
+     */
+    private void updateItems(long[] ids, ArrayList<ContentValues> values) {
+        int updated = 0;
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        try (SQLiteTransaction t = new SQLiteTransaction(db)) {
+            String[] selectionArgs = new String[1];
+            for (int i = 0; i < ids.length; i++) {
+                ContentValues itemValues = values.get(i);
+                addModifiedTime(itemValues);
+                selectionArgs[0] = Long.toString(ids[i]);
+                updated += db.update(Favorites.TABLE_NAME, itemValues,
+                        Favorites._ID + "=?", selectionArgs);
+            }
+            t.commit();
+        } catch (SQLException ex) {
+            Log.e(TAG, ex.getMessage(), ex);
+        }
+        if (updated > 0) {
+            notifyListeners();
+        }
+    }
+
     /**
      * Deletes any empty folder from the DB.
      * @return Ids of deleted folders.
@@ -334,10 +334,21 @@ public class LauncherSettings {
 
         public static final String METHOD_REMOVE_GHOST_WIDGETS = "remove_ghost_widgets";
 
+        /**
+         * Updates the favorites with the ids in {@link #EXTRA_ITEM_IDS} with the ContentValues
+         * in {@link #EXTRA_VALUE} at the same index, in a single transaction.
+         */
+        public static final String METHOD_UPDATE_ITEMS = "update_items";
+        public static final String EXTRA_ITEM_IDS = "item_ids";
+
         public static final String EXTRA_VALUE = "value";
 
         public static Bundle call(ContentResolver cr, String method) {
             return cr.call(CONTENT_URI, method, null, null);
         }
+
+        public static Bundle call(ContentResolver cr, String method, Bundle extras) {
+            return cr.call(CONTENT_URI, method, null, extras);
+        }
     }
 }
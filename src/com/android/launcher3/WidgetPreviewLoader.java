@@ -1,5 +1,6 @@
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -21,12 +22,12 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.UserHandle;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.LruCache;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
@@ -34,19 +35,22 @@ import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.graphics.ShadowGenerator;
 import com.android.launcher3.model.WidgetItem;
+import com.android.launcher3.util.BitmapPool;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
+import com.android.launcher3.util.PriorityExecutor;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.WidgetCell;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
@@ -57,59 +61,116 @@ public class WidgetPreviewLoader {
     private static final String TAG = "WidgetPreviewLoader";
     private static final boolean DEBUG = false;
 
+    // Previews of visible cells are loaded before the prefetched ones
+    private static final int PRIORITY_VISIBLE = 1;
+    private static final int PRIORITY_PREFETCH = 0;
+    private static final int LOADER_THREADS = 2;
+
+    // Budget of the decoded bitmaps kept for reuse, as a fraction of the app's memory class
+    private static final int BITMAP_POOL_MEMORY_FRACTION = 16;
+    // Budget of the prefetched, still compressed previews
+    private static final int PREFETCH_CACHE_BYTES = 2 * 1024 * 1024;
+
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
     /**
-     * Weak reference objects, do not prevent their referents from being made finalizable,
-     * finalized, and then reclaimed.
-     * Note: synchronized block used for this variable is expensive and the block should always
-     * be posted to a background thread.
+     * Bitmaps of cleared or cancelled previews, which new previews are decoded or drawn into.
+     */
+    @Thunk
+    final BitmapPool mBitmapPool;
+
+    /**
+     * Compressed previews read from the DB ahead of time by {@link #prefetch}.
      */
     @Thunk
-    final Set<Bitmap> mUnusedBitmaps =
-            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    final LruCache<WidgetCacheKey, byte[]> mPrefetchedPreviews =
+            new LruCache<WidgetCacheKey, byte[]>(PREFETCH_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(WidgetCacheKey key, byte[] value) {
+                    return value.length;
+                }
+            };
+    // Keys which are queued for prefetching
+    @Thunk
+    final Set<WidgetCacheKey> mPendingPrefetch =
+            Collections.synchronizedSet(new HashSet<WidgetCacheKey>());
 
     private final Context mContext;
     private final IconCache mIconCache;
     private final UserManagerCompat mUserManager;
     private final AppWidgetManagerCompat mWidgetManager;
+    private final WidgetPreviewStore mStore;
     private final CacheDb mDb;
 
-    private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
+    @Thunk
+    final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
     @Thunk
     final Handler mWorkerHandler;
+    private final PriorityExecutor mLoadExecutor =
+            new PriorityExecutor("WidgetPreviewLoader", LOADER_THREADS);
 
     public WidgetPreviewLoader(Context context, IconCache iconCache) {
         mContext = context;
         mIconCache = iconCache;
         mWidgetManager = AppWidgetManagerCompat.getInstance(context);
         mUserManager = UserManagerCompat.getInstance(context);
+        mStore = new WidgetPreviewStore(
+                new File(context.getFilesDir(), LauncherFiles.WIDGET_PREVIEWS_STORE));
         mDb = new CacheDb(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mBitmapPool = new BitmapPool(
+                am.getMemoryClass() * 1024 * 1024 / BITMAP_POOL_MEMORY_FRACTION);
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
+     * Generates the widget preview in the background, ahead of any prefetching. Must be
      * called on UI thread
      *
      * @return a request id which can be used to cancel the request.
      */
     public CancellationSignal getPreview(WidgetItem item, int previewWidth,
                                          int previewHeight, WidgetCell caller) {
-        String size = previewWidth + "x" + previewHeight;
-        WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
+        WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user,
+                getSizeKey(previewWidth, previewHeight));
 
         PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
-        task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
+        mLoadExecutor.execute(task, PRIORITY_VISIBLE);
 
         CancellationSignal signal = new CancellationSignal();
         signal.setOnCancelListener(task);
         return signal;
     }
 
+    /**
+     * Reads the stored previews of {@code items} from the DB in a single query, so that a later
+     * {@link #getPreview} for them doesn't need to go to the DB. Previews which were never
+     * generated are skipped. Must be called on UI thread
+     */
+    public void prefetch(List<WidgetItem> items, int previewWidth, int previewHeight) {
+        String size = getSizeKey(previewWidth, previewHeight);
+        final ArrayList<WidgetCacheKey> keys = new ArrayList<>(items.size());
+        for (WidgetItem item : items) {
+            WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
+            if (mPrefetchedPreviews.get(key) == null && mPendingPrefetch.add(key)) {
+                keys.add(key);
+            }
+        }
+        if (!keys.isEmpty()) {
+            mLoadExecutor.execute(() -> prefetchFromDb(keys), PRIORITY_PREFETCH);
+        }
+    }
+
+    private static String getSizeKey(int previewWidth, int previewHeight) {
+        return previewWidth + "x" + previewHeight;
+    }
+
     /**
      * The DB holds the generated previews for various components. Previews can also have different
      * sizes (landscape vs portrait).
+     *
+     * New previews are written to {@link WidgetPreviewStore}, the DB is only used when the store
+     * can't be written. Previews still in the DB are moved to the store when they are loaded.
      */
     private static class CacheDb extends SQLiteCacheHelper {
         private static final int DB_VERSION = 9;
@@ -142,8 +203,31 @@ public class WidgetPreviewLoader {
         }
     }
 
+    /**
+     * Writes the preview to the store, or to the DB if that fails
+     *
+     * @param fromDb whether the preview was read from the DB, in which case it is removed there
+     */
     @Thunk
-    void writeToDb(WidgetCacheKey key, long[] versions, Bitmap preview) {
+    void writeToStore(WidgetCacheKey key, long[] versions, Bitmap preview, boolean fromDb) {
+        long userSerial = mUserManager.getSerialNumberForUser(key.user);
+        if (mStore.write(key.componentName, userSerial, key.size, versions, preview)) {
+            if (fromDb) {
+                mDb.delete(CacheDb.COLUMN_COMPONENT + " = ? AND " + CacheDb.COLUMN_USER
+                                + " = ? AND " + CacheDb.COLUMN_SIZE + " = ?",
+                        new String[]{
+                                key.componentName.flattenToShortString(),
+                                Long.toString(userSerial),
+                                key.size
+                        });
+                mPrefetchedPreviews.remove(key);
+            }
+        } else if (!fromDb) {
+            writeToDb(key, versions, preview);
+        }
+    }
+
+    private void writeToDb(WidgetCacheKey key, long[] versions, Bitmap preview) {
         ContentValues values = new ContentValues();
         values.put(CacheDb.COLUMN_COMPONENT, key.componentName.flattenToShortString());
         values.put(CacheDb.COLUMN_USER, mUserManager.getSerialNumberForUser(key.user));
@@ -155,20 +239,31 @@ public class WidgetPreviewLoader {
         mDb.insertOrReplace(values);
     }
 
-    public void removePackage(String packageName, UserHandle user) {
-        removePackage(packageName, user, mUserManager.getSerialNumberForUser(user));
-    }
-
     private void removePackage(String packageName, UserHandle user, long userSerial) {
         synchronized (mPackageVersions) {
             mPackageVersions.remove(packageName);
         }
+        for (WidgetCacheKey key : mPrefetchedPreviews.snapshot().keySet()) {
+            if (key.componentName.getPackageName().equals(packageName) && key.user.equals(user)) {
+                mPrefetchedPreviews.remove(key);
+            }
+        }
 
+        mStore.removePackage(packageName, userSerial);
         mDb.delete(
                 CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
                 new String[]{packageName, Long.toString(userSerial)});
     }
 
+    /**
+     * Removes the previews of {@code packageName} and compacts the store. Must be called on the
+     * worker thread.
+     */
+    public void removePackage(String packageName, UserHandle user) {
+        removePackage(packageName, user, mUserManager.getSerialNumberForUser(user));
+        mStore.compact();
+    }
+
     /**
      * Updates the persistent DB:
      *   1. Any preview generated for an old package version is removed
@@ -208,29 +303,13 @@ public class WidgetPreviewLoader {
                 String pkg = c.getString(1);
                 long lastUpdated = c.getLong(2);
                 long version = c.getLong(3);
-
-                if (packageUser != null && (!pkg.equals(packageUser.mPackageName)
-                        || userId != passedUserId)) {
-                    // This preview is associated with a different package/user, no need to remove.
-                    continue;
-                }
-
-                HashSet<String> packages = validPackages.get(userId);
-                if (packages != null && packages.contains(pkg)) {
-                    long[] versions = getPackageVersion(pkg);
-                    if (versions[0] == version && versions[1] == lastUpdated) {
-                        // Every thing checks out
-                        continue;
-                    }
-                }
-
-                // We need to delete this package.
-                packages = packagesToDelete.get(userId);
-                if (packages == null) {
-                    packages = new HashSet<>();
-                    packagesToDelete.put(userId, packages);
-                }
-                packages.add(pkg);
+                checkObsolete(userId, pkg, version, lastUpdated, validPackages, packageUser,
+                        passedUserId, packagesToDelete);
+            }
+            for (WidgetPreviewStore.Record record : mStore.getRecords()) {
+                checkObsolete(record.userSerial, record.packageName, record.version,
+                        record.lastUpdated, validPackages, packageUser, passedUserId,
+                        packagesToDelete);
             }
 
             for (int i = 0; i < packagesToDelete.size(); i++) {
@@ -247,13 +326,126 @@ public class WidgetPreviewLoader {
                 c.close();
             }
         }
+        mStore.compact();
     }
 
     /**
-     * Reads the preview bitmap from the DB or null if the preview is not in the DB.
+     * Adds the package of the preview to {@code packagesToDelete} if it is absent or its version
+     * changed
+     */
+    private void checkObsolete(long userId, String pkg, long version, long lastUpdated,
+                               LongSparseArray<HashSet<String>> validPackages,
+                               @Nullable PackageUserKey packageUser, long passedUserId,
+                               LongSparseArray<HashSet<String>> packagesToDelete) {
+        if (packageUser != null && (!pkg.equals(packageUser.mPackageName)
+                || userId != passedUserId)) {
+            // This preview is associated with a different package/user, no need to remove.
+            return;
+        }
+
+        HashSet<String> packages = validPackages.get(userId);
+        if (packages != null && packages.contains(pkg)) {
+            long[] versions = getPackageVersion(pkg);
+            if (versions[0] == version && versions[1] == lastUpdated) {
+                // Every thing checks out
+                return;
+            }
+        }
+
+        // We need to delete this package.
+        packages = packagesToDelete.get(userId);
+        if (packages == null) {
+            packages = new HashSet<>();
+            packagesToDelete.put(userId, packages);
+        }
+        packages.add(pkg);
+    }
+
+    @Thunk
+    void prefetchFromDb(ArrayList<WidgetCacheKey> keys) {
+        // Component -> keys, as the same component can be requested for multiple users
+        HashMap<String, ArrayList<WidgetCacheKey>> keysByComponent = new HashMap<>();
+        String size = keys.get(0).size;
+        for (WidgetCacheKey key : keys) {
+            if (mStore.contains(key.componentName,
+                    mUserManager.getSerialNumberForUser(key.user), key.size)) {
+                // Reading from the store is as fast as the prefetched copy
+                continue;
+            }
+            String component = key.componentName.flattenToShortString();
+            ArrayList<WidgetCacheKey> componentKeys = keysByComponent.get(component);
+            if (componentKeys == null) {
+                componentKeys = new ArrayList<>(1);
+                keysByComponent.put(component, componentKeys);
+            }
+            componentKeys.add(key);
+        }
+
+        if (keysByComponent.isEmpty()) {
+            mPendingPrefetch.removeAll(keys);
+            return;
+        }
+
+        StringBuilder selection = new StringBuilder()
+                .append(CacheDb.COLUMN_SIZE).append(" = ? AND ")
+                .append(CacheDb.COLUMN_COMPONENT).append(" IN (");
+        String[] selectionArgs = new String[keysByComponent.size() + 1];
+        selectionArgs[0] = size;
+        int i = 1;
+        for (String component : keysByComponent.keySet()) {
+            selection.append(i == 1 ? "?" : ", ?");
+            selectionArgs[i++] = component;
+        }
+        selection.append(')');
+
+        Cursor cursor = null;
+        try {
+            cursor = mDb.query(
+                    new String[]{CacheDb.COLUMN_COMPONENT, CacheDb.COLUMN_USER,
+                            CacheDb.COLUMN_PREVIEW_BITMAP},
+                    selection.toString(), selectionArgs);
+            while (cursor.moveToNext()) {
+                ArrayList<WidgetCacheKey> componentKeys = keysByComponent.get(cursor.getString(0));
+                if (componentKeys == null) {
+                    continue;
+                }
+                long userSerial = cursor.getLong(1);
+                for (WidgetCacheKey key : componentKeys) {
+                    if (mUserManager.getSerialNumberForUser(key.user) == userSerial) {
+                        mPrefetchedPreviews.put(key, cursor.getBlob(2));
+                        break;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "Error prefetching previews from DB", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            mPendingPrefetch.removeAll(keys);
+        }
+    }
+
+    /**
+     * Reads the preview bitmap from the store or null if the preview is not in the store.
+     */
+    @Thunk
+    Bitmap readFromStore(WidgetCacheKey key, Bitmap recycle) {
+        return mStore.read(key.componentName, mUserManager.getSerialNumberForUser(key.user),
+                key.size, recycle);
+    }
+
+    /**
+     * Reads the preview bitmap from the prefetched previews or the DB, or null if the preview is
+     * not in the DB.
      */
     @Thunk
     Bitmap readFromDb(WidgetCacheKey key, Bitmap recycle, PreviewLoadTask loadTask) {
+        byte[] prefetched = mPrefetchedPreviews.get(key);
+        if (prefetched != null) {
+            return decodePreview(prefetched, recycle, loadTask);
+        }
         Cursor cursor = null;
         try {
             cursor = mDb.query(
@@ -270,16 +462,7 @@ public class WidgetPreviewLoader {
                 return null;
             }
             if (cursor.moveToNext()) {
-                byte[] blob = cursor.getBlob(0);
-                BitmapFactory.Options opts = new BitmapFactory.Options();
-                opts.inBitmap = recycle;
-                try {
-                    if (!loadTask.isCancelled()) {
-                        return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
-                    }
-                } catch (Exception e) {
-                    return null;
-                }
+                return decodePreview(cursor.getBlob(0), recycle, loadTask);
             }
         } catch (SQLException e) {
             Log.w(TAG, "Error loading preview from DB", e);
@@ -291,6 +474,19 @@ public class WidgetPreviewLoader {
         return null;
     }
 
+    private Bitmap decodePreview(byte[] blob, Bitmap recycle, PreviewLoadTask loadTask) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inBitmap = recycle;
+        try {
+            if (!loadTask.isCancelled()) {
+                return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        return null;
+    }
+
     private Bitmap generatePreview(BaseActivity launcher, WidgetItem item, Bitmap recycle,
                                    int previewWidth, int previewHeight) {
         if (item.widgetInfo != null) {
@@ -530,8 +726,7 @@ public class WidgetPreviewLoader {
         }
     }
 
-    public class PreviewLoadTask extends AsyncTask<Void, Void, Bitmap>
-            implements CancellationSignal.OnCancelListener {
+    public class PreviewLoadTask implements Runnable, CancellationSignal.OnCancelListener {
         @Thunk
         final WidgetCacheKey mKey;
         private final WidgetItem mInfo;
@@ -542,7 +737,10 @@ public class WidgetPreviewLoader {
         @Thunk
         long[] mVersions;
         @Thunk
+        boolean mFromDb;
+        @Thunk
         Bitmap mBitmapToRecycle;
+        private volatile boolean mCancelled;
 
         PreviewLoadTask(WidgetCacheKey key, WidgetItem info, int previewWidth,
                         int previewHeight, WidgetCell caller) {
@@ -558,36 +756,45 @@ public class WidgetPreviewLoader {
             }
         }
 
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
         @Override
-        protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
+        public void run() {
+            final Bitmap preview = doInBackground();
+            mMainThreadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled()) {
+                        onCancelled(preview);
+                    } else {
+                        onPostExecute(preview);
+                    }
+                }
+            });
+        }
 
+        private Bitmap doInBackground() {
             // If already cancelled before this gets to run in the background, then return early
             if (isCancelled()) {
                 return null;
             }
-            synchronized (mUnusedBitmaps) {
-                // Check if we can re-use a bitmap
-                for (Bitmap candidate : mUnusedBitmaps) {
-                    if (candidate != null && candidate.isMutable() &&
-                            candidate.getWidth() == mPreviewWidth &&
-                            candidate.getHeight() == mPreviewHeight) {
-                        unusedBitmap = candidate;
-                        mUnusedBitmaps.remove(unusedBitmap);
-                        break;
-                    }
-                }
-            }
+            Bitmap unusedBitmap = mBitmapPool.acquire(mPreviewWidth, mPreviewHeight);
 
-            // creating a bitmap is expensive. Do not do this inside synchronized block.
-            if (unusedBitmap == null) {
-                unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
-            }
             // If cancelled now, don't bother reading the preview from the DB
             if (isCancelled()) {
                 return unusedBitmap;
             }
-            Bitmap preview = readFromDb(mKey, unusedBitmap, this);
+            Bitmap preview = readFromStore(mKey, unusedBitmap);
+            if (preview == null && !isCancelled()) {
+                preview = readFromDb(mKey, unusedBitmap, this);
+                if (preview != null) {
+                    // Move the preview to the store, so that it loads faster next time
+                    mFromDb = true;
+                    mVersions = getPackageVersion(mKey.componentName.getPackageName());
+                }
+            }
             // Only consider generating the preview if we have not cancelled the task already
             if (!isCancelled() && preview == null) {
                 // Fetch the version info before we generate the preview, so that, in-case the
@@ -600,30 +807,30 @@ public class WidgetPreviewLoader {
 
                 // it's not in the db... we need to generate it
                 preview = generatePreview(mActivity, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
+            } else if (preview == null) {
+                preview = unusedBitmap;
             }
             return preview;
         }
 
-        @Override
-        protected void onPostExecute(final Bitmap preview) {
+        @Thunk
+        void onPostExecute(final Bitmap preview) {
             mCaller.applyPreview(preview);
 
-            // Write the generated preview to the DB in the worker thread
+            // Write the generated preview to the store in the worker thread
             if (mVersions != null) {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
                         if (!isCancelled()) {
-                            // If we are still using this preview, then write it to the DB and then
-                            // let the normal clear mechanism recycle the bitmap
-                            writeToDb(mKey, mVersions, preview);
+                            // If we are still using this preview, then write it to the store and
+                            // then let the normal clear mechanism recycle the bitmap
+                            writeToStore(mKey, mVersions, preview, mFromDb);
                             mBitmapToRecycle = preview;
                         } else {
-                            // If we've already cancelled, then skip writing the bitmap to the DB
-                            // and manually add the bitmap back to the recycled set
-                            synchronized (mUnusedBitmaps) {
-                                mUnusedBitmaps.add(preview);
-                            }
+                            // If we've already cancelled, then skip writing the bitmap to the store
+                            // and manually add the bitmap back to the pool
+                            mBitmapPool.release(preview);
                         }
                     }
                 });
@@ -634,26 +841,17 @@ public class WidgetPreviewLoader {
             }
         }
 
-        @Override
-        protected void onCancelled(final Bitmap preview) {
+        @Thunk
+        void onCancelled(Bitmap preview) {
             // If we've cancelled while the task is running, then can return the bitmap to the
-            // recycled set immediately. Otherwise, it will be recycled after the preview is written
+            // pool immediately. Otherwise, it will be recycled after the preview is written
             // to disk.
-            if (preview != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(preview);
-                        }
-                    }
-                });
-            }
+            mBitmapPool.release(preview);
         }
 
         @Override
         public void onCancel() {
-            cancel(true);
+            mCancelled = true;
 
             // This only handles the case where the PreviewLoadTask is cancelled after the task has
             // successfully completed (including having written to disk when necessary).  In the
@@ -664,9 +862,7 @@ public class WidgetPreviewLoader {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(mBitmapToRecycle);
-                        }
+                        mBitmapPool.release(mBitmapToRecycle);
                         mBitmapToRecycle = null;
                     }
                 });
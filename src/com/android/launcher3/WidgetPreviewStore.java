@@ -0,0 +1,555 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only file of widget previews, stored as raw pixels compressed with the fastest deflate
+ * level so that loading a preview is a single inflate into the bitmap instead of a PNG decode.
+ *
+ * Layout, all numbers big endian, strings as an unsigned short byte length followed by UTF-8:
+ *   int     magic "WPRV"
+ *   int     format version
+ *   then records, each starting with a byte type:
+ *     1 preview:         string component, long user serial, string size, long version,
+ *                        long last updated, int width, int height, int data length, byte[] data
+ *     2 package removal: string package, long user serial
+ *
+ * A later record for the same component, user and size replaces the earlier one. The index of
+ * the live records is rebuilt by skipping through the mapped file when it is first used. A last
+ * record which ends within its header is dropped, any other invalid record, such as one with an
+ * invalid size or data beyond the end of the file, discards the whole file. Once the replaced
+ * and removed records take up more space than the live ones, {@link #compact} rewrites the file
+ * with only the live records.
+ */
+class WidgetPreviewStore {
+
+    private static final String TAG = "WidgetPreviewStore";
+
+    private static final int MAGIC = 0x57505256;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte RECORD_PREVIEW = 1;
+    private static final byte RECORD_REMOVE_PACKAGE = 2;
+
+    // Larger previews are never written, so a record claiming one is corrupt. Also keeps
+    // width * height * 4 well within an int.
+    private static final int MAX_PREVIEW_SIZE = 4096;
+
+    // Don't bother compacting less than this
+    private static final long MIN_GARBAGE_BYTES = 1024 * 1024;
+
+    private static final ThreadLocal<Inflater> sInflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+    private static final ThreadLocal<byte[][]> sBuffers = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            // Compressed data, pixels
+            return new byte[2][];
+        }
+    };
+
+    private final File mFile;
+
+    private boolean mLoaded;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private ByteBuffer mMap;
+    private long mLength;
+    private long mLiveBytes;
+    private final HashMap<String, Record> mRecords = new HashMap<>();
+
+    WidgetPreviewStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the records of all stored previews
+     */
+    synchronized ArrayList<Record> getRecords() {
+        if (!ensureLoaded()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(mRecords.values());
+    }
+
+    synchronized boolean contains(ComponentName component, long userSerial, String size) {
+        return ensureLoaded() && mRecords.containsKey(getKey(component, userSerial, size));
+    }
+
+    /**
+     * Reads the preview into {@code recycle} if it is large enough, or a new bitmap otherwise.
+     *
+     * @return the preview or null if it isn't stored
+     */
+    Bitmap read(ComponentName component, long userSerial, String size, Bitmap recycle) {
+        Record record;
+        ByteBuffer map;
+        synchronized (this) {
+            if (!ensureLoaded()) {
+                return null;
+            }
+            record = mRecords.get(getKey(component, userSerial, size));
+            if (record == null || (map = getMap(record.dataOffset + record.dataLength)) == null) {
+                return null;
+            }
+        }
+
+        // The mapping stays valid when the file is appended to or replaced by compaction
+        byte[][] buffers = sBuffers.get();
+        byte[] data = buffers[0];
+        if (data == null || data.length < record.dataLength) {
+            data = buffers[0] = new byte[record.dataLength];
+        }
+        int pixelBytes = record.width * record.height * 4;
+        byte[] pixels = buffers[1];
+        if (pixels == null || pixels.length < pixelBytes) {
+            pixels = buffers[1] = new byte[pixelBytes];
+        }
+        map.position((int) record.dataOffset);
+        map.get(data, 0, record.dataLength);
+
+        Inflater inflater = sInflater.get();
+        inflater.reset();
+        inflater.setInput(data, 0, record.dataLength);
+        try {
+            if (inflater.inflate(pixels, 0, pixelBytes) != pixelBytes) {
+                Log.w(TAG, "Truncated preview for " + component);
+                return null;
+            }
+        } catch (DataFormatException e) {
+            Log.w(TAG, "Corrupt preview for " + component, e);
+            return null;
+        }
+
+        Bitmap preview;
+        if (recycle != null && recycle.isMutable() && recycle.getConfig() == Config.ARGB_8888
+                && recycle.getAllocationByteCount() >= pixelBytes) {
+            if (recycle.getWidth() != record.width || recycle.getHeight() != record.height) {
+                recycle.reconfigure(record.width, record.height, Config.ARGB_8888);
+            }
+            preview = recycle;
+        } else {
+            preview = Bitmap.createBitmap(record.width, record.height, Config.ARGB_8888);
+        }
+        preview.copyPixelsFromBuffer(ByteBuffer.wrap(pixels, 0, pixelBytes));
+        return preview;
+    }
+
+    /**
+     * Appends {@code preview}, replacing any earlier one for the same component, user and size.
+     *
+     * @return whether the preview was written
+     */
+    boolean write(ComponentName component, long userSerial, String size, long[] versions,
+                  Bitmap preview) {
+        if (preview.getConfig() != Config.ARGB_8888 || preview.getWidth() > MAX_PREVIEW_SIZE
+                || preview.getHeight() > MAX_PREVIEW_SIZE) {
+            return false;
+        }
+        // Compress outside of the lock, so that reading other previews isn't blocked
+        byte[] pixels = new byte[preview.getByteCount()];
+        preview.copyPixelsToBuffer(ByteBuffer.wrap(pixels));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(pixels);
+        deflater.finish();
+        ByteArrayOutputStream data = new ByteArrayOutputStream(pixels.length / 4);
+        byte[] chunk = new byte[16 * 1024];
+        while (!deflater.finished()) {
+            data.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+
+        byte[] componentBytes = component.flattenToShortString().getBytes(StandardCharsets.UTF_8);
+        byte[] sizeBytes = size.getBytes(StandardCharsets.UTF_8);
+        int headerLength = 1 + 2 + componentBytes.length + 8 + 2 + sizeBytes.length + 8 + 8
+                + 4 + 4 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength + data.size());
+        buffer.put(RECORD_PREVIEW);
+        buffer.putShort((short) componentBytes.length).put(componentBytes);
+        buffer.putLong(userSerial);
+        buffer.putShort((short) sizeBytes.length).put(sizeBytes);
+        buffer.putLong(versions[0]).putLong(versions[1]);
+        buffer.putInt(preview.getWidth()).putInt(preview.getHeight());
+        buffer.putInt(data.size());
+        buffer.put(data.toByteArray());
+        buffer.flip();
+
+        synchronized (this) {
+            if (!ensureLoaded()) {
+                return false;
+            }
+            long offset = mLength;
+            if (!append(buffer)) {
+                return false;
+            }
+            Record record = new Record(component.getPackageName(), userSerial, versions[0],
+                    versions[1], preview.getWidth(), preview.getHeight(),
+                    offset + headerLength, data.size(), offset, buffer.limit());
+            Record replaced = mRecords.put(getKey(component, userSerial, size), record);
+            if (replaced != null) {
+                mLiveBytes -= replaced.recordLength;
+            }
+            mLiveBytes += record.recordLength;
+            return true;
+        }
+    }
+
+    /**
+     * Removes all previews of {@code packageName} for the user
+     */
+    synchronized void removePackage(String packageName, long userSerial) {
+        if (!ensureLoaded() || !removeEntries(packageName, userSerial)) {
+            return;
+        }
+        byte[] packageBytes = packageName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + 2 + packageBytes.length + 8);
+        record.put(RECORD_REMOVE_PACKAGE);
+        record.putShort((short) packageBytes.length).put(packageBytes);
+        record.putLong(userSerial);
+        record.flip();
+        append(record);
+    }
+
+    private boolean removeEntries(String packageName, long userSerial) {
+        boolean removed = false;
+        Iterator<Record> iterator = mRecords.values().iterator();
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            if (record.userSerial == userSerial && record.packageName.equals(packageName)) {
+                iterator.remove();
+                mLiveBytes -= record.recordLength;
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Rewrites the file without the replaced and removed previews, if they take up more space
+     * than the live ones. Should be called on a background thread.
+     */
+    synchronized void compact() {
+        if (!mLoaded || mChannel == null) {
+            return;
+        }
+        long garbage = mLength - HEADER_SIZE - mLiveBytes;
+        if (garbage < MIN_GARBAGE_BYTES || garbage < mLiveBytes) {
+            return;
+        }
+        ByteBuffer map = getMap(mLength);
+        if (map == null) {
+            return;
+        }
+
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(tmpFile, "rw");
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            writeHeader(channel);
+            long offset = HEADER_SIZE;
+            HashMap<String, Record> compacted = new HashMap<>();
+            for (Map.Entry<String, Record> e : mRecords.entrySet()) {
+                Record record = e.getValue();
+                ByteBuffer bytes = map.duplicate();
+                bytes.limit((int) (record.recordOffset + record.recordLength));
+                bytes.position((int) record.recordOffset);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                compacted.put(e.getKey(), record.moveTo(offset));
+                offset += record.recordLength;
+            }
+            channel.force(false);
+            out.close();
+            out = null;
+
+            closeFile();
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("Failed to replace " + mFile);
+            }
+            mRecords.clear();
+            mRecords.putAll(compacted);
+            mLiveBytes = offset - HEADER_SIZE;
+            if (!openFile()) {
+                mRecords.clear();
+                mLiveBytes = 0;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compact widget previews", e);
+            tmpFile.delete();
+            if (mChannel == null && !openFile()) {
+                mRecords.clear();
+                mLiveBytes = 0;
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+
+    private boolean ensureLoaded() {
+        if (mLoaded) {
+            return mChannel != null;
+        }
+        mLoaded = true;
+        if (!openFile()) {
+            return false;
+        }
+        if (mLength == 0) {
+            try {
+                writeHeader(mChannel);
+                mLength = HEADER_SIZE;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create widget preview store", e);
+                closeFile();
+                return false;
+            }
+            return true;
+        }
+        ByteBuffer map = mLength < HEADER_SIZE ? null : getMap(mLength);
+        if (map == null || map.getInt(0) != MAGIC || map.getInt(4) != FORMAT_VERSION) {
+            Log.d(TAG, "Discarding widget preview store with unknown format");
+            return reset();
+        }
+        long validLength = readIndex(map);
+        if (validLength < 0) {
+            Log.w(TAG, "Discarding corrupt widget preview store");
+            return reset();
+        }
+        if (validLength != mLength) {
+            Log.w(TAG, "Dropping truncated widget preview at " + validLength);
+            try {
+                mChannel.truncate(validLength);
+                mLength = validLength;
+            } catch (IOException e) {
+                return reset();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds {@link #mRecords} from the records in {@code map}
+     *
+     * @return the length up to the last complete record, or -1 if a record is corrupt
+     */
+    private long readIndex(ByteBuffer map) {
+        map.position(HEADER_SIZE);
+        long validLength = HEADER_SIZE;
+        try {
+            while (map.hasRemaining()) {
+                int recordOffset = map.position();
+                byte type = map.get();
+                if (type == RECORD_PREVIEW) {
+                    String component = readString(map);
+                    long userSerial = map.getLong();
+                    String size = readString(map);
+                    long version = map.getLong();
+                    long lastUpdated = map.getLong();
+                    int width = map.getInt();
+                    int height = map.getInt();
+                    int dataLength = map.getInt();
+                    int dataOffset = map.position();
+                    if (width <= 0 || width > MAX_PREVIEW_SIZE
+                            || height <= 0 || height > MAX_PREVIEW_SIZE
+                            || dataLength < 0 || dataLength > map.remaining()) {
+                        return -1;
+                    }
+                    map.position(dataOffset + dataLength);
+                    ComponentName cn = ComponentName.unflattenFromString(component);
+                    if (cn == null) {
+                        return -1;
+                    }
+                    Record record = new Record(cn.getPackageName(), userSerial, version,
+                            lastUpdated, width, height, dataOffset, dataLength, recordOffset,
+                            map.position() - recordOffset);
+                    Record replaced = mRecords.put(getKey(cn, userSerial, size), record);
+                    if (replaced != null) {
+                        mLiveBytes -= replaced.recordLength;
+                    }
+                    mLiveBytes += record.recordLength;
+                } else if (type == RECORD_REMOVE_PACKAGE) {
+                    String packageName = readString(map);
+                    removeEntries(packageName, map.getLong());
+                } else {
+                    return -1;
+                }
+                validLength = map.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // The last record is incomplete
+        }
+        return validLength;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean append(ByteBuffer record) {
+        try {
+            long position = mLength;
+            while (record.hasRemaining()) {
+                position += mChannel.write(record, position);
+            }
+            mLength = position;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write widget preview", e);
+            // Drop anything partially written
+            try {
+                mChannel.truncate(mLength);
+            } catch (IOException e2) { }
+            return false;
+        }
+    }
+
+    /**
+     * Returns a mapping of the file which covers at least {@code length} bytes
+     */
+    private ByteBuffer getMap(long length) {
+        if (mMap == null || mMap.capacity() < length) {
+            try {
+                mMap = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to map widget previews", e);
+                mMap = null;
+                return null;
+            }
+        }
+        return mMap.duplicate();
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, HEADER_SIZE - header.remaining());
+        }
+    }
+
+    private boolean openFile() {
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            mChannel = mRandomAccessFile.getChannel();
+            mLength = mChannel.size();
+            mMap = null;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open widget previews", e);
+            closeFile();
+            return false;
+        }
+    }
+
+    private void closeFile() {
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) { }
+        }
+        mRandomAccessFile = null;
+        mChannel = null;
+        mMap = null;
+    }
+
+    private boolean reset() {
+        mRecords.clear();
+        mLiveBytes = 0;
+        try {
+            mChannel.truncate(0);
+            writeHeader(mChannel);
+            mLength = HEADER_SIZE;
+            mMap = null;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to reset widget previews", e);
+            closeFile();
+            return false;
+        }
+    }
+
+    private static String getKey(ComponentName component, long userSerial, String size) {
+        return component.flattenToShortString() + ' ' + userSerial + ' ' + size;
+    }
+
+    static final class Record {
+        final String packageName;
+        final long userSerial;
+        final long version;
+        final long lastUpdated;
+
+        final int width;
+        final int height;
+        final long dataOffset;
+        final int dataLength;
+        final long recordOffset;
+        final int recordLength;
+
+        Record(String packageName, long userSerial, long version, long lastUpdated, int width,
+              int height, long dataOffset, int dataLength, long recordOffset, int recordLength) {
+            this.packageName = packageName;
+            this.userSerial = userSerial;
+            this.version = version;
+            this.lastUpdated = lastUpdated;
+            this.width = width;
+            this.height = height;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+        }
+
+        Record moveTo(long recordOffset) {
+            return new Record(packageName, userSerial, version, lastUpdated, width, height,
+                    dataOffset - this.recordOffset + recordOffset, dataLength, recordOffset,
+                    recordLength);
+        }
+    }
+}
@@ -23,11 +23,12 @@ import com.android.launcher3.BubbleTextView;
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.PromiseAppInfo;
+import com.android.launcher3.allapps.search.AppSearchIndex;
 import com.android.launcher3.folder.FolderIcon;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.PackageUserKey;
 
-import org.zimmob.zimlx.util.DbHelper;
+import org.zimmob.zimlx.model.AppUsageStore;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -48,6 +49,7 @@ public class AllAppsStore {
     private final List<OnUpdateListener> mUpdateListeners = new ArrayList<>();
     private final ArrayList<ViewGroup> mIconContainers = new ArrayList<>();
     private final Set<FolderIcon> mFolderIcons = Collections.newSetFromMap(new WeakHashMap<>());
+    private final AppSearchIndex mSearchIndex = new AppSearchIndex();
 
     private boolean mDeferUpdates = false;
     private boolean mUpdatePending = false;
@@ -63,6 +65,7 @@ public class AllAppsStore {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
+        mSearchIndex.setApps(Collections.emptyList());
         addOrUpdateApps(apps);
     }
 
@@ -70,6 +73,13 @@ public class AllAppsStore {
         return mComponentToAppMap.get(key);
     }
 
+    /**
+     * Returns the search index, which always reflects the current set of apps.
+     */
+    public AppSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
     public void setDeferUpdates(boolean deferUpdates) {
         if (mDeferUpdates != deferUpdates) {
             mDeferUpdates = deferUpdates;
@@ -88,6 +98,7 @@ public class AllAppsStore {
         for (AppInfo app : apps) {
             mComponentToAppMap.put(app.toComponentKey(), app);
         }
+        mSearchIndex.addOrUpdateApps(apps);
         notifyUpdate();
     }
 
@@ -103,12 +114,13 @@ public class AllAppsStore {
      * Removes some apps from the list.
      */
     public void removeApps(List<AppInfo> apps) {
-        DbHelper db = new DbHelper(Launcher.mContext);
+        List<String> packageNames = new ArrayList<>(apps.size());
         for (AppInfo app : apps) {
             mComponentToAppMap.remove(app.toComponentKey());
-            db.deleteApp(app.componentName.getPackageName());
+            packageNames.add(app.componentName.getPackageName());
         }
-        db.close();
+        AppUsageStore.getInstance(Launcher.mContext).remove(packageNames);
+        mSearchIndex.removeApps(apps);
         notifyUpdate();
     }
 
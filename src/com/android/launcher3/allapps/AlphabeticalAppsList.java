@@ -17,7 +17,6 @@ package com.android.launcher3.allapps;
 
 import android.content.Context;
 import android.content.pm.LauncherActivityInfo;
-import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.os.UserHandle;
 
@@ -37,17 +36,11 @@ import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LabelComparator;
 
 import org.zimmob.zimlx.ZimPreferences;
-import org.zimmob.zimlx.allapps.AppColorComparator;
 import org.zimmob.zimlx.groups.DrawerFolderInfo;
 import org.zimmob.zimlx.groups.DrawerFolderItem;
-import org.zimmob.zimlx.model.AppCountInfo;
-import org.zimmob.zimlx.util.DbHelper;
-import org.zimmob.zimlx.util.InstallTimeComparator;
-import org.zimmob.zimlx.util.MostUsedComparator;
+import org.zimmob.zimlx.model.AppUsageStore;
 
-import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -55,11 +48,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
-import static org.zimmob.zimlx.util.Config.SORT_AZ;
 import static org.zimmob.zimlx.util.Config.SORT_BY_COLOR;
-import static org.zimmob.zimlx.util.Config.SORT_LAST_INSTALLED;
 import static org.zimmob.zimlx.util.Config.SORT_MOST_USED;
-import static org.zimmob.zimlx.util.Config.SORT_ZA;
 
 /**
  * The alphabetically sorted list of applications.
@@ -209,21 +199,18 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
     private HashMap<CharSequence, String> mCachedSectionNames = new HashMap<>();
     private AllAppsGridAdapter mAdapter;
     private AlphabeticIndexCompat mIndexer;
-    private AppInfoComparator mAppNameComparator;
-    private AppColorComparator mAppColorComparator;
     private final int mNumAppsPerRow;
     private int mNumAppRowsInAdapter;
     private ItemInfoMatcher mItemFilter;
     private ZimPreferences prefs;
 
     private List<String> mSearchSuggestions;
+    private boolean mWaitingForUsage;
 
     public AlphabeticalAppsList(Context context, AllAppsStore appsStore, boolean isWork) {
         mAllAppsStore = appsStore;
         mLauncher = Launcher.getLauncher(context);
         mIndexer = new AlphabeticIndexCompat(context);
-        mAppNameComparator = new AppInfoComparator(context);
-        mAppColorComparator = new AppColorComparator(context);
         mIsWork = isWork;
         mNumAppsPerRow = mLauncher.getDeviceProfile().inv.numColsDrawer;
         mAllAppsStore.addUpdateListener(this);
@@ -250,42 +237,13 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
     }
 
     private void sortApps(int sortType) {
-        switch (sortType) {
-            //SORT BY NAME AZ
-            case SORT_AZ:
-                Collections.sort(mApps, mAppNameComparator);
-                break;
-
-            //SORT BY NAME ZA
-            case SORT_ZA:
-                Collections.sort(mApps, (p2, p1) -> Collator
-                        .getInstance()
-                        .compare(p1.title, p2.title));
-                break;
-
-            //SORT BY LAST INSTALLED
-            case SORT_LAST_INSTALLED:
-                PackageManager pm = mLauncher.getApplicationContext().getPackageManager();
-                InstallTimeComparator installTimeComparator = new InstallTimeComparator(pm);
-                Collections.sort(mApps, installTimeComparator);
-                break;
-
-            //SORT BY MOST USED DESC
-            case SORT_MOST_USED:
-                DbHelper db = new DbHelper(mLauncher.getApplicationContext());
-                List<AppCountInfo> appsCounter = db.getAppsCount();
-                db.close();
-                MostUsedComparator mostUsedComparator = new MostUsedComparator(appsCounter);
-                Collections.sort(mApps, mostUsedComparator);
-                break;
-
-            case SORT_BY_COLOR:
-                Collections.sort(mApps, mAppColorComparator);
-                break;
-            default:
-                Collections.sort(mApps, mAppNameComparator);
-                break;
-
+        AppSortKeys.sort(mLauncher, mApps, sortType);
+        if (sortType == SORT_MOST_USED && !mWaitingForUsage) {
+            // The launch counts may not be loaded yet, sort again once they are
+            mWaitingForUsage = AppUsageStore.getInstance(mLauncher).runWhenLoaded(() -> {
+                mWaitingForUsage = false;
+                onAppsUpdated();
+            });
         }
     }
 
@@ -384,7 +342,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
             sortApps(prefs.getSortMode());
         }
         else{
-            Collections.sort(mApps, mAppNameComparator);
+            sortApps(SORT_AZ);
         }*/
 
         // As a special case for some languages (currently only Simplified Chinese), we may need to
@@ -631,7 +589,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
             if (prefs.getSortMode()==SORT_BY_COLOR) {
                 float[] hsl = new float[3];
                 ColorUtils.colorToHSL(info.iconColor, hsl);
-                sectionName = "";//String.format("%d:%d:%d", AppColorComparator.remapHue(hsl[0]), AppColorComparator.remap(hsl[2]), AppColorComparator.remap(hsl[1]));
+                sectionName = "";//String.format("%d:%d:%d", AppSortKeys.remapHue(hsl[0]), AppSortKeys.remap(hsl[2]), AppSortKeys.remap(hsl[1]));
             } else {
                 sectionName = mIndexer.computeSectionName(info.title);
             }
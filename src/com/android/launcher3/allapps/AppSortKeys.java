@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.UserHandle;
+
+import androidx.core.graphics.ColorUtils;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.compat.UserManagerCompat;
+
+import org.zimmob.zimlx.model.AppUsageStore;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.zimmob.zimlx.util.Config.SORT_BY_COLOR;
+import static org.zimmob.zimlx.util.Config.SORT_LAST_INSTALLED;
+import static org.zimmob.zimlx.util.Config.SORT_MOST_USED;
+import static org.zimmob.zimlx.util.Config.SORT_ZA;
+
+/**
+ * Keys for the drawer sort modes, computed once per app and cached in {@link AppInfo#sortKeys}.
+ *
+ * The title key is recomputed when the title or the locale changes and the color key when the
+ * icon color changes. The install time is dropped together with the keys when the package is
+ * updated.
+ */
+public class AppSortKeys {
+
+    // Number of buckets per HSL component for the color sort
+    public static final int REPETITIONS = 6;
+
+    private static Collator sCollator;
+    private static Locale sCollatorLocale;
+
+    private Collator mCollator;
+    private CharSequence mTitle;
+    private CollationKey mTitleKey;
+    private boolean mStartsWithLetter;
+
+    private boolean mHasColorKey;
+    private int mColor;
+    private int mColorKey;
+
+    private long mInstallTime = -1;
+
+    private void updateTitle(AppInfo app, Collator collator) {
+        if (mTitleKey != null && mTitle == app.title && mCollator == collator) return;
+        String title = app.title.toString();
+        mCollator = collator;
+        mTitle = app.title;
+        mTitleKey = collator.getCollationKey(title);
+        // Same as LabelComparator, titles which don't start with a letter or digit go last
+        mStartsWithLetter = title.length() > 0 && Character.isLetterOrDigit(title.codePointAt(0));
+    }
+
+    private int getColorKey(int color) {
+        if (mHasColorKey && mColor == color) return mColorKey;
+        float[] hsl = new float[3];
+        ColorUtils.colorToHSL(color, hsl);
+        // Step sorting, see https://www.alanzucconi.com/2015/09/30/colour-sorting/
+        int hue = remapHue(hsl[0]);
+        int saturation = remap(hsl[1]);
+        int lightness = remap(hsl[2]);
+        if (hue % 2 == 1) {
+            saturation = REPETITIONS - saturation;
+            lightness = REPETITIONS - lightness;
+        }
+        mHasColorKey = true;
+        mColor = color;
+        mColorKey = (hue * (REPETITIONS + 1) + lightness) * (REPETITIONS + 1) + saturation;
+        return mColorKey;
+    }
+
+    private long getInstallTime(PackageManager pm, String packageName) {
+        if (mInstallTime < 0) {
+            try {
+                mInstallTime = pm.getPackageInfo(packageName, 0).firstInstallTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                mInstallTime = 0;
+            }
+        }
+        return mInstallTime;
+    }
+
+    public static int remapHue(float hue) {
+        return (int) (hue / 360 * REPETITIONS);
+    }
+
+    public static int remap(float value) {
+        return (int) (value * REPETITIONS);
+    }
+
+    private static Collator getCollator() {
+        Locale locale = Locale.getDefault();
+        if (sCollator == null || !locale.equals(sCollatorLocale)) {
+            sCollator = Collator.getInstance(locale);
+            sCollatorLocale = locale;
+        }
+        return sCollator;
+    }
+
+    /**
+     * Sorts {@code apps} for {@code sortMode}, one of the SORT_ constants in
+     * {@link org.zimmob.zimlx.util.Config}. Apps with the same key are sorted by title like
+     * {@link AppInfoComparator}. Must be called on the main thread.
+     */
+    public static void sort(Context context, List<AppInfo> apps, int sortMode) {
+        Collator collator = getCollator();
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        UserHandle myUser = Process.myUserHandle();
+        PackageManager pm = context.getPackageManager();
+        AppUsageStore.Snapshot usage = sortMode == SORT_MOST_USED
+                ? AppUsageStore.getInstance(context).getSnapshot() : null;
+
+        Entry[] entries = new Entry[apps.size()];
+        for (int i = 0; i < entries.length; i++) {
+            AppInfo app = apps.get(i);
+            if (app.sortKeys == null) {
+                app.sortKeys = new AppSortKeys();
+            }
+            AppSortKeys keys = app.sortKeys;
+            keys.updateTitle(app, collator);
+
+            String packageName = app.componentName.getPackageName();
+            long key;
+            switch (sortMode) {
+                case SORT_MOST_USED:
+                    key = -usage.getCount(packageName);
+                    break;
+                case SORT_LAST_INSTALLED:
+                    key = -keys.getInstallTime(pm, packageName);
+                    break;
+                case SORT_BY_COLOR:
+                    key = keys.getColorKey(app.iconColor);
+                    break;
+                default:
+                    key = 0;
+                    break;
+            }
+            long userSerial = myUser.equals(app.user)
+                    ? Long.MIN_VALUE : userManager.getSerialNumberForUser(app.user);
+            entries[i] = new Entry(app, keys, key, userSerial);
+        }
+
+        boolean reverse = sortMode == SORT_ZA;
+        Arrays.sort(entries, (a, b) -> {
+            int result = Long.compare(a.key, b.key);
+            if (result != 0) {
+                return result;
+            }
+            return compareTitles(a, b, reverse);
+        });
+        for (int i = 0; i < entries.length; i++) {
+            apps.set(i, entries[i].app);
+        }
+    }
+
+    /**
+     * Compares the titles like {@link AppInfoComparator}. With {@param reverse} only the
+     * alphabetical order is reversed, titles which don't start with a letter or digit still go
+     * last.
+     */
+    private static int compareTitles(Entry a, Entry b, boolean reverse) {
+        if (a.keys.mStartsWithLetter != b.keys.mStartsWithLetter) {
+            return a.keys.mStartsWithLetter ? -1 : 1;
+        }
+        int result = a.keys.mTitleKey.compareTo(b.keys.mTitleKey);
+        if (result != 0) {
+            return reverse ? -result : result;
+        }
+        result = a.app.componentName.compareTo(b.app.componentName);
+        if (result != 0) {
+            return result;
+        }
+        return Long.compare(a.userSerial, b.userSerial);
+    }
+
+    private static class Entry {
+        final AppInfo app;
+        final AppSortKeys keys;
+        final long key;
+        final long userSerial;
+
+        Entry(AppInfo app, AppSortKeys keys, long key, long userSerial) {
+            this.app = app;
+            this.keys = keys;
+            this.key = key;
+            this.userSerial = userSerial;
+        }
+    }
+}
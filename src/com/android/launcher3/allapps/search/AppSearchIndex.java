@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.content.Context;
+
+import com.android.launcher3.AppFilter;
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.Utilities;
+import com.android.launcher3.allapps.AllAppsStore;
+import com.android.launcher3.util.ComponentKey;
+
+import org.zimmob.zimlx.allapps.FuzzyScorer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm.SEARCH_HIDDEN_APPS;
+
+/**
+ * Precomputed search data for all apps, kept up to date by {@link AllAppsStore}.
+ * <p>
+ * Titles are normalized and split at word breaks once when an app is added, so that a query only
+ * needs to compare the query against the precomputed word suffixes. When the query extends the
+ * previous one, only the previous matches are searched again. All methods must be called on the
+ * UI thread.
+ */
+public class AppSearchIndex {
+
+    /**
+     * Search data for a single app.
+     */
+    public static class Entry {
+        public final AppInfo app;
+        public final ComponentKey key;
+        public final String title;
+        public final String titleLower;
+        // Title as processed by the fuzzy search
+        public final String fuzzyTitle;
+
+        // Substrings of the title starting at each word break, and the same for the title
+        // with all diacritics removed.
+        final String[] wordSuffixes;
+        final String[] normalizedWordSuffixes;
+
+        Entry(AppInfo app) {
+            this.app = app;
+            key = app.toComponentKey();
+            title = app.title == null ? "" : app.title.toString();
+            titleLower = title.toLowerCase();
+            fuzzyTitle = FuzzyScorer.process(title);
+            wordSuffixes = getWordSuffixes(title);
+            normalizedWordSuffixes = getWordSuffixes(DefaultAppSearchAlgorithm.normalize(title));
+        }
+
+        boolean matches(PreparedQuery query, DefaultAppSearchAlgorithm.StringMatcher matcher) {
+            return matches(wordSuffixes, query.query, query.queryUpperBound, matcher)
+                    || matches(normalizedWordSuffixes, query.normalizedQuery,
+                    query.normalizedQueryUpperBound, matcher);
+        }
+
+        private static boolean matches(String[] suffixes, String query, String upperBound,
+                                       DefaultAppSearchAlgorithm.StringMatcher matcher) {
+            int queryLength = query.length();
+            for (String suffix : suffixes) {
+                if (suffix.length() >= queryLength
+                        && matcher.matchesPrefix(query, upperBound, suffix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String[] getWordSuffixes(String title) {
+            int length = title.length();
+            if (length == 0) {
+                return new String[0];
+            }
+            ArrayList<String> suffixes = new ArrayList<>();
+            int lastType;
+            int thisType = Character.UNASSIGNED;
+            int nextType = Character.getType(title.codePointAt(0));
+            for (int i = 0; i < length; i++) {
+                lastType = thisType;
+                thisType = nextType;
+                nextType = i < (length - 1) ?
+                        Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
+                if (DefaultAppSearchAlgorithm.isBreak(thisType, lastType, nextType)) {
+                    suffixes.add(title.substring(i));
+                }
+            }
+            return suffixes.toArray(new String[suffixes.size()]);
+        }
+    }
+
+    /**
+     * A query with everything that is needed for matching computed once.
+     */
+    private static class PreparedQuery {
+        final String query;
+        final String queryUpperBound;
+        final String normalizedQuery;
+        final String normalizedQueryUpperBound;
+
+        PreparedQuery(String query) {
+            this.query = query;
+            queryUpperBound = DefaultAppSearchAlgorithm.StringMatcher.upperBound(query);
+            normalizedQuery = DefaultAppSearchAlgorithm.normalize(query);
+            normalizedQueryUpperBound =
+                    DefaultAppSearchAlgorithm.StringMatcher.upperBound(normalizedQuery);
+        }
+    }
+
+    private final HashMap<ComponentKey, Entry> mEntries = new HashMap<>();
+    private final DefaultAppSearchAlgorithm.StringMatcher mMatcher =
+            DefaultAppSearchAlgorithm.StringMatcher.getInstance();
+
+    // All searchable entries, null if they need to be rebuilt.
+    private ArrayList<Entry> mSearchableEntries;
+    private boolean mSearchableIncludesHidden;
+    // The drawer's apps the searchable entries were built from, null when searching hidden apps.
+    private List<AppInfo> mSearchableSource;
+
+    // Results of the last query, which are reused if the next query extends it.
+    private String mLastQuery;
+    private ArrayList<Entry> mLastMatches;
+
+    public void setApps(Collection<AppInfo> apps) {
+        mEntries.clear();
+        addOrUpdateApps(apps);
+    }
+
+    public void addOrUpdateApps(Collection<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            Entry entry = new Entry(app);
+            mEntries.put(entry.key, entry);
+        }
+        invalidate();
+    }
+
+    public void removeApps(Collection<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            mEntries.remove(app.toComponentKey());
+        }
+        invalidate();
+    }
+
+    /**
+     * Drops all derived data. The hidden apps are enumerated again on the next query, as
+     * hiding or un-hiding an app also changes the visible apps.
+     */
+    public void invalidate() {
+        mSearchableEntries = null;
+        mLastQuery = null;
+        mLastMatches = null;
+    }
+
+    /**
+     * Returns all the entries which should be searched, in the order of {@param defaultApps},
+     * which are the apps shown in the drawer. If the user enabled searching hidden apps, all
+     * launchable apps are searched instead, see {@link DefaultAppSearchAlgorithm#getApps}.
+     */
+    public List<Entry> getSearchableEntries(Context context, AppFilter filter,
+                                            List<AppInfo> defaultApps) {
+        boolean includeHidden = Utilities.getPrefs(context).getBoolean(SEARCH_HIDDEN_APPS, false);
+        if (mSearchableEntries == null || mSearchableIncludesHidden != includeHidden
+                || (!includeHidden && !defaultApps.equals(mSearchableSource))) {
+            List<AppInfo> apps = DefaultAppSearchAlgorithm.getApps(context, defaultApps, filter);
+            ArrayList<Entry> entries = new ArrayList<>(apps.size());
+            for (AppInfo app : apps) {
+                Entry entry = mEntries.get(app.toComponentKey());
+                entries.add(entry != null ? entry : new Entry(app));
+            }
+            mSearchableEntries = entries;
+            mSearchableIncludesHidden = includeHidden;
+            // The drawer sorts its list in place, so remember its order at this point
+            mSearchableSource = includeHidden ? null : new ArrayList<>(defaultApps);
+            mLastQuery = null;
+            mLastMatches = null;
+        }
+        return mSearchableEntries;
+    }
+
+    /**
+     * Returns all apps which have a word starting with {@param query}, using the same rules as
+     * {@link DefaultAppSearchAlgorithm#matches}, in the order of {@link #getSearchableEntries}.
+     */
+    public ArrayList<ComponentKey> query(Context context, AppFilter filter,
+                                         List<AppInfo> defaultApps, String query) {
+        List<Entry> candidates = getSearchableEntries(context, filter, defaultApps);
+        String queryLower = query.toLowerCase();
+        if (mLastQuery != null && mLastMatches != null && queryLower.startsWith(mLastQuery)) {
+            // Anything matching the new query also matched the shorter one.
+            candidates = mLastMatches;
+        }
+
+        PreparedQuery prepared = new PreparedQuery(queryLower);
+        ArrayList<Entry> matches = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Entry entry = candidates.get(i);
+            if (entry.matches(prepared, mMatcher)) {
+                matches.add(entry);
+            }
+        }
+        mLastQuery = queryLower;
+        mLastMatches = matches;
+
+        ArrayList<ComponentKey> result = new ArrayList<>(matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            result.add(matches.get(i).key);
+        }
+        return result;
+    }
+}
@@ -145,7 +145,8 @@ public class AppsSearchContainerLayout extends ExtendedEditText
         mApps = appsView.getApps();
         mAppsView = appsView;
         mSearchBarController.initialize(
-                new FuzzyAppSearchAlgorithm(getContext(), mApps.getApps()), this, mLauncher, this);
+                new FuzzyAppSearchAlgorithm(getContext(), appsView.getAppsStore().getSearchIndex(),
+                        mApps.getApps()), this, mLauncher, this);
     }
 
 
@@ -34,12 +34,18 @@ import org.zimmob.zimlx.ZimAppFilter;
 import org.zimmob.zimlx.globalsearch.SearchProvider;
 import org.zimmob.zimlx.globalsearch.SearchProviderController;
 import org.zimmob.zimlx.globalsearch.providers.web.WebSearchProvider;
+import org.zimmob.zimlx.globalsearch.providers.web.WebSuggestionsLoader;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
 
 import java.text.Collator;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -50,22 +56,27 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
     public final static String SEARCH_HIDDEN_APPS = "pref_search_hidden_apps";
     private final static Pattern complementaryGlyphs = Pattern.compile("\\p{M}");
     private final Context mContext;
+    private final AppSearchIndex mIndex;
     private final List<AppInfo> mApps;
     protected final Handler mResultHandler;
 
     private final AppFilter mBaseFilter;
+    private final WebSuggestionsLoader mSuggestionsLoader;
 
-    public DefaultAppSearchAlgorithm(Context context, List<AppInfo> apps) {
+    public DefaultAppSearchAlgorithm(Context context, AppSearchIndex index, List<AppInfo> apps) {
         mContext = context;
+        mIndex = index;
         mApps = apps;
         mResultHandler = new Handler();
         mBaseFilter = new ZimAppFilter(context);
+        mSuggestionsLoader = WebSuggestionsLoader.Companion.getInstance(context);
     }
 
     @Override
     public void cancel(boolean interruptActiveRequests) {
         if (interruptActiveRequests) {
             mResultHandler.removeCallbacksAndMessages(null);
+            mSuggestionsLoader.cancel();
         }
     }
 
@@ -73,7 +84,11 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
     public void doSearch(final String query,
                          final AllAppsSearchBarController.Callbacks callback) {
         final ArrayList<ComponentKey> result = getTitleMatchResult(query);
-        final List<String> suggestions = getSuggestions(query);
+        // The apps are sent right away, the suggestions follow once they are loaded
+        final List<String> suggestions = getSuggestions(query, loaded -> {
+            callback.onSearchResult(query, null, loaded);
+            return Unit.INSTANCE;
+        });
         mResultHandler.post(new Runnable() {
 
             @Override
@@ -83,26 +98,23 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
         });
     }
     private ArrayList<ComponentKey> getTitleMatchResult(String query) {
-        // Do an intersection of the words in the query and each title, and filter out all the
-        // apps that don't match all of the words in the query.
-        final String queryTextLower = query.toLowerCase();
-        final ArrayList<ComponentKey> result = new ArrayList<>();
-        StringMatcher matcher = StringMatcher.getInstance();
-        for (AppInfo info : getApps(mContext, mApps, mBaseFilter)) {
-            if (matches(info, queryTextLower, matcher)) {
-                result.add(info.toComponentKey());
-            }
-        }
-        return result;
+        return mIndex.query(mContext, mBaseFilter, mApps, query);
     }
 
-    private List<String> getSuggestions(String query) {
+    /**
+     * Returns the suggestions for {@param query} which are known right away, or null. The
+     * loaded suggestions are sent to {@param callback} later.
+     */
+    private List<String> getSuggestions(String query, Function1<List<String>, Unit> callback) {
         SearchProvider provider = SearchProviderController.Companion
                 .getInstance(mContext).getSearchProvider();
-        if (provider instanceof WebSearchProvider) {
-            return ((WebSearchProvider) provider).getSuggestions(query);
+        String suggestionsUrl = provider instanceof WebSearchProvider
+                ? ((WebSearchProvider) provider).getSuggestionsUrl() : null;
+        if (suggestionsUrl == null) {
+            mSuggestionsLoader.cancel();
+            return Collections.emptyList();
         }
-        return Collections.emptyList();
+        return mSuggestionsLoader.load(suggestionsUrl, query, callback);
     }
 
     public static List<AppInfo> getApps(Context context, List<AppInfo> defaultApps, AppFilter filter) {
@@ -112,19 +124,19 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
         final List<AppInfo> apps = new ArrayList<>();
         final IconCache iconCache = LauncherAppState.getInstance(context).getIconCache();
         for (UserHandle user : UserManagerCompat.getInstance(context).getUserProfiles()) {
-            final List<ComponentName> duplicatePreventionCache = new ArrayList<>();
+            final Set<ComponentName> duplicatePreventionCache = new HashSet<>();
             for (LauncherActivityInfo info : LauncherAppsCompat.getInstance(context).getActivityList(null, user)) {
                 if (!filter.shouldShowApp(info.getComponentName(), user)) {
                     continue;
                 }
                 if (!duplicatePreventionCache.contains(info.getComponentName())) {
                     duplicatePreventionCache.add(info.getComponentName());
-                    final AppInfo appInfo = new AppInfo(context, info, user);
-                    iconCache.getTitleAndIcon(appInfo, false);
-                    apps.add(appInfo);
+                    apps.add(new AppInfo(context, info, user));
                 }
             }
         }
+        // Load all the icons from the DB at once.
+        iconCache.getTitleAndIcon(apps, false);
         return apps;
     }
 
@@ -165,7 +177,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
         return false;
     }
 
-    private static String normalize(String in) {
+    static String normalize(String in) {
         return complementaryGlyphs.matcher(Normalizer.normalize(in, Normalizer.Form.NFKD)).replaceAll("");
     }
 
@@ -177,7 +189,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
      *      3) Any capital character after a digit or small character
      *      4) Any capital character before a small character
      */
-    private static boolean isBreak(int thisType, int prevType, int nextType) {
+    static boolean isBreak(int thisType, int prevType, int nextType) {
         switch (prevType) {
             case Character.UNASSIGNED:
             case Character.SPACE_SEPARATOR:
@@ -248,6 +260,30 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
             }
         }
 
+        /**
+         * Returns true if {@param query} is a prefix of {@param target}, same as {@link #matches}
+         * but {@param target} may be longer than the query.
+         *
+         * @param queryUpperBound the {@link #upperBound} of {@param query}
+         */
+        public boolean matchesPrefix(String query, String queryUpperBound, String target) {
+            int result = mCollator.compare(query, target);
+            if (result == 0) {
+                return true;
+            } else if (result < 0) {
+                return mCollator.compare(queryUpperBound, target) > -1;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * Returns a string which sorts after all strings starting with {@param query}.
+         */
+        public static String upperBound(String query) {
+            return query + MAX_UNICODE;
+        }
+
         public static StringMatcher getInstance() {
             return new StringMatcher();
         }
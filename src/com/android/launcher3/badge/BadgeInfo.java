@@ -22,6 +22,7 @@ import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
+import android.util.ArrayMap;
 
 import com.android.launcher3.notification.NotificationInfo;
 import com.android.launcher3.notification.NotificationKeyData;
@@ -50,6 +51,11 @@ public class BadgeInfo {
      */
     private List<NotificationKeyData> mNotificationKeys;
 
+    /**
+     * {@link #mNotificationKeys} by their key, so that updates and removals don't search the list.
+     */
+    private final ArrayMap<String, NotificationKeyData> mNotificationKeysByKey = new ArrayMap<>();
+
     /**
      * The current sum of the counts in {@link #mNotificationKeys},
      * updated whenever a key is added or removed.
@@ -76,9 +82,7 @@ public class BadgeInfo {
      * Returns whether the notification was added or its count changed.
      */
     public boolean addOrUpdateNotificationKey(NotificationKeyData notificationKey) {
-        int indexOfPrevKey = mNotificationKeys.indexOf(notificationKey);
-        NotificationKeyData prevKey = indexOfPrevKey == -1 ? null
-                : mNotificationKeys.get(indexOfPrevKey);
+        NotificationKeyData prevKey = mNotificationKeysByKey.get(notificationKey.notificationKey);
         if (prevKey != null) {
             if (prevKey.count == notificationKey.count) {
                 return false;
@@ -89,22 +93,24 @@ public class BadgeInfo {
             prevKey.count = notificationKey.count;
             return true;
         }
-        boolean added = mNotificationKeys.add(notificationKey);
-        if (added) {
-            mTotalCount += notificationKey.count;
-        }
-        return added;
+        mNotificationKeys.add(notificationKey);
+        mNotificationKeysByKey.put(notificationKey.notificationKey, notificationKey);
+        mTotalCount += notificationKey.count;
+        return true;
     }
 
     /**
      * Returns whether the notification was removed (false if it didn't exist).
      */
     public boolean removeNotificationKey(NotificationKeyData notificationKey) {
-        boolean removed = mNotificationKeys.remove(notificationKey);
-        if (removed) {
-            mTotalCount -= notificationKey.count;
+        NotificationKeyData prevKey =
+                mNotificationKeysByKey.remove(notificationKey.notificationKey);
+        if (prevKey == null) {
+            return false;
         }
-        return removed;
+        mNotificationKeys.remove(prevKey);
+        mTotalCount -= prevKey.count;
+        return true;
     }
 
     public List<NotificationKeyData> getNotificationKeys() {
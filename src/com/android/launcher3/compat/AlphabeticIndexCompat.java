@@ -2,6 +2,7 @@ package com.android.launcher3.compat;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.icu.text.AlphabeticIndex;
 import android.os.Build;
 import android.os.LocaleList;
@@ -20,18 +21,25 @@ public class AlphabeticIndexCompat {
     private final String mDefaultMiscLabel;
 
     public AlphabeticIndexCompat(Context context) {
+        this(context.getResources().getConfiguration());
+    }
+
+    /**
+     * Creates an index for the locales of {@param config}, without needing a context.
+     */
+    public AlphabeticIndexCompat(Configuration config) {
         BaseIndex index = null;
 
         try {
             if (Utilities.ATLEAST_NOUGAT) {
-                index = new AlphabeticIndexVN(context);
+                index = new AlphabeticIndexVN(config);
             }
         } catch (Exception e) {
             Log.d(TAG, "Unable to load the system index", e);
         }
         if (index == null) {
             try {
-                index = new AlphabeticIndexV16(context);
+                index = new AlphabeticIndexV16(config);
             } catch (Exception e) {
                 Log.d(TAG, "Unable to load the system index", e);
             }
@@ -39,8 +47,7 @@ public class AlphabeticIndexCompat {
 
         mBaseIndex = index == null ? new BaseIndex() : index;
 
-        if (context.getResources().getConfiguration().locale
-                .getLanguage().equals(Locale.JAPANESE.getLanguage())) {
+        if (config.locale.getLanguage().equals(Locale.JAPANESE.getLanguage())) {
             // Japanese character 他 ("misc")
             mDefaultMiscLabel = "\u4ed6";
             // TODO(winsonc, omakoto): We need to handle Japanese sections better, especially the kanji
@@ -118,8 +125,8 @@ public class AlphabeticIndexCompat {
         private Method mGetBucketIndexMethod;
         private Method mGetBucketLabelMethod;
 
-        public AlphabeticIndexV16(Context context) throws Exception {
-            Locale curLocale = context.getResources().getConfiguration().locale;
+        public AlphabeticIndexV16(Configuration config) throws Exception {
+            Locale curLocale = config.locale;
             Class clazz = Class.forName("libcore.icu.AlphabeticIndex");
             mGetBucketIndexMethod = clazz.getDeclaredMethod("getBucketIndex", String.class);
             mGetBucketLabelMethod = clazz.getDeclaredMethod("getBucketLabel", int.class);
@@ -166,8 +173,8 @@ public class AlphabeticIndexCompat {
 
         private final AlphabeticIndex.ImmutableIndex mAlphabeticIndex;
 
-        public AlphabeticIndexVN(Context context) {
-            LocaleList locales = context.getResources().getConfiguration().getLocales();
+        public AlphabeticIndexVN(Configuration config) {
+            LocaleList locales = config.getLocales();
             int localeCount = locales.size();
 
             Locale primaryLocale = localeCount == 0 ? Locale.ENGLISH : locales.get(0);
@@ -56,4 +56,7 @@ public abstract class BaseFlags {
     // When true, custom widgets are loaded using CustomWidgetParser.
     public static final boolean ENABLE_CUSTOM_WIDGETS = true;
 
+    // When true, the loader queries apps, deep shortcuts and widgets concurrently.
+    public static final boolean LAUNCHER3_PARALLEL_LOADER = true;
+
 }
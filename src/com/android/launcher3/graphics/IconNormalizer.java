@@ -616,4 +616,25 @@ public class IconNormalizer {
         float area = size * size * MAX_CIRCLE_AREA_FACTOR;
         return (int) Math.round(Math.sqrt((4 * area) / Math.PI));
     }
+
+    /**
+     * Result of {@link #getScale} for a drawable. It only depends on the pixels of the drawable
+     * and the mask path, so it can be stored and reused as long as both are unchanged.
+     */
+    public static class Normalization {
+        public float scale = SCALE_NOT_INITIALIZED;
+        // Fraction distance of the visible icon from each edge
+        public final RectF bounds = new RectF();
+        public boolean isMaskShape;
+
+        public boolean isValid() {
+            return scale != SCALE_NOT_INITIALIZED;
+        }
+
+        public void set(float scale, RectF bounds, boolean isMaskShape) {
+            this.scale = scale;
+            this.bounds.set(bounds);
+            this.isMaskShape = isMaskShape;
+        }
+    }
 }
@@ -43,12 +43,17 @@ import com.android.launcher3.ItemInfoWithIcon;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.R;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.graphics.IconNormalizer.Normalization;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.Themes;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import androidx.annotation.Nullable;
 
 import static android.graphics.Paint.DITHER_FLAG;
@@ -62,6 +67,9 @@ public class LauncherIcons implements AutoCloseable {
 
     private static final int DEFAULT_WRAPPER_BACKGROUND = Color.WHITE;
 
+    // Maximum number of threads rendering a batch of icons, including the calling thread
+    private static final int MAX_RENDER_THREADS = 4;
+
     public static final Object sPoolSync = new Object();
     private static LauncherIcons sPool;
 
@@ -75,6 +83,8 @@ public class LauncherIcons implements AutoCloseable {
 
     private IconNormalizer mNormalizer;
     private ShadowGenerator mShadowGenerator;
+    // Adaptive icons are drawn into this before adding their shadow
+    private Bitmap mShadowSource;
 
     private Drawable mWrapperIcon;
     private int mWrapperBackgroundColor = DEFAULT_WRAPPER_BACKGROUND;
@@ -98,6 +108,64 @@ public class LauncherIcons implements AutoCloseable {
         return new LauncherIcons(context);
     }
 
+    /**
+     * Same as {@link #createBadgedIconBitmap(Drawable, UserHandle, int)} for all {@param icons},
+     * rendered in parallel on up to {@link #MAX_RENDER_THREADS} threads including the calling one.
+     * Every thread uses its own instance, so the icons don't wait on a shared normalizer or
+     * shadow generator. The icons must be distinct drawable instances.
+     *
+     * @param normalizations optional normalization of each icon, see
+     *                       {@link #createBadgedIconBitmap(Drawable, UserHandle, int, boolean,
+     *                       Normalization)}
+     * @return the icons in the same order, or null for icons which failed to render
+     */
+    public static BitmapInfo[] createBadgedIconBitmaps(Context context, List<Drawable> icons,
+                                                       int[] iconAppTargetSdks,
+                                                       @Nullable Normalization[] normalizations,
+                                                       UserHandle user) {
+        final BitmapInfo[] results = new BitmapInfo[icons.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final Runnable renderer = () -> {
+            try (LauncherIcons li = obtain(context)) {
+                int i;
+                while ((i = next.getAndIncrement()) < results.length) {
+                    results[i] = li.createBadgedIconBitmap(icons.get(i), user,
+                            iconAppTargetSdks[i], false,
+                            normalizations != null ? normalizations[i] : null);
+                }
+            }
+        };
+
+        int helpers = Math.min(Math.min(Runtime.getRuntime().availableProcessors(),
+                MAX_RENDER_THREADS), results.length) - 1;
+        final CountDownLatch helpersDone = new CountDownLatch(Math.max(helpers, 0));
+        for (int i = 0; i < helpers; i++) {
+            Utilities.THREAD_POOL_EXECUTOR.execute(() -> {
+                try {
+                    renderer.run();
+                } finally {
+                    helpersDone.countDown();
+                }
+            });
+        }
+        // Render on this thread too, so that the batch completes even if the pool is busy
+        renderer.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                helpersDone.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
     /**
      * Recycles a LauncherIcons that may be in-use.
      */
@@ -190,14 +258,37 @@ public class LauncherIcons implements AutoCloseable {
      */
     public BitmapInfo createBadgedIconBitmap(Drawable icon, UserHandle user, int iconAppTargetSdk,
                                              boolean isInstantApp) {
+        return createBadgedIconBitmap(icon, user, iconAppTargetSdk, isInstantApp, null);
+    }
+
+    /**
+     * @param normalization if valid, it is used instead of scanning the pixels of {@param icon}.
+     *                      Otherwise it receives the computed normalization, so that the caller
+     *                      can store it for the next time the same icon is rendered.
+     */
+    public BitmapInfo createBadgedIconBitmap(Drawable icon, UserHandle user, int iconAppTargetSdk,
+                                             boolean isInstantApp,
+                                             @Nullable Normalization normalization) {
 
         float[] scale = new float[1];
-        icon = normalizeAndWrapToAdaptiveIcon(icon, iconAppTargetSdk, null, scale, user);
-        Bitmap bitmap = createIconBitmap(icon, scale[0]);
+        icon = normalizeAndWrapToAdaptiveIcon(icon, iconAppTargetSdk, null, scale, user,
+                normalization);
+        Bitmap bitmap;
         if (Utilities.ATLEAST_OREO && icon instanceof AdaptiveIconDrawable) {
+            if (mShadowSource == null) {
+                mShadowSource = Bitmap.createBitmap(mIconBitmapSize, mIconBitmapSize,
+                        Bitmap.Config.ARGB_8888);
+            } else {
+                mShadowSource.eraseColor(Color.TRANSPARENT);
+            }
+            drawIconBitmap(icon, scale[0], mShadowSource);
+            bitmap = Bitmap.createBitmap(mIconBitmapSize, mIconBitmapSize,
+                    Bitmap.Config.ARGB_8888);
             mCanvas.setBitmap(bitmap);
-            getShadowGenerator().recreateIcon(Bitmap.createBitmap(bitmap), mCanvas);
+            getShadowGenerator().recreateIcon(mShadowSource, mCanvas);
             mCanvas.setBitmap(null);
+        } else {
+            bitmap = createIconBitmap(icon, scale[0]);
         }
 
         final Bitmap result;
@@ -225,7 +316,8 @@ public class LauncherIcons implements AutoCloseable {
     public Bitmap createScaledBitmapWithoutShadow(Drawable icon, int iconAppTargetSdk) {
         RectF iconBounds = new RectF();
         float[] scale = new float[1];
-        icon = normalizeAndWrapToAdaptiveIcon(icon, iconAppTargetSdk, iconBounds, scale, null);
+        icon = normalizeAndWrapToAdaptiveIcon(icon, iconAppTargetSdk, iconBounds, scale, null,
+                null);
         return createIconBitmap(icon,
                 Math.min(scale[0], ShadowGenerator.getScaleForBounds(iconBounds)));
     }
@@ -238,11 +330,20 @@ public class LauncherIcons implements AutoCloseable {
     }
 
     private Drawable normalizeAndWrapToAdaptiveIcon(Drawable mIcon, int iconAppTargetSdk,
-                                                    RectF outIconBounds, float[] outScale, UserHandle user) {
+                                                    RectF outIconBounds, float[] outScale, UserHandle user,
+                                                    @Nullable Normalization normalization) {
         float scale = 1f;
         Drawable icon = mIcon;
-        if (Utilities.ATLEAST_OREO) {
+        if (Utilities.ATLEAST_OREO && normalization != null && normalization.isValid()) {
+            scale = normalization.scale;
+            if (outIconBounds != null) {
+                outIconBounds.set(normalization.bounds);
+            }
+        } else if (Utilities.ATLEAST_OREO) {
             boolean[] outShape = new boolean[1];
+            if (normalization != null && outIconBounds == null) {
+                outIconBounds = new RectF();
+            }
             if (mWrapperIcon == null) {
                 mWrapperIcon = mContext.getDrawable(R.drawable.adaptive_icon_drawable_wrapper)
                         .mutate();
@@ -250,6 +351,9 @@ public class LauncherIcons implements AutoCloseable {
             AdaptiveIconDrawable dr = (AdaptiveIconDrawable) mWrapperIcon;
             dr.setBounds(0, 0, 1, 1);
             scale = getNormalizer().getScale(icon, outIconBounds, dr.getIconMask(), outShape);
+            if (normalization != null) {
+                normalization.set(scale, outIconBounds, outShape[0]);
+            }
             /*if (!outShape[0] && (icon instanceof NonAdaptiveIconDrawable)) {
                 FixedScaleDrawable fsd = ((FixedScaleDrawable) dr.getForeground());
                 fsd.setDrawable(icon);
@@ -292,6 +396,16 @@ public class LauncherIcons implements AutoCloseable {
      * @param scale the scale to apply before drawing {@param icon} on the canvas
      */
     public Bitmap createIconBitmap(Drawable icon, float scale) {
+        Bitmap bitmap = Bitmap.createBitmap(mIconBitmapSize, mIconBitmapSize,
+                Bitmap.Config.ARGB_8888);
+        drawIconBitmap(icon, scale, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Draws {@param icon} into {@param bitmap}, which is of the icon bitmap size
+     */
+    private void drawIconBitmap(Drawable icon, float scale, Bitmap bitmap) {
         int width = mIconBitmapSize;
         int height = mIconBitmapSize;
 
@@ -323,8 +437,6 @@ public class LauncherIcons implements AutoCloseable {
         int textureWidth = mIconBitmapSize;
         int textureHeight = mIconBitmapSize;
 
-        Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
-                Bitmap.Config.ARGB_8888);
         mCanvas.setBitmap(bitmap);
 
         final int left = (textureWidth - width) / 2;
@@ -344,8 +456,6 @@ public class LauncherIcons implements AutoCloseable {
         mCanvas.restore();
         icon.setBounds(mOldBounds);
         mCanvas.setBitmap(null);
-
-        return bitmap;
     }
 
     public BitmapInfo createShortcutIcon(ShortcutInfoCompat shortcutInfo) {
@@ -34,6 +34,11 @@ import androidx.core.graphics.ColorUtils;
 
 /**
  * Utility class to add shadows to bitmaps.
+ *
+ * With the default blur, the alpha and shadow of icons up to the icon size are drawn into buffers
+ * which are reused for the next icon. Each thread should use its own instance, like the one of
+ * {@link LauncherIcons}, and draw the canvas passed to {@link #recreateIcon(Bitmap, Canvas)}
+ * before recreating the next icon.
  */
 public class ShadowGenerator {
 
@@ -54,6 +59,14 @@ public class ShadowGenerator {
     private final Paint mDrawPaint;
     private final BlurMaskFilter mDefaultBlurMaskFilter;
 
+    // Space around the shadow buffer for the default blur to spread into
+    private final int mShadowPadding;
+    private final int[] mShadowOffset = new int[2];
+    private Bitmap mAlphaBuffer;
+    private Canvas mAlphaCanvas;
+    private Bitmap mShadowBuffer;
+    private Canvas mShadowCanvas;
+
     private static final Object LOCK = new Object();
     // Singleton object guarded by {@link #LOCK}
     private static ShadowGenerator sShadowGenerator;
@@ -64,6 +77,8 @@ public class ShadowGenerator {
         mBlurPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
         mDrawPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
         mDefaultBlurMaskFilter = new BlurMaskFilter(mIconSize * BLUR_FACTOR, Blur.NORMAL);
+        // The blur spreads about 1.7 times its radius, leave some room for rounding
+        mShadowPadding = (int) Math.ceil(2 * mIconSize * BLUR_FACTOR) + 2;
     }
 
     public static ShadowGenerator getInstance(Context context) {
@@ -84,9 +99,8 @@ public class ShadowGenerator {
 
     public synchronized void recreateIcon(Bitmap icon, BlurMaskFilter blurMaskFilter,
                                           int ambientAlpha, int keyAlpha, Canvas out) {
-        int[] offset = new int[2];
-        mBlurPaint.setMaskFilter(blurMaskFilter);
-        Bitmap shadow = icon.extractAlpha(mBlurPaint, offset);
+        int[] offset = mShadowOffset;
+        Bitmap shadow = extractShadow(icon, blurMaskFilter, offset);
 
         // Draw ambient shadow
         mDrawPaint.setAlpha(ambientAlpha);
@@ -105,10 +119,8 @@ public class ShadowGenerator {
                                             BlurMaskFilter blurMaskFilter, int ambientAlpha, int keyAlpha) {
         int width = resize ? mIconSize : icon.getWidth();
         int height = resize ? mIconSize : icon.getHeight();
-        int[] offset = new int[2];
-
-        mBlurPaint.setMaskFilter(blurMaskFilter);
-        Bitmap shadow = icon.extractAlpha(mBlurPaint, offset);
+        int[] offset = mShadowOffset;
+        Bitmap shadow = extractShadow(icon, blurMaskFilter, offset);
         Bitmap result = Bitmap.createBitmap(width, height, Config.ARGB_8888);
         mCanvas.setBitmap(result);
 
@@ -127,6 +139,33 @@ public class ShadowGenerator {
         mCanvas.setBitmap(null);
         return result;
     }
+
+    /**
+     * Returns the blurred alpha of {@param icon} and its offset to the icon. With the default blur
+     * the returned bitmap is a buffer which is overwritten by the next call.
+     */
+    private Bitmap extractShadow(Bitmap icon, BlurMaskFilter blurMaskFilter, int[] outOffset) {
+        if (blurMaskFilter != mDefaultBlurMaskFilter
+                || icon.getWidth() > mIconSize || icon.getHeight() > mIconSize) {
+            mBlurPaint.setMaskFilter(blurMaskFilter);
+            return icon.extractAlpha(mBlurPaint, outOffset);
+        }
+        if (mShadowBuffer == null) {
+            mAlphaBuffer = Bitmap.createBitmap(mIconSize, mIconSize, Config.ALPHA_8);
+            mAlphaCanvas = new Canvas(mAlphaBuffer);
+            int shadowSize = mIconSize + 2 * mShadowPadding;
+            mShadowBuffer = Bitmap.createBitmap(shadowSize, shadowSize, Config.ALPHA_8);
+            mShadowCanvas = new Canvas(mShadowBuffer);
+        }
+        // Copy the alpha of the icon, then blur it like extractAlpha does when drawing it as a mask
+        mAlphaBuffer.eraseColor(Color.TRANSPARENT);
+        mAlphaCanvas.drawBitmap(icon, 0, 0, null);
+        mShadowBuffer.eraseColor(Color.TRANSPARENT);
+        mBlurPaint.setMaskFilter(mDefaultBlurMaskFilter);
+        mShadowCanvas.drawBitmap(mAlphaBuffer, mShadowPadding, mShadowPadding, mBlurPaint);
+        outOffset[0] = outOffset[1] = -mShadowPadding;
+        return mShadowBuffer;
+    }
     /**
      * Returns the minimum amount by which an icon with {@param bounds} should be scaled
      * so that the shadows do not get clipped.
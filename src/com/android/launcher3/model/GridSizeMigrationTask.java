@@ -10,6 +10,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
@@ -32,8 +33,10 @@ import com.android.launcher3.util.LongArrayMap;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class takes care of shrinking the workspace (by maximum of one row and one column), as a
@@ -57,6 +60,10 @@ public class GridSizeMigrationTask {
     private static final float WT_WIDGET_FACTOR = 0.6f;
     private static final float WT_FOLDER_FACTOR = 0.5f;
 
+    // Limits of each placement search, after which the best placement found so far is used
+    private static final int DEFAULT_SOLVER_MAX_NODES = 20000;
+    private static final long DEFAULT_SOLVER_MAX_MILLIS = 50;
+
     private final Context mContext;
     private final InvariantDeviceProfile mIdp;
 
@@ -73,6 +80,9 @@ public class GridSizeMigrationTask {
     private final int mSrcHotseatSize;
     private final int mDestHotseatSize;
 
+    private int mSolverMaxNodes = DEFAULT_SOLVER_MAX_NODES;
+    private long mSolverMaxMillis = DEFAULT_SOLVER_MAX_MILLIS;
+
     protected GridSizeMigrationTask(Context context, InvariantDeviceProfile idp,
                                     HashSet<String> validPackages, Point sourceSize, Point targetSize) {
         mContext = context;
@@ -108,6 +118,15 @@ public class GridSizeMigrationTask {
         mShouldRemoveX = mShouldRemoveY = false;
     }
 
+    /**
+     * Sets the number of steps and the time after which a placement search stops and uses the
+     * best placement found so far.
+     */
+    protected void setSolverBudget(int maxNodes, long maxMillis) {
+        mSolverMaxNodes = maxNodes;
+        mSolverMaxMillis = maxMillis;
+    }
+
     /**
      * Applied all the pending DB operations
      * @return true if any DB operation was commited.
@@ -405,6 +424,15 @@ public class GridSizeMigrationTask {
         return finalItems;
     }
 
+    /**
+     * Finds the placement of a set of items with the lowest weight loss, and then the lowest move
+     * cost, using a depth first search.
+     *
+     * The search starts from a greedy placement, so most branches are cut early, and skips any
+     * state of the grid which was already reached at the same item with lower costs. It stops
+     * once the budget set by {@link #setSolverBudget(int, long)} is used up, in which case the
+     * best placement found until then is used.
+     */
     private class OptimalPlacementSolution {
         private final ArrayList<DbEntry> itemsToPlace;
         private final GridOccupancy occupied;
@@ -416,6 +444,17 @@ public class GridSizeMigrationTask {
         // The first row in the grid from where the placement should start.
         private final int startY;
 
+        // Whether each item is placed in the current branch of the search
+        private final boolean[] placed;
+        // The position and span of each item in the best placement, or null if it isn't placed
+        private final Rect[] bestPlacement;
+        // The lowest costs with which each state of the grid was reached, by item index
+        private final ArrayList<HashMap<GridOccupancy, float[]>> visitedStates;
+
+        private int nodeCount;
+        private long deadline;
+        private boolean budgetExceeded;
+
         float lowestWeightLoss = Float.MAX_VALUE;
         float lowestMoveCost = Float.MAX_VALUE;
         ArrayList<DbEntry> finalPlacedItems;
@@ -434,10 +473,99 @@ public class GridSizeMigrationTask {
 
             // Sort the items such that larger widgets appear first followed by 1x1 items
             Collections.sort(this.itemsToPlace);
+
+            int count = itemsToPlace.size();
+            placed = new boolean[count];
+            bestPlacement = new Rect[count];
+            visitedStates = new ArrayList<>(Collections.nCopies(count,
+                    (HashMap<GridOccupancy, float[]>) null));
         }
 
         public void find() {
-            find(0, 0, 0, new ArrayList<DbEntry>());
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mSolverMaxMillis);
+            placeGreedily();
+            find(0, 0, 0);
+
+            finalPlacedItems = new ArrayList<>();
+            for (int i = 0; i < itemsToPlace.size(); i++) {
+                Rect r = bestPlacement[i];
+                if (r != null) {
+                    DbEntry item = itemsToPlace.get(i).copy();
+                    item.cellX = r.left;
+                    item.cellY = r.top;
+                    item.spanX = r.width();
+                    item.spanY = r.height();
+                    finalPlacedItems.add(item);
+                }
+            }
+            if (DEBUG && budgetExceeded) {
+                Log.d(TAG, "Placement search stopped after " + nodeCount + " steps");
+            }
+        }
+
+        /**
+         * Places every item at the nearest position where it fits, shrinking widgets if needed,
+         * and uses that as the initial best placement.
+         */
+        private void placeGreedily() {
+            GridOccupancy grid = new GridOccupancy(mTrgX, mTrgY);
+            occupied.copyTo(grid);
+            int[] position = new int[2];
+            float weightLoss = 0;
+            float moveCost = 0;
+            for (int i = 0; i < itemsToPlace.size(); i++) {
+                DbEntry me = itemsToPlace.get(i);
+                boolean found = false;
+                // Bit 0 shrinks the width, bit 1 the height, at 1 move cost each
+                for (int shrink = 0; shrink < 4 && !found; shrink++) {
+                    boolean shrinkX = (shrink & 1) != 0;
+                    boolean shrinkY = (shrink & 2) != 0;
+                    if ((shrinkX && me.spanX <= me.minSpanX)
+                            || (shrinkY && me.spanY <= me.minSpanY)) {
+                        continue;
+                    }
+                    int spanX = shrinkX ? me.spanX - 1 : me.spanX;
+                    int spanY = shrinkY ? me.spanY - 1 : me.spanY;
+                    if (findNearestVacant(grid, me, spanX, spanY, position)) {
+                        found = true;
+                        moveCost += Integer.bitCount(shrink);
+                        if (!ignoreMove) {
+                            if (position[0] != me.cellX) moveCost++;
+                            if (position[1] != me.cellY) moveCost++;
+                        }
+                        bestPlacement[i] = new Rect(position[0], position[1],
+                                position[0] + spanX, position[1] + spanY);
+                        grid.markCells(bestPlacement[i], true);
+                    }
+                }
+                if (!found) {
+                    weightLoss += me.weight;
+                }
+            }
+            lowestWeightLoss = weightLoss;
+            lowestMoveCost = moveCost;
+        }
+
+        /**
+         * Finds the vacant position closest to the item, or the first one if moves are ignored.
+         */
+        private boolean findNearestVacant(GridOccupancy grid, DbEntry me, int spanX, int spanY,
+                                          int[] out) {
+            int bestDistance = Integer.MAX_VALUE;
+            for (int y = startY; y + spanY <= mTrgY; y++) {
+                for (int x = 0; x + spanX <= mTrgX; x++) {
+                    if (grid.isRegionVacant(x, y, spanX, spanY)) {
+                        int distance = ignoreMove ? 0 :
+                                ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
+                        if (distance < bestDistance) {
+                            bestDistance = distance;
+                            out[0] = x;
+                            out[1] = y;
+                        }
+                    }
+                }
+            }
+            return bestDistance != Integer.MAX_VALUE;
         }
 
         /**
@@ -446,11 +574,9 @@ public class GridSizeMigrationTask {
          * @param index       the position in {@link #itemsToPlace} to start looking at.
          * @param weightLoss  total weight loss upto this point
          * @param moveCost    total move cost upto this point
-         * @param itemsPlaced all the items already placed upto this point
          */
-        public void find(int index, float weightLoss, float moveCost,
-                         ArrayList<DbEntry> itemsPlaced) {
-            if ((weightLoss >= lowestWeightLoss) ||
+        private void find(int index, float weightLoss, float moveCost) {
+            if (budgetExceeded || (weightLoss > lowestWeightLoss) ||
                     ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
                 // Abort, as we already have a better solution.
                 return;
@@ -459,9 +585,18 @@ public class GridSizeMigrationTask {
                 // End loop.
                 lowestWeightLoss = weightLoss;
                 lowestMoveCost = moveCost;
+                for (int i = 0; i < placed.length; i++) {
+                    bestPlacement[i] = placed[i] ? getRect(itemsToPlace.get(i)) : null;
+                }
+                return;
+            }
 
-                // Keep a deep copy of current configuration as it can change during recursion.
-                finalPlacedItems = deepCopy(itemsPlaced);
+            if (++nodeCount > mSolverMaxNodes
+                    || ((nodeCount & 0xFF) == 0 && System.nanoTime() > deadline)) {
+                budgetExceeded = true;
+                return;
+            }
+            if (isVisited(index, weightLoss, moveCost)) {
                 return;
             }
 
@@ -469,11 +604,6 @@ public class GridSizeMigrationTask {
             int myX = me.cellX;
             int myY = me.cellY;
 
-            // List of items to pass over if this item was placed.
-            ArrayList<DbEntry> itemsIncludingMe = new ArrayList<>(itemsPlaced.size() + 1);
-            itemsIncludingMe.addAll(itemsPlaced);
-            itemsIncludingMe.add(me);
-
             if (me.spanX > 1 || me.spanY > 1) {
                 // If the current item is a widget (and it greater than 1x1), try to place it at
                 // all possible positions. This is because a widget placed at one position can
@@ -498,28 +628,22 @@ public class GridSizeMigrationTask {
 
                         if (occupied.isRegionVacant(x, y, myW, myH)) {
                             // place at this position and continue search.
-                            occupied.markCells(me, true);
-                            find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            place(index, weightLoss, newMoveCost);
                         }
 
                         // Try resizing horizontally
                         if (myW > me.minSpanX && occupied.isRegionVacant(x, y, myW - 1, myH)) {
                             me.spanX--;
-                            occupied.markCells(me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            place(index, weightLoss, newMoveCost + 1);
                             me.spanX++;
                         }
 
                         // Try resizing vertically
                         if (myH > me.minSpanY && occupied.isRegionVacant(x, y, myW, myH - 1)) {
                             me.spanY--;
-                            occupied.markCells(me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            place(index, weightLoss, newMoveCost + 1);
                             me.spanY++;
                         }
 
@@ -528,10 +652,8 @@ public class GridSizeMigrationTask {
                                 occupied.isRegionVacant(x, y, myW - 1, myH - 1)) {
                             me.spanX--;
                             me.spanY--;
-                            occupied.markCells(me, true);
                             // 2 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            place(index, weightLoss, newMoveCost + 2);
                             me.spanX++;
                             me.spanY++;
                         }
@@ -541,9 +663,8 @@ public class GridSizeMigrationTask {
                 }
 
                 // Finally also try a solution when this item is not included. Trying it in the end
-                // causes it to get skipped in most cases due to higher weight loss, and prevents
-                // unnecessary deep copies of various configurations.
-                find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                // causes it to get skipped in most cases due to higher weight loss.
+                find(index + 1, weightLoss + me.weight, moveCost);
             } else {
                 // Since this is a 1x1 item and all the following items are also 1x1, just place
                 // it at 'the most appropriate position' and hope for the best.
@@ -553,7 +674,7 @@ public class GridSizeMigrationTask {
 
                 for (int y = startY; y < mTrgY; y++) {
                     for (int x = 0; x < mTrgX; x++) {
-                        if (!occupied.cells[x][y]) {
+                        if (!occupied.isOccupied(x, y)) {
                             int dist = ignoreMove ? 0 :
                                     ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
                             if (dist < newDistance) {
@@ -578,9 +699,7 @@ public class GridSizeMigrationTask {
                     if (ignoreMove) {
                         newMoveCost = moveCost;
                     }
-                    occupied.markCells(me, true);
-                    find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                    occupied.markCells(me, false);
+                    place(index, weightLoss, newMoveCost);
                     me.cellX = myX;
                     me.cellY = myY;
 
@@ -592,17 +711,60 @@ public class GridSizeMigrationTask {
                     //      anyway be same.
                     if (index + 1 < itemsToPlace.size()
                             && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
-                        find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                        find(index + 1, weightLoss + me.weight, moveCost);
                     }
                 } else {
                     // No more space. Jump to the end.
                     for (int i = index + 1; i < itemsToPlace.size(); i++) {
                         weightLoss += itemsToPlace.get(i).weight;
                     }
-                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, itemsPlaced);
+                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost);
                 }
             }
         }
+
+        /**
+         * Places the item at its current position and span, and continues the search.
+         */
+        private void place(int index, float weightLoss, float moveCost) {
+            DbEntry me = itemsToPlace.get(index);
+            placed[index] = true;
+            occupied.markCells(me, true);
+            find(index + 1, weightLoss, moveCost);
+            occupied.markCells(me, false);
+            placed[index] = false;
+        }
+
+        /**
+         * Returns whether the current state of the grid was already reached at this item with
+         * costs which are not higher, and records the costs otherwise. The remaining items can be
+         * placed the same way from the same state, so the search from here can't find anything
+         * better.
+         */
+        private boolean isVisited(int index, float weightLoss, float moveCost) {
+            HashMap<GridOccupancy, float[]> states = visitedStates.get(index);
+            if (states == null) {
+                states = new HashMap<>();
+                visitedStates.set(index, states);
+            }
+            float[] costs = states.get(occupied);
+            if (costs == null) {
+                GridOccupancy state = new GridOccupancy(mTrgX, mTrgY);
+                occupied.copyTo(state);
+                states.put(state, new float[] {weightLoss, moveCost});
+                return false;
+            }
+            if (costs[0] < weightLoss || (costs[0] == weightLoss && costs[1] <= moveCost)) {
+                return true;
+            }
+            costs[0] = weightLoss;
+            costs[1] = moveCost;
+            return false;
+        }
+    }
+
+    private static Rect getRect(DbEntry item) {
+        return new Rect(item.cellX, item.cellY, item.cellX + item.spanX, item.cellY + item.spanY);
     }
 
     private ArrayList<DbEntry> loadHotseatEntries() {
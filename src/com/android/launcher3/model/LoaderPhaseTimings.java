@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records how long each phase of a {@link LoaderTask} run took. Phases may be recorded from
+ * the loader thread as well as from the background phase executor, so all access is synchronized.
+ * <p>
+ * Unlike {@link com.android.launcher3.util.TraceHelper}, the timings are always collected and
+ * can be read back through {@link #getPhaseDurations()} or dumped with the model state.
+ */
+public class LoaderPhaseTimings {
+
+    public static final String PHASE_LOAD_WORKSPACE = "load_workspace";
+    public static final String PHASE_BIND_WORKSPACE = "bind_workspace";
+    // Phases named query_* only talk to the system. In parallel mode they run on the phase
+    // executor, while the matching load_* phase measures how long the loader thread was blocked.
+    public static final String PHASE_QUERY_ALL_APPS = "query_all_apps";
+    public static final String PHASE_LOAD_ALL_APPS = "load_all_apps";
+    public static final String PHASE_BIND_ALL_APPS = "bind_all_apps";
+    public static final String PHASE_UPDATE_ICON_CACHE = "update_icon_cache";
+    public static final String PHASE_QUERY_DEEP_SHORTCUTS = "query_deep_shortcuts";
+    public static final String PHASE_LOAD_DEEP_SHORTCUTS = "load_deep_shortcuts";
+    public static final String PHASE_BIND_DEEP_SHORTCUTS = "bind_deep_shortcuts";
+    public static final String PHASE_QUERY_WIDGETS = "query_widgets";
+    public static final String PHASE_LOAD_WIDGETS = "load_widgets";
+    public static final String PHASE_BIND_WIDGETS = "bind_widgets";
+    public static final String PHASE_WAIT_FOR_IDLE = "wait_for_idle";
+    public static final String PHASE_TOTAL = "total";
+
+    public static final class Phase {
+        public final String name;
+        public final String threadName;
+        /** Start of the phase, relative to the start of the loader run */
+        public final long startOffsetMs;
+        public final long durationMs;
+
+        Phase(String name, String threadName, long startOffsetMs, long durationMs) {
+            this.name = name;
+            this.threadName = threadName;
+            this.startOffsetMs = startOffsetMs;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private final long mStartTime = SystemClock.uptimeMillis();
+    private final boolean mParallel;
+    private final ArrayList<Phase> mPhases = new ArrayList<>();
+    private boolean mCancelled;
+
+    public LoaderPhaseTimings(boolean parallel) {
+        mParallel = parallel;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record} once the phase completes.
+     */
+    public long start() {
+        return SystemClock.uptimeMillis();
+    }
+
+    public synchronized void record(String phase, long startTime) {
+        mPhases.add(new Phase(phase, Thread.currentThread().getName(),
+                startTime - mStartTime, SystemClock.uptimeMillis() - startTime));
+    }
+
+    public synchronized void markCancelled() {
+        mCancelled = true;
+    }
+
+    public boolean isParallel() {
+        return mParallel;
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<>(mPhases);
+    }
+
+    /**
+     * Returns the total time spent in each phase, in the order the phases completed. Phases
+     * which ran multiple times (eg. waiting for idle) are summed up.
+     */
+    public synchronized Map<String, Long> getPhaseDurations() {
+        LinkedHashMap<String, Long> result = new LinkedHashMap<>();
+        for (Phase phase : mPhases) {
+            Long existing = result.get(phase.name);
+            result.put(phase.name, existing == null
+                    ? phase.durationMs : existing + phase.durationMs);
+        }
+        return result;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Loader timings: parallel=" + mParallel
+                + " cancelled=" + mCancelled);
+        for (Phase phase : mPhases) {
+            writer.println(prefix + "  " + phase.name
+                    + " start=" + phase.startOffsetMs + "ms"
+                    + " duration=" + phase.durationMs + "ms"
+                    + " thread=" + phase.threadName);
+        }
+    }
+}
@@ -56,6 +56,7 @@ import com.android.launcher3.folder.FolderIconPreviewVerifier;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.provider.ImportDataTask;
+import com.android.launcher3.shortcuts.BackportShortcutIndex;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
@@ -75,7 +76,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.android.launcher3.ItemInfoWithIcon.FLAG_DISABLED_LOCKED_USER;
 import static com.android.launcher3.ItemInfoWithIcon.FLAG_DISABLED_SAFEMODE;
@@ -93,6 +103,10 @@ import static com.android.launcher3.model.LoaderResults.filterCurrentWorkspaceIt
 public class LoaderTask implements Runnable {
     private static final String TAG = "LoaderTask";
 
+    // Number of background queries which can run at the same time in parallel mode.
+    private static final int PHASE_POOL_SIZE = 3;
+    private static Executor sPhaseExecutor;
+
     private final LauncherAppState mApp;
     private final AllAppsList mBgAllAppsList;
     private final BgDataModel mBgDataModel;
@@ -108,6 +122,10 @@ public class LoaderTask implements Runnable {
     private final AppWidgetManagerCompat mAppWidgetManager;
     private final IconCache mIconCache;
 
+    private final LoaderPhaseTimings mTimings =
+            new LoaderPhaseTimings(FeatureFlags.LAUNCHER3_PARALLEL_LOADER);
+    private final ArrayList<Future<?>> mPendingPhases = new ArrayList<>();
+
     private boolean mStopped;
 
     public LoaderTask(LauncherAppState app, AllAppsList bgAllAppsList, BgDataModel dataModel,
@@ -126,6 +144,7 @@ public class LoaderTask implements Runnable {
     }
 
     protected synchronized void waitForIdle() {
+        long start = mTimings.start();
         // Wait until the either we're stopped or the other threads are done.
         // This way we don't start loading all apps until the workspace has settled
         // down.
@@ -133,6 +152,7 @@ public class LoaderTask implements Runnable {
         // Just in case mFlushingWorkerThread changes but we aren't woken up,
         // wait no longer than 1sec at a time
         while (!mStopped && idleLock.awaitLocked(1000)) ;
+        mTimings.record(LoaderPhaseTimings.PHASE_WAIT_FOR_IDLE, start);
     }
 
     private synchronized void verifyNotStopped() throws CancellationException {
@@ -165,19 +185,42 @@ public class LoaderTask implements Runnable {
             }
         }
 
+        final LoaderPhaseTimings timings = mTimings;
+        final long runStart = timings.start();
         TraceHelper.beginSection(TAG);
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
             TraceHelper.partitionSection(TAG, "step 1.1: loading workspace");
+            long start = timings.start();
             loadWorkspace();
+            timings.record(LoaderPhaseTimings.PHASE_LOAD_WORKSPACE, start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 1.2: bind workspace workspace");
+            start = timings.start();
             mResults.bindWorkspace();
+            timings.record(LoaderPhaseTimings.PHASE_BIND_WORKSPACE, start);
 
             // Notify the installer packages of packages with active installs on the first screen.
             TraceHelper.partitionSection(TAG, "step 1.3: send first screen broadcast");
             sendFirstScreenActiveInstallsBroadcast();
 
+            // The remaining queries do not depend on each other or on the workspace, so in
+            // parallel mode they are started now and overlap with the workspace being bound.
+            // Their results are still applied and bound on this thread in the usual order.
+            Future<Map<UserHandle, List<LauncherActivityInfo>>> activityListsFuture = null;
+            Future<List<ShortcutInfoCompat>> shortcutsFuture = null;
+            Future<ArrayList<WidgetItem>> widgetsFuture = null;
+            if (timings.isParallel()) {
+                TraceHelper.partitionSection(TAG, "step 1.4: start background queries");
+                activityListsFuture = submitPhase(this::queryActivityLists,
+                        LoaderPhaseTimings.PHASE_QUERY_ALL_APPS);
+                shortcutsFuture = submitPhase(this::queryDeepShortcuts,
+                        LoaderPhaseTimings.PHASE_QUERY_DEEP_SHORTCUTS);
+                widgetsFuture = submitPhase(
+                        () -> mBgDataModel.widgetsModel.queryWidgetsAndShortcuts(mApp, null),
+                        LoaderPhaseTimings.PHASE_QUERY_WIDGETS);
+            }
+
             // Take a break
             TraceHelper.partitionSection(TAG, "step 1 completed, wait for idle");
             waitForIdle();
@@ -185,15 +228,22 @@ public class LoaderTask implements Runnable {
 
             // second step
             TraceHelper.partitionSection(TAG, "step 2.1: loading all apps");
-            loadAllApps();
+            start = timings.start();
+            loadAllApps(activityListsFuture != null
+                    ? awaitPhase(activityListsFuture) : queryActivityLists());
+            timings.record(LoaderPhaseTimings.PHASE_LOAD_ALL_APPS, start);
 
             TraceHelper.partitionSection(TAG, "step 2.2: Binding all apps");
             verifyNotStopped();
+            start = timings.start();
             mResults.bindAllApps();
+            timings.record(LoaderPhaseTimings.PHASE_BIND_ALL_APPS, start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 2.3: Update icon cache");
+            start = timings.start();
             updateIconCache();
+            timings.record(LoaderPhaseTimings.PHASE_UPDATE_ICON_CACHE, start);
 
             // Take a break
             TraceHelper.partitionSection(TAG, "step 2 completed, wait for idle");
@@ -202,11 +252,19 @@ public class LoaderTask implements Runnable {
 
             // third step
             TraceHelper.partitionSection(TAG, "step 3.1: loading deep shortcuts");
-            loadDeepShortcuts();
+            start = timings.start();
+            loadDeepShortcuts(shortcutsFuture != null
+                    ? awaitPhase(shortcutsFuture) : queryDeepShortcuts());
+            if (BackportShortcutIndex.isSupported()) {
+                updateBackportShortcuts();
+            }
+            timings.record(LoaderPhaseTimings.PHASE_LOAD_DEEP_SHORTCUTS, start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 3.2: bind deep shortcuts");
+            start = timings.start();
             mResults.bindDeepShortcuts();
+            timings.record(LoaderPhaseTimings.PHASE_BIND_DEEP_SHORTCUTS, start);
 
             // Take a break
             TraceHelper.partitionSection(TAG, "step 3 completed, wait for idle");
@@ -215,22 +273,113 @@ public class LoaderTask implements Runnable {
 
             // fourth step
             TraceHelper.partitionSection(TAG, "step 4.1: loading widgets");
-            mBgDataModel.widgetsModel.update(mApp, null);
+            start = timings.start();
+            if (widgetsFuture != null) {
+                mBgDataModel.widgetsModel.update(mApp, null, awaitPhase(widgetsFuture));
+            } else {
+                mBgDataModel.widgetsModel.update(mApp, null);
+            }
+            timings.record(LoaderPhaseTimings.PHASE_LOAD_WIDGETS, start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 4.2: Binding widgets");
+            start = timings.start();
             mResults.bindWidgets();
+            timings.record(LoaderPhaseTimings.PHASE_BIND_WIDGETS, start);
 
             transaction.commit();
         } catch (CancellationException e) {
             // Loader stopped, ignore
             TraceHelper.partitionSection(TAG, "Cancelled");
+            timings.markCancelled();
+        } finally {
+            cancelPendingPhases();
         }
+        timings.record(LoaderPhaseTimings.PHASE_TOTAL, runStart);
         TraceHelper.endSection(TAG);
     }
 
+    /**
+     * Runs {@param query} on the phase executor, recording its duration as {@param phase}.
+     */
+    private <T> Future<T> submitPhase(Callable<T> query, String phase) {
+        FutureTask<T> task = new FutureTask<>(() -> {
+            long start = mTimings.start();
+            try {
+                return query.call();
+            } finally {
+                mTimings.record(phase, start);
+            }
+        });
+        synchronized (this) {
+            mPendingPhases.add(task);
+        }
+        getPhaseExecutor().execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for a phase started with {@link #submitPhase} to complete, while still reacting
+     * to the loader being stopped.
+     */
+    private <T> T awaitPhase(Future<T> future) throws CancellationException {
+        while (true) {
+            verifyNotStopped();
+            try {
+                return future.get(1000, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Check if we were stopped in the meantime and keep waiting.
+            } catch (InterruptedException e) {
+                throw new CancellationException("Loader interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    private synchronized void cancelPendingPhases() {
+        for (Future<?> future : mPendingPhases) {
+            future.cancel(true);
+        }
+        mPendingPhases.clear();
+    }
+
+    private static Executor getPhaseExecutor() {
+        synchronized (LoaderTask.class) {
+            if (sPhaseExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        PHASE_POOL_SIZE, PHASE_POOL_SIZE, 1, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }, "launcher-loader-phase");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.allowCoreThreadTimeOut(true);
+                sPhaseExecutor = executor;
+            }
+            return sPhaseExecutor;
+        }
+    }
+
+    /**
+     * @return the timings of this loader run, which are filled in as the run progresses.
+     */
+    public LoaderPhaseTimings getTimings() {
+        return mTimings;
+    }
+
     public synchronized void stopLocked() {
         mStopped = true;
+        for (Future<?> future : mPendingPhases) {
+            future.cancel(true);
+        }
         this.notify();
     }
 
@@ -761,6 +910,7 @@ public class LoaderTask implements Runnable {
             FolderIconPreviewVerifier verifier =
                     new FolderIconPreviewVerifier(mApp.getInvariantDeviceProfile());
             // Sort the folder items and make sure all items in the preview are high resolution.
+            ArrayList<ShortcutInfo> previewItems = new ArrayList<>();
             for (FolderInfo folder : mBgDataModel.folders) {
                 Collections.sort(folder.contents, Folder.ITEM_POS_COMPARATOR);
                 verifier.setFolderInfo(folder);
@@ -770,7 +920,7 @@ public class LoaderTask implements Runnable {
                     if (info.usingLowResIcon
                             && info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
                             && verifier.isItemInPreview(info.rank)) {
-                        mIconCache.getTitleAndIcon(info, false);
+                        previewItems.add(info);
                         numItemsInPreview++;
                     }
 
@@ -779,6 +929,8 @@ public class LoaderTask implements Runnable {
                     }
                 }
             }
+            // Load all the preview icons from the DB at once.
+            mIconCache.getTitleAndIcon(previewItems, false);
 
             c.commitRestoredItems();
             if (!isSdCardReady && !pendingPackages.isEmpty()) {
@@ -827,14 +979,31 @@ public class LoaderTask implements Runnable {
         mIconCache.updateDbIcons(packagesToIgnore);
     }
 
-    private void loadAllApps() {
+    /**
+     * Queries the launchable activities of every profile. This only talks to the system and can
+     * run on any thread.
+     */
+    private Map<UserHandle, List<LauncherActivityInfo>> queryActivityLists() {
+        final List<UserHandle> profiles = mUserManager.getUserProfiles();
+        final Map<UserHandle, List<LauncherActivityInfo>> activityLists =
+                new HashMap<>(profiles.size());
+        for (UserHandle user : profiles) {
+            activityLists.put(user, mLauncherApps.getActivityList(null, user));
+        }
+        return activityLists;
+    }
+
+    private void loadAllApps(Map<UserHandle, List<LauncherActivityInfo>> activityLists) {
         final List<UserHandle> profiles = mUserManager.getUserProfiles();
 
         // Clear the list of apps
         mBgAllAppsList.clear();
         for (UserHandle user : profiles) {
-            // Query for the set of apps
-            final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+            // The profiles could have changed while querying, in which case query again.
+            List<LauncherActivityInfo> apps = activityLists.get(user);
+            if (apps == null) {
+                apps = mLauncherApps.getActivityList(null, user);
+            }
             // Fail if we don't have any apps
             // TODO: Fix this. Only fail for the current user.
             if (apps == null || apps.isEmpty()) {
@@ -861,18 +1030,47 @@ public class LoaderTask implements Runnable {
         mBgAllAppsList.added = new ArrayList<>();
     }
 
-    private void loadDeepShortcuts() {
+    /**
+     * Queries the deep shortcuts of all unlocked profiles. This only talks to the system and can
+     * run on any thread.
+     *
+     * @return the shortcuts, or null if the launcher does not have the shortcut host permission.
+     */
+    private List<ShortcutInfoCompat> queryDeepShortcuts() {
+        if (!mShortcutManager.hasHostPermission()) {
+            return null;
+        }
+        List<ShortcutInfoCompat> result = new ArrayList<>();
+        for (UserHandle user : mUserManager.getUserProfiles()) {
+            if (mUserManager.isUserUnlocked(user)) {
+                result.addAll(mShortcutManager.queryForAllShortcuts(user));
+            }
+        }
+        return result;
+    }
+
+    private void loadDeepShortcuts(List<ShortcutInfoCompat> shortcuts) {
         mBgDataModel.deepShortcutMap.clear();
-        mBgDataModel.hasShortcutHostPermission = mShortcutManager.hasHostPermission();
+        mBgDataModel.hasShortcutHostPermission = shortcuts != null;
         if (mBgDataModel.hasShortcutHostPermission) {
-            for (UserHandle user : mUserManager.getUserProfiles()) {
-                if (mUserManager.isUserUnlocked(user)) {
-                    List<ShortcutInfoCompat> shortcuts =
-                            mShortcutManager.queryForAllShortcuts(user);
-                    mBgDataModel.updateDeepShortcutMap(null, user, shortcuts);
-                }
+            // The user is ignored when updating all packages.
+            mBgDataModel.updateDeepShortcutMap(null, null, shortcuts);
+        }
+    }
+
+    /**
+     * Brings the manifest shortcuts parsed for devices without shortcut support up to date with
+     * the loaded apps, so that they don't need to be parsed on long press.
+     */
+    private void updateBackportShortcuts() {
+        HashSet<String> packages = new HashSet<>();
+        UserHandle myUser = Process.myUserHandle();
+        for (AppInfo app : mBgAllAppsList.data) {
+            if (myUser.equals(app.user)) {
+                packages.add(app.componentName.getPackageName());
             }
         }
+        BackportShortcutIndex.getInstance(mApp.getContext()).update(packages);
     }
 
     public static boolean isValidProvider(AppWidgetProviderInfo provider) {
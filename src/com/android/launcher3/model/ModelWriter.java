@@ -16,16 +16,17 @@
 
 package com.android.launcher3.model;
 
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import android.util.LongSparseArray;
 
 import com.android.launcher3.FolderInfo;
 import com.android.launcher3.ItemInfo;
@@ -34,7 +35,6 @@ import com.android.launcher3.LauncherAppWidgetHost;
 import com.android.launcher3.LauncherAppWidgetInfo;
 import com.android.launcher3.LauncherModel;
 import com.android.launcher3.LauncherModel.Callbacks;
-import com.android.launcher3.LauncherProvider;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.LauncherSettings.Settings;
@@ -53,11 +53,37 @@ import java.util.concurrent.Executor;
 
 /**
  * Class for handling model updates.
+ * <p>
+ * Updates of existing items are journaled and merged by item id until the end of the current
+ * frame, and then written in a single transaction. Anything else which touches the database
+ * writes the journal first, so that the database operations keep their order. The same is done
+ * by {@link LauncherModel} for all writers before it queues a model task or a loader.
  */
 public class ModelWriter {
 
     private static final String TAG = "ModelWriter";
 
+    // Writers with pending updates, guarded by itself
+    private static final ArrayList<ModelWriter> sWritersWithPendingUpdates = new ArrayList<>();
+
+    /**
+     * Writes the pending updates of all writers, so that they happen before anything queued on
+     * the worker thread afterwards.
+     */
+    public static void flushAllPendingUpdates() {
+        ModelWriter[] writers;
+        synchronized (sWritersWithPendingUpdates) {
+            if (sWritersWithPendingUpdates.isEmpty()) {
+                return;
+            }
+            writers = sWritersWithPendingUpdates.toArray(
+                    new ModelWriter[sWritersWithPendingUpdates.size()]);
+        }
+        for (ModelWriter writer : writers) {
+            writer.flushPendingUpdates();
+        }
+    }
+
     private final Context mContext;
     private final LauncherModel mModel;
     private final BgDataModel mBgDataModel;
@@ -70,6 +96,11 @@ public class ModelWriter {
     private boolean mPreparingToUndo;
     private List<Runnable> mDeleteRunnables = new ArrayList<>();
 
+    // Item updates which weren't written yet by item id, guarded by itself
+    private final LongSparseArray<PendingUpdate> mPendingUpdates = new LongSparseArray<>();
+    private ModelVerifier mPendingVerifier;
+    private final Runnable mFlushRunnable = this::flushPendingUpdates;
+
     public ModelWriter(Context context, LauncherModel model, BgDataModel dataModel,
                        boolean hasVerticalHotseat, boolean verifyChanges) {
         mContext = context;
@@ -167,7 +198,7 @@ public class ModelWriter {
                 .put(Favorites.RANK, item.rank)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -175,7 +206,6 @@ public class ModelWriter {
      * cellX, cellY have already been updated on the ItemInfos.
      */
     public void moveItemsInDatabase(final ArrayList<ItemInfo> items, long container, int screen) {
-        ArrayList<ContentValues> contentValues = new ArrayList<>();
         int count = items.size();
 
         for (int i = 0; i < count; i++) {
@@ -189,9 +219,8 @@ public class ModelWriter {
             values.put(Favorites.RANK, item.rank);
             values.put(Favorites.SCREEN, item.screenId);
 
-            contentValues.add(values);
+            enqueueUpdate(item, new ContentWriter(values, mContext));
         }
-        mWorkerExecutor.execute(new UpdateItemsRunnable(items, contentValues));
     }
 
     /**
@@ -212,11 +241,13 @@ public class ModelWriter {
                 .put(Favorites.SPANY, item.spanY)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     private void executeUpdateItem(ItemInfo item, ContentWriter writer) {
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
+        // The model is reloaded right after, which must see the update
+        flushPendingUpdates();
     }
 
 
@@ -244,7 +275,65 @@ public class ModelWriter {
     public void updateItemInDatabase(ItemInfo item) {
         ContentWriter writer = new ContentWriter(mContext);
         item.onAddToDatabase(writer);
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
+    }
+
+    /**
+     * Adds an update of {@param item} to the journal, merging it with the pending update of the
+     * same item if there is one. Updates made on the worker thread are written right away, as
+     * model tasks expect them to be done when they continue.
+     */
+    private void enqueueUpdate(ItemInfo item, ContentWriter writer) {
+        StackTraceElement[] stackTrace = mVerifyChanges ? new Throwable().getStackTrace() : null;
+        synchronized (mPendingUpdates) {
+            PendingUpdate update = mPendingUpdates.get(item.id);
+            if (update == null) {
+                update = new PendingUpdate();
+                mPendingUpdates.put(item.id, update);
+                if (mPendingUpdates.size() == 1) {
+                    mPendingVerifier = new ModelVerifier();
+                    mUiHandler.post(mFlushRunnable);
+                    synchronized (sWritersWithPendingUpdates) {
+                        sWritersWithPendingUpdates.add(this);
+                    }
+                }
+            }
+            update.item = item;
+            update.writers.add(writer);
+            update.stackTrace = stackTrace;
+        }
+        if (Looper.myLooper() == LauncherModel.getWorkerLooper()) {
+            flushPendingUpdates();
+        }
+    }
+
+    /**
+     * Writes all pending updates. Must be called before anything else is written to the
+     * database.
+     */
+    public void flushPendingUpdates() {
+        ArrayList<PendingUpdate> updates;
+        ModelVerifier verifier;
+        synchronized (mPendingUpdates) {
+            int count = mPendingUpdates.size();
+            if (count == 0) {
+                return;
+            }
+            updates = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                PendingUpdate update = mPendingUpdates.valueAt(i);
+                update.itemId = mPendingUpdates.keyAt(i);
+                updates.add(update);
+            }
+            mPendingUpdates.clear();
+            verifier = mPendingVerifier;
+            mPendingVerifier = null;
+            mUiHandler.removeCallbacks(mFlushRunnable);
+            synchronized (sWritersWithPendingUpdates) {
+                sWritersWithPendingUpdates.remove(this);
+            }
+        }
+        mWorkerExecutor.execute(new UpdateItemsRunnable(updates, verifier));
     }
 
     /**
@@ -264,7 +353,9 @@ public class ModelWriter {
 
         ModelVerifier verifier = new ModelVerifier();
 
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final StackTraceElement[] stackTrace =
+                mVerifyChanges ? new Throwable().getStackTrace() : null;
+        flushPendingUpdates();
         mWorkerExecutor.execute(() -> {
             cr.insert(Favorites.CONTENT_URI, writer.getValues(mContext));
 
@@ -296,6 +387,7 @@ public class ModelWriter {
     public void deleteItemsFromDatabase(final Iterable<? extends ItemInfo> items) {
         ModelVerifier verifier = new ModelVerifier();
 
+        flushPendingUpdates();
         mWorkerExecutor.execute(() -> {
             for (ItemInfo item : items) {
                 final Uri uri = Favorites.getContentUri(item.id);
@@ -314,6 +406,7 @@ public class ModelWriter {
         enqueueDeleteRunnable(() -> {
             ModelVerifier verifier = new ModelVerifier();
 
+            flushPendingUpdates();
             mWorkerExecutor.execute(() -> {
                 info.clearCustomIcon(mContext);
                 ContentResolver cr = mContext.getContentResolver();
@@ -362,6 +455,7 @@ public class ModelWriter {
 
     public void commitDelete() {
         mPreparingToUndo = false;
+        flushPendingUpdates();
         for (Runnable execute : this.mDeleteRunnables) {
             mWorkerExecutor.execute(execute);
         }
@@ -371,107 +465,95 @@ public class ModelWriter {
     public void undoDelete(int reloadPage) {
         mPreparingToUndo = false;
         mDeleteRunnables.clear();
+        flushPendingUpdates();
         mModel.forceReload(reloadPage);
     }
 
-    private class UpdateItemRunnable extends UpdateItemBaseRunnable {
-        private final ItemInfo mItem;
-        private final ContentWriter mWriter;
-        private final long mItemId;
-
-        UpdateItemRunnable(ItemInfo item, ContentWriter writer) {
-            mItem = item;
-            mWriter = writer;
-            mItemId = item.id;
-        }
-
-        @Override
-        public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.getValues(mContext), null, null);
-            updateItemArrays(mItem, mItemId);
-        }
+    private static class PendingUpdate {
+        long itemId;
+        ItemInfo item;
+        // Merged in order when the update is written
+        final ArrayList<ContentWriter> writers = new ArrayList<>(1);
+        // Of the last change, only captured when verifying changes
+        StackTraceElement[] stackTrace;
     }
 
-    private class UpdateItemsRunnable extends UpdateItemBaseRunnable {
-        private final ArrayList<ContentValues> mValues;
-        private final ArrayList<ItemInfo> mItems;
+    private class UpdateItemsRunnable implements Runnable {
+        private final ArrayList<PendingUpdate> mUpdates;
+        private final ModelVerifier mVerifier;
 
-        UpdateItemsRunnable(ArrayList<ItemInfo> items, ArrayList<ContentValues> values) {
-            mValues = values;
-            mItems = items;
+        UpdateItemsRunnable(ArrayList<PendingUpdate> updates, ModelVerifier verifier) {
+            mUpdates = updates;
+            mVerifier = verifier;
         }
 
         @Override
         public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-            int count = mItems.size();
+            int count = mUpdates.size();
+            long[] ids = new long[count];
+            ArrayList<ContentValues> values = new ArrayList<>(count);
             for (int i = 0; i < count; i++) {
-                ItemInfo item = mItems.get(i);
-                final long itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
+                PendingUpdate update = mUpdates.get(i);
+                ContentValues merged = new ContentValues();
+                for (ContentWriter writer : update.writers) {
+                    merged.putAll(writer.getValues(mContext));
+                }
+                ids[i] = update.itemId;
+                values.add(merged);
             }
-            try {
-                mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
-            } catch (Exception e) {
-                e.printStackTrace();
+            Bundle extras = new Bundle();
+            extras.putLongArray(Settings.EXTRA_ITEM_IDS, ids);
+            extras.putParcelableArrayList(Settings.EXTRA_VALUE, values);
+            Settings.call(mContext.getContentResolver(), Settings.METHOD_UPDATE_ITEMS, extras);
+
+            // Lock on mBgLock *after* the db operation
+            synchronized (mBgDataModel) {
+                for (int i = 0; i < count; i++) {
+                    PendingUpdate update = mUpdates.get(i);
+                    updateItemArraysLocked(update.item, update.itemId, update.stackTrace);
+                }
+                mVerifier.verifyModel();
             }
         }
     }
 
-    private abstract class UpdateItemBaseRunnable implements Runnable {
-        private final StackTraceElement[] mStackTrace;
-        private final ModelVerifier mVerifier = new ModelVerifier();
-
-        UpdateItemBaseRunnable() {
-            mStackTrace = new Throwable().getStackTrace();
+    private void updateItemArraysLocked(ItemInfo item, long itemId,
+            StackTraceElement[] stackTrace) {
+        checkItemInfoLocked(itemId, item, stackTrace);
+
+        if (item.container != Favorites.CONTAINER_DESKTOP &&
+                item.container != Favorites.CONTAINER_HOTSEAT) {
+            // Item is in a folder, make sure this folder exists
+            if (!mBgDataModel.folders.containsKey(item.container)) {
+                // An items container is being set to a that of an item which is not in
+                // the list of Folders.
+                String msg = "item: " + item + " container being set to: " +
+                        item.container + ", not in the list of folders";
+                Log.e(TAG, msg);
+            }
         }
 
-        protected void updateItemArrays(ItemInfo item, long itemId) {
-            // Lock on mBgLock *after* the db operation
-            synchronized (mBgDataModel) {
-                checkItemInfoLocked(itemId, item, mStackTrace);
-
-                if (item.container != Favorites.CONTAINER_DESKTOP &&
-                        item.container != Favorites.CONTAINER_HOTSEAT) {
-                    // Item is in a folder, make sure this folder exists
-                    if (!mBgDataModel.folders.containsKey(item.container)) {
-                        // An items container is being set to a that of an item which is not in
-                        // the list of Folders.
-                        String msg = "item: " + item + " container being set to: " +
-                                item.container + ", not in the list of folders";
-                        Log.e(TAG, msg);
-                    }
-                }
-
-                // Items are added/removed from the corresponding FolderInfo elsewhere, such
-                // as in Workspace.onDrop. Here, we just add/remove them from the list of items
-                // that are on the desktop, as appropriate
-                ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
-                if (modelItem != null &&
-                        (modelItem.container == Favorites.CONTAINER_DESKTOP ||
-                                modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
-                    switch (modelItem.itemType) {
-                        case Favorites.ITEM_TYPE_APPLICATION:
-                        case Favorites.ITEM_TYPE_SHORTCUT:
-                        case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
-                        case Favorites.ITEM_TYPE_FOLDER:
-                            if (!mBgDataModel.workspaceItems.contains(modelItem)) {
-                                mBgDataModel.workspaceItems.add(modelItem);
-                            }
-                            break;
-                        default:
-                            break;
+        // Items are added/removed from the corresponding FolderInfo elsewhere, such
+        // as in Workspace.onDrop. Here, we just add/remove them from the list of items
+        // that are on the desktop, as appropriate
+        ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
+        if (modelItem != null &&
+                (modelItem.container == Favorites.CONTAINER_DESKTOP ||
+                        modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
+            switch (modelItem.itemType) {
+                case Favorites.ITEM_TYPE_APPLICATION:
+                case Favorites.ITEM_TYPE_SHORTCUT:
+                case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
+                case Favorites.ITEM_TYPE_FOLDER:
+                    if (!mBgDataModel.workspaceItems.contains(modelItem)) {
+                        mBgDataModel.workspaceItems.add(modelItem);
                     }
-                } else {
-                    mBgDataModel.workspaceItems.remove(modelItem);
-                }
-                mVerifier.verifyModel();
+                    break;
+                default:
+                    break;
             }
+        } else {
+            mBgDataModel.workspaceItems.remove(modelItem);
         }
     }
 
@@ -42,6 +42,7 @@ import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.logging.FileLog;
+import com.android.launcher3.shortcuts.BackportShortcutIndex;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.FlagOp;
@@ -167,6 +168,14 @@ public class PackageUpdatedTask extends BaseModelUpdateTask {
                 break;
         }
 
+        if (BackportShortcutIndex.isSupported() && Process.myUserHandle().equals(mUser)) {
+            if (mOp == OP_ADD || mOp == OP_UPDATE) {
+                BackportShortcutIndex.getInstance(context).updatePackages(packages);
+            } else if (mOp == OP_REMOVE || mOp == OP_UNAVAILABLE) {
+                BackportShortcutIndex.getInstance(context).removePackages(packages);
+            }
+        }
+
         final ArrayList<AppInfo> addedOrModified = new ArrayList<>();
         addedOrModified.addAll(appsList.added);
         appsList.added.clear();
@@ -76,7 +76,38 @@ public class WidgetsModel {
      */
     public void update(LauncherAppState app, @Nullable PackageUserKey packageUser) {
         Preconditions.assertWorkerThread();
+        update(app, packageUser, queryWidgetsAndShortcuts(app, packageUser));
+    }
+
+    /**
+     * Applies the result of {@link #queryWidgetsAndShortcuts} to the model.
+     *
+     * @param widgetsAndShortcuts the queried items, or null if the query was incomplete, in which
+     *                            case the current model and preview cache are left untouched.
+     */
+    public void update(LauncherAppState app, @Nullable PackageUserKey packageUser,
+                       @Nullable ArrayList<WidgetItem> widgetsAndShortcuts) {
+        Preconditions.assertWorkerThread();
+        if (widgetsAndShortcuts == null) {
+            // the returned value may be incomplete and will not be refreshed until the next
+            // time Launcher starts.
+            // TODO: after figuring out a repro step, introduce a dirty bit to check when
+            // onResume is called to refresh the widget provider list.
+            return;
+        }
+        setWidgetsAndShortcuts(widgetsAndShortcuts, app, packageUser);
+        app.getWidgetCache().removeObsoletePreviews(widgetsAndShortcuts, packageUser);
+    }
 
+    /**
+     * Queries the system for all widgets and shortcut config activities without touching the
+     * model, so that it can be called from any background thread.
+     *
+     * @return the queried items, or null if the result was too large to be fully returned.
+     */
+    @Nullable
+    public ArrayList<WidgetItem> queryWidgetsAndShortcuts(
+            LauncherAppState app, @Nullable PackageUserKey packageUser) {
         Context context = app.getContext();
         final ArrayList<WidgetItem> widgetsAndShortcuts = new ArrayList<>();
         try {
@@ -95,19 +126,14 @@ public class WidgetsModel {
                     .getCustomShortcutActivityList(packageUser)) {
                 widgetsAndShortcuts.add(new WidgetItem(info));
             }
-            setWidgetsAndShortcuts(widgetsAndShortcuts, app, packageUser);
         } catch (Exception e) {
             if (!FeatureFlags.IS_DOGFOOD_BUILD && Utilities.isBinderSizeError(e)) {
-                // the returned value may be incomplete and will not be refreshed until the next
-                // time Launcher starts.
-                // TODO: after figuring out a repro step, introduce a dirty bit to check when
-                // onResume is called to refresh the widget provider list.
+                return null;
             } else {
                 throw e;
             }
         }
-
-        app.getWidgetCache().removeObsoletePreviews(widgetsAndShortcuts, packageUser);
+        return widgetsAndShortcuts;
     }
 
     private synchronized void setWidgetsAndShortcuts(ArrayList<WidgetItem> rawWidgetsShortcuts,
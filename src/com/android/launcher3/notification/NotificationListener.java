@@ -40,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,6 +61,11 @@ public class NotificationListener extends NotificationListenerService {
     private static final int MSG_NOTIFICATION_POSTED = 1;
     private static final int MSG_NOTIFICATION_REMOVED = 2;
     private static final int MSG_NOTIFICATION_FULL_REFRESH = 3;
+    private static final int MSG_NOTIFICATIONS_CHANGED = 4;
+
+    // Posted and removed notifications are sent to the UI together once per window, so that a
+    // burst of notifications only updates the badges once
+    private static final long CHANGES_WINDOW_MS = 16;
 
     private static NotificationListener sNotificationListenerInstance = null;
     private static NotificationsChangedListener sNotificationsChangedListener;
@@ -78,6 +84,11 @@ public class NotificationListener extends NotificationListenerService {
      * Maps keys to their corresponding current group key
      */
     private final Map<String, String> mNotificationGroupKeyMap = new HashMap<>();
+    /**
+     * The last posted or removed message of each notification key which wasn't sent to the UI
+     * yet, in the order of their last change. Only used on the worker thread.
+     */
+    private final LinkedHashMap<String, Object> mPendingChanges = new LinkedHashMap<>();
 
     /**
      * The last notification key that was dismissed from launcher UI
@@ -91,12 +102,23 @@ public class NotificationListener extends NotificationListenerService {
         public boolean handleMessage(Message message) {
             switch (message.what) {
                 case MSG_NOTIFICATION_POSTED:
-                    mUiHandler.obtainMessage(message.what, message.obj).sendToTarget();
+                    addPendingChange(((NotificationPostedMsg) message.obj)
+                            .notificationKey.notificationKey, message.obj);
                     break;
                 case MSG_NOTIFICATION_REMOVED:
-                    mUiHandler.obtainMessage(message.what, message.obj).sendToTarget();
+                    addPendingChange(((Pair<PackageUserKey, NotificationKeyData>) message.obj)
+                            .second.notificationKey, message.obj);
+                    break;
+                case MSG_NOTIFICATIONS_CHANGED:
+                    List<Object> changes = new ArrayList<>(mPendingChanges.values());
+                    mUiHandler.obtainMessage(message.what, changes).sendToTarget();
+                    mPendingChanges.clear();
                     break;
                 case MSG_NOTIFICATION_FULL_REFRESH:
+                    // The active notifications already include all pending changes
+                    mWorkerHandler.removeMessages(MSG_NOTIFICATIONS_CHANGED);
+                    mPendingChanges.clear();
+
                     List<StatusBarNotification> activeNotifications;
                     if (sIsConnected) {
                         try {
@@ -121,18 +143,21 @@ public class NotificationListener extends NotificationListenerService {
         @Override
         public boolean handleMessage(Message message) {
             switch (message.what) {
-                case MSG_NOTIFICATION_POSTED:
-                    if (sNotificationsChangedListener != null) {
-                        NotificationPostedMsg msg = (NotificationPostedMsg) message.obj;
-                        sNotificationsChangedListener.onNotificationPosted(msg.packageUserKey,
-                                msg.notificationKey, msg.shouldBeFilteredOut);
-                    }
-                    break;
-                case MSG_NOTIFICATION_REMOVED:
-                    if (sNotificationsChangedListener != null) {
-                        Pair<PackageUserKey, NotificationKeyData> pair
-                                = (Pair<PackageUserKey, NotificationKeyData>) message.obj;
-                        sNotificationsChangedListener.onNotificationRemoved(pair.first, pair.second);
+                case MSG_NOTIFICATIONS_CHANGED:
+                    for (Object change : (List<Object>) message.obj) {
+                        if (sNotificationsChangedListener == null) {
+                            break;
+                        }
+                        if (change instanceof NotificationPostedMsg) {
+                            NotificationPostedMsg msg = (NotificationPostedMsg) change;
+                            sNotificationsChangedListener.onNotificationPosted(msg.packageUserKey,
+                                    msg.notificationKey, msg.shouldBeFilteredOut);
+                        } else {
+                            Pair<PackageUserKey, NotificationKeyData> pair
+                                    = (Pair<PackageUserKey, NotificationKeyData>) change;
+                            sNotificationsChangedListener.onNotificationRemoved(pair.first,
+                                    pair.second);
+                        }
                     }
                     break;
                 case MSG_NOTIFICATION_FULL_REFRESH:
@@ -215,6 +240,18 @@ public class NotificationListener extends NotificationListenerService {
         onNotificationFullRefresh();
     }
 
+    /**
+     * Replaces the pending change of the notification, as only its last state matters, and moves
+     * it after all other pending changes. Called on the worker thread.
+     */
+    private void addPendingChange(String notificationKey, Object change) {
+        if (mPendingChanges.isEmpty()) {
+            mWorkerHandler.sendEmptyMessageDelayed(MSG_NOTIFICATIONS_CHANGED, CHANGES_WINDOW_MS);
+        }
+        mPendingChanges.remove(notificationKey);
+        mPendingChanges.put(notificationKey, change);
+    }
+
     private void onNotificationFullRefresh() {
         mWorkerHandler.obtainMessage(MSG_NOTIFICATION_FULL_REFRESH).sendToTarget();
     }
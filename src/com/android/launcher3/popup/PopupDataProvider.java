@@ -19,6 +19,8 @@ package com.android.launcher3.popup;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.LauncherApps;
+import android.os.Handler;
+import android.os.Looper;
 import android.service.notification.StatusBarNotification;
 import android.util.Log;
 
@@ -44,6 +46,7 @@ import org.zimmob.zimlx.popup.ZimShortcut;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -81,6 +84,15 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
      */
     private ArrayList<WidgetListRowEntry> mAllWidgets = new ArrayList<>();
 
+    /**
+     * The packages with changed badges which weren't updated yet. The icons are updated once
+     * for all changes which arrive together.
+     */
+    private final HashSet<PackageUserKey> mPendingBadgeUpdates = new HashSet<>();
+    private boolean mPendingTrimNotifications;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mUpdateBadgesRunnable = this::updatePendingBadges;
+
     public PopupDataProvider(Launcher launcher) {
         mLauncher = launcher;
         mSystemShortcuts = new SystemShortcut[]{
@@ -113,7 +125,7 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
             }
         }
         if (badgeShouldBeRefreshed) {
-            mLauncher.updateIconBadges(Utilities.singletonHashSet(postedPackageUserKey));
+            scheduleBadgeUpdate(postedPackageUserKey, false);
         }
     }
 
@@ -125,7 +137,26 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
             if (oldBadgeInfo.getNotificationKeys().size() == 0) {
                 mPackageUserToBadgeInfos.remove(removedPackageUserKey);
             }
-            mLauncher.updateIconBadges(Utilities.singletonHashSet(removedPackageUserKey));
+            scheduleBadgeUpdate(removedPackageUserKey, true);
+        }
+    }
+
+    private void scheduleBadgeUpdate(PackageUserKey packageUserKey, boolean trimNotifications) {
+        if (mPendingBadgeUpdates.isEmpty() && !mPendingTrimNotifications) {
+            mUiHandler.post(mUpdateBadgesRunnable);
+        }
+        mPendingBadgeUpdates.add(packageUserKey);
+        mPendingTrimNotifications |= trimNotifications;
+    }
+
+    private void updatePendingBadges() {
+        HashSet<PackageUserKey> updatedBadges = new HashSet<>(mPendingBadgeUpdates);
+        boolean trimNotifications = mPendingTrimNotifications;
+        mPendingBadgeUpdates.clear();
+        mPendingTrimNotifications = false;
+
+        mLauncher.updateIconBadges(updatedBadges);
+        if (trimNotifications) {
             trimNotifications(mPackageUserToBadgeInfos);
         }
     }
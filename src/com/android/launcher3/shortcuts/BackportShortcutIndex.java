@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.shortcuts;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.Utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the manifest shortcuts parsed by {@link DeepShortcutManagerBackport} in memory, for
+ * devices on which the system can't be queried for them.
+ *
+ * Parsing the manifest of a package is slow, so the shortcuts are also saved to a file together
+ * with the update time of their package, and a package is only parsed again once it changed.
+ * The index is brought up to date by the loader and {@link #updatePackages} on the worker
+ * thread, shortcuts of packages which are missing from it are parsed when they are requested.
+ */
+public class BackportShortcutIndex {
+
+    private static final String TAG = "BackportShortcutIndex";
+
+    private static final int MAGIC = 0x42534958; // BSIX
+    // Change this whenever the file format or the parsing of the shortcuts changes
+    private static final int FORMAT_VERSION = 1;
+
+    private static BackportShortcutIndex sInstance;
+    private static final Object sInstanceLock = new Object();
+
+    public static BackportShortcutIndex getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new BackportShortcutIndex(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Returns whether the shortcuts have to be parsed from the manifests on this device
+     */
+    public static boolean isSupported() {
+        return Utilities.ATLEAST_MARSHMALLOW && !Utilities.ATLEAST_NOUGAT_MR1;
+    }
+
+    private final Context mContext;
+    private final File mFile;
+
+    // All fields below are guarded by this
+    private final HashMap<String, PackageShortcuts> mPackages = new HashMap<>();
+    // The labels are resolved when parsing, so they are only valid for this locale
+    private String mLocale;
+    private boolean mFileLoaded;
+
+    private BackportShortcutIndex(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), LauncherFiles.BACKPORT_SHORTCUTS_STORE);
+        mLocale = Locale.getDefault().toString();
+    }
+
+    /**
+     * Returns the shortcuts of the launcher activities of the package, or only the ones of
+     * {@param activity} if it isn't null.
+     */
+    public List<ShortcutInfoCompat> getShortcuts(String packageName, ComponentName activity) {
+        PackageShortcuts entry;
+        synchronized (this) {
+            checkLocale();
+            entry = mPackages.get(packageName);
+        }
+        if (entry == null) {
+            entry = parse(packageName);
+            if (entry == null) {
+                return new ArrayList<>();
+            }
+            synchronized (this) {
+                mPackages.put(packageName, entry);
+            }
+        }
+
+        List<ShortcutInfoCompat> shortcuts = new ArrayList<>(entry.shortcuts.size());
+        for (ShortcutInfoCompatBackport shortcut : entry.shortcuts) {
+            if (activity == null || activity.equals(shortcut.getActivity())) {
+                shortcuts.add(shortcut);
+            }
+        }
+        return shortcuts;
+    }
+
+    /**
+     * Brings the index up to date for the given installed packages and drops all other
+     * packages. Runs on the worker thread.
+     */
+    public void update(Collection<String> packageNames) {
+        Map<String, PackageShortcuts> known;
+        String locale;
+        synchronized (this) {
+            checkLocale();
+            if (!mFileLoaded) {
+                mFileLoaded = true;
+                loadFile();
+            }
+            known = new HashMap<>(mPackages);
+            locale = mLocale;
+        }
+
+        HashMap<String, PackageShortcuts> updated = new HashMap<>();
+        boolean changed = known.size() != packageNames.size();
+        for (String packageName : packageNames) {
+            PackageShortcuts entry = known.get(packageName);
+            if (entry == null || entry.lastUpdateTime != getLastUpdateTime(packageName)) {
+                entry = parse(packageName);
+                changed = true;
+            }
+            if (entry != null) {
+                updated.put(packageName, entry);
+            }
+        }
+
+        synchronized (this) {
+            if (!locale.equals(mLocale)) {
+                // Everything was dropped for the new locale meanwhile
+                return;
+            }
+            // Only replace the entries which weren't changed by getShortcuts, updatePackages or
+            // removePackages since they were read above
+            for (Map.Entry<String, PackageShortcuts> entry : known.entrySet()) {
+                if (!updated.containsKey(entry.getKey())
+                        && mPackages.get(entry.getKey()) == entry.getValue()) {
+                    mPackages.remove(entry.getKey());
+                }
+            }
+            for (Map.Entry<String, PackageShortcuts> entry : updated.entrySet()) {
+                if (mPackages.get(entry.getKey()) == known.get(entry.getKey())) {
+                    mPackages.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Parses the given packages again after they were installed or updated. Runs on the worker
+     * thread.
+     */
+    public void updatePackages(String... packageNames) {
+        for (String packageName : packageNames) {
+            PackageShortcuts entry = parse(packageName);
+            synchronized (this) {
+                if (entry != null) {
+                    mPackages.put(packageName, entry);
+                } else {
+                    mPackages.remove(packageName);
+                }
+            }
+        }
+        save();
+    }
+
+    /**
+     * Drops the given packages after they were removed. Runs on the worker thread.
+     */
+    public void removePackages(String... packageNames) {
+        synchronized (this) {
+            for (String packageName : packageNames) {
+                mPackages.remove(packageName);
+            }
+        }
+        save();
+    }
+
+    /**
+     * Drops all parsed shortcuts if the locale changed since they were parsed.
+     */
+    private void checkLocale() {
+        String locale = Locale.getDefault().toString();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            mPackages.clear();
+        }
+    }
+
+    private long getLastUpdateTime(String packageName) {
+        try {
+            return mContext.getPackageManager().getPackageInfo(packageName, 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the shortcuts of the package, or null if it isn't installed.
+     */
+    private PackageShortcuts parse(String packageName) {
+        long lastUpdateTime = getLastUpdateTime(packageName);
+        if (lastUpdateTime < 0) {
+            return null;
+        }
+        return new PackageShortcuts(lastUpdateTime,
+                DeepShortcutManagerBackport.parsePackage(mContext, packageName));
+    }
+
+    private void loadFile() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || !in.readUTF().equals(mLocale)) {
+                return;
+            }
+            int packageCount = in.readInt();
+            for (int i = 0; i < packageCount; i++) {
+                String packageName = in.readUTF();
+                long lastUpdateTime = in.readLong();
+                int count = in.readInt();
+                List<ShortcutInfoCompatBackport> shortcuts = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    shortcuts.add(ShortcutInfoCompatBackport.readFrom(mContext, packageName, in));
+                }
+                mPackages.put(packageName, new PackageShortcuts(lastUpdateTime, shortcuts));
+            }
+        } catch (FileNotFoundException e) {
+            // Not saved yet
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the shortcut index", e);
+            mPackages.clear();
+        }
+    }
+
+    /**
+     * Writes the index next to the old file and renames it, so a crash never leaves a partially
+     * written index behind. Nothing is written before the file was loaded by {@link #update}, so
+     * it isn't replaced with a partial index.
+     */
+    private void save() {
+        HashMap<String, PackageShortcuts> packages;
+        String locale;
+        synchronized (this) {
+            if (!mFileLoaded) {
+                return;
+            }
+            packages = new HashMap<>(mPackages);
+            locale = mLocale;
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(locale);
+                out.writeInt(packages.size());
+                for (Map.Entry<String, PackageShortcuts> entry : packages.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().lastUpdateTime);
+                    out.writeInt(entry.getValue().shortcuts.size());
+                    for (ShortcutInfoCompatBackport shortcut : entry.getValue().shortcuts) {
+                        shortcut.writeTo(out);
+                    }
+                }
+            }
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save the shortcut index", e);
+            tmp.delete();
+        }
+    }
+
+    private static class PackageShortcuts {
+
+        final long lastUpdateTime;
+        final List<ShortcutInfoCompatBackport> shortcuts;
+
+        PackageShortcuts(long lastUpdateTime, List<ShortcutInfoCompatBackport> shortcuts) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.shortcuts = shortcuts;
+        }
+    }
+}
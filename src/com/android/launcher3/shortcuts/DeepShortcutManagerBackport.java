@@ -44,32 +44,55 @@ public class DeepShortcutManagerBackport {
     }
 
     public static List<ShortcutInfoCompat> getForPackage(Context context, LauncherApps mLauncherApps, ComponentName activity, String packageName) {
-        List<ShortcutInfoCompat> shortcutInfoCompats = new ArrayList<>();
         if (Utilities.ATLEAST_MARSHMALLOW) {
-            List<LauncherActivityInfo> infoList = mLauncherApps.getActivityList(packageName, android.os.Process.myUserHandle());
+            return BackportShortcutIndex.getInstance(context).getShortcuts(packageName, activity);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Parses the shortcuts which the launcher activities of the package declare in the manifest.
+     */
+    static List<ShortcutInfoCompatBackport> parsePackage(Context context, String packageName) {
+        List<ShortcutInfoCompatBackport> shortcutInfoCompats = new ArrayList<>();
+        LauncherApps launcherApps =
+                (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        List<LauncherActivityInfo> infoList = launcherApps.getActivityList(packageName,
+                android.os.Process.myUserHandle());
+        if (infoList.isEmpty()) {
+            return shortcutInfoCompats;
+        }
+
+        PackageManager pm = context.getPackageManager();
+        try {
+            Resources resourcesForApplication = pm.getResourcesForApplication(packageName);
+            // The manifest is only read once for all activities
+            Map<String, String> shortcutResources = parseShortcutResources(resourcesForApplication);
             for (LauncherActivityInfo info : infoList) {
-                if (activity == null || activity.equals(info.getComponentName())) {
-                    parsePackageXml(context, info.getComponentName().getPackageName(), info.getComponentName(), shortcutInfoCompats);
+                String resource = shortcutResources.get(info.getComponentName().getClassName());
+                if (resource != null) {
+                    parseShortcutsXml(context, pm, resourcesForApplication, packageName,
+                            info.getComponentName(), resource, shortcutInfoCompats);
                 }
             }
+        } catch (PackageManager.NameNotFoundException | Resources.NotFoundException | XmlPullParserException | IOException | NumberFormatException e) {
+            e.printStackTrace();
         }
         return shortcutInfoCompats;
     }
 
-    private static void parsePackageXml(Context context, String packageName, ComponentName activity, List<ShortcutInfoCompat> shortcutInfoCompats) {
-        PackageManager pm = context.getPackageManager();
-
-        String resource = null;
-        String currActivity = "";
-        String searchActivity = activity.getClassName();
+    /**
+     * Returns the shortcuts resource of each activity in the manifest, by activity name.
+     */
+    private static Map<String, String> parseShortcutResources(Resources resourcesForApplication)
+            throws XmlPullParserException, IOException {
+        Map<String, String> shortcutResources = new HashMap<>();
+        String currActivity = null;
 
         Map<String, String> parsedData = new HashMap<>();
-
+        AssetManager assets = resourcesForApplication.getAssets();
+        XmlResourceParser parseXml = assets.openXmlResourceParser("AndroidManifest.xml");
         try {
-            Resources resourcesForApplication = pm.getResourcesForApplication(packageName);
-            AssetManager assets = resourcesForApplication.getAssets();
-            XmlResourceParser parseXml = assets.openXmlResourceParser("AndroidManifest.xml");
-
             int eventType;
             while ((eventType = parseXml.nextToken()) != XmlPullParser.END_DOCUMENT) {
                 if (eventType == XmlPullParser.START_TAG) {
@@ -79,10 +102,8 @@ public class DeepShortcutManagerBackport {
                         for (int i = 0; i < parseXml.getAttributeCount(); i++) {
                             parsedData.put(parseXml.getAttributeName(i), parseXml.getAttributeValue(i));
                         }
-                        if (parsedData.containsKey("name")) {
-                            currActivity = parsedData.get("name");
-                        }
-                    } else if (name.equals("meta-data") && currActivity.equals(searchActivity)) {
+                        currActivity = parsedData.get("name");
+                    } else if (name.equals("meta-data") && currActivity != null) {
                         parsedData.clear();
                         for (int i = 0; i < parseXml.getAttributeCount(); i++) {
                             parsedData.put(parseXml.getAttributeName(i), parseXml.getAttributeValue(i));
@@ -90,41 +111,52 @@ public class DeepShortcutManagerBackport {
                         if (parsedData.containsKey("name") &&
                                 parsedData.get("name").equals("android.app.shortcuts") &&
                                 parsedData.containsKey("resource")) {
-                            resource = parsedData.get("resource");
+                            shortcutResources.put(currActivity, parsedData.get("resource"));
                         }
                     }
+                } else if (eventType == XmlPullParser.END_TAG) {
+                    String name = parseXml.getName();
+                    if ("activity".equals(name) || "activity-alias".equals(name)) {
+                        currActivity = null;
+                    }
                 }
             }
+        } finally {
+            parseXml.close();
+        }
+        return shortcutResources;
+    }
 
-            if (resource != null) {
-                parseXml = resourcesForApplication.getXml(Integer.parseInt(resource.substring(1)));
-                while ((eventType = parseXml.nextToken()) != XmlPullParser.END_DOCUMENT) {
-                    if (eventType == XmlPullParser.START_TAG) {
-                        if (parseXml.getName().equals("shortcut")) {
-                            ShortcutInfoCompat info = parseShortcut(context,
-                                    activity,
-                                    resourcesForApplication,
-                                    packageName,
-                                    parseXml);
+    private static void parseShortcutsXml(Context context, PackageManager pm, Resources resourcesForApplication, String packageName, ComponentName activity, String resource, List<ShortcutInfoCompatBackport> shortcutInfoCompats) throws XmlPullParserException, IOException {
+        XmlResourceParser parseXml = resourcesForApplication.getXml(Integer.parseInt(resource.substring(1)));
+        try {
+            int eventType;
+            while ((eventType = parseXml.nextToken()) != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG) {
+                    if (parseXml.getName().equals("shortcut")) {
+                        ShortcutInfoCompatBackport info = parseShortcut(context,
+                                activity,
+                                resourcesForApplication,
+                                packageName,
+                                parseXml);
 
-                            if (info != null && info.getId() != null) {
-                                for (ResolveInfo ri : pm.queryIntentActivities(ShortcutInfoCompatBackport.stripPackage(info.makeIntent()), 0)) {
-                                    if (ri.isDefault || ri.activityInfo.exported) {
-                                        shortcutInfoCompats.add(info);
-                                        break;
-                                    }
+                        if (info != null && info.getId() != null) {
+                            for (ResolveInfo ri : pm.queryIntentActivities(ShortcutInfoCompatBackport.stripPackage(info.makeIntent()), 0)) {
+                                if (ri.isDefault || ri.activityInfo.exported) {
+                                    shortcutInfoCompats.add(info);
+                                    break;
                                 }
                             }
                         }
                     }
                 }
             }
-        } catch (PackageManager.NameNotFoundException | Resources.NotFoundException | XmlPullParserException | IOException e) {
-            e.printStackTrace();
+        } finally {
+            parseXml.close();
         }
     }
 
-    private static ShortcutInfoCompat parseShortcut(Context context, ComponentName activity, Resources resourcesForApplication, String packageName, XmlResourceParser parseXml) {
+    private static ShortcutInfoCompatBackport parseShortcut(Context context, ComponentName activity, Resources resourcesForApplication, String packageName, XmlResourceParser parseXml) {
         try {
             return new ShortcutInfoCompatBackport(context, resourcesForApplication, packageName, activity, parseXml);
         } catch (Exception e) {
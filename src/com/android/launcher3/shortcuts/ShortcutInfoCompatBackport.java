@@ -32,7 +32,10 @@ import com.android.launcher3.R;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -134,6 +137,48 @@ public class ShortcutInfoCompatBackport extends ShortcutInfoCompat {
         mIntent.putExtra(USE_PACKAGE, useTargetPackage);
     }
 
+    private ShortcutInfoCompatBackport(Context context, String packageName, ComponentName activity,
+                                       DataInputStream in) throws IOException, URISyntaxException {
+        super(null);
+        mContext = context;
+        mPackageName = packageName;
+        mActivity = activity;
+        mId = in.readUTF();
+        mEnabled = in.readBoolean();
+        mIcon = in.readInt();
+        mShortLabel = in.readUTF();
+        mLongLabel = in.readUTF();
+        mDisabledMessage = in.readUTF();
+        mIntent = Intent.parseUri(in.readUTF(), 0);
+    }
+
+    /**
+     * Reads a shortcut written by {@link #writeTo(DataOutputStream)}
+     */
+    static ShortcutInfoCompatBackport readFrom(Context context, String packageName,
+                                               DataInputStream in) throws IOException {
+        ComponentName activity = new ComponentName(packageName, in.readUTF());
+        try {
+            return new ShortcutInfoCompatBackport(context, packageName, activity, in);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the parsed shortcut, except for the package name
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(mActivity.getClassName());
+        out.writeUTF(mId);
+        out.writeBoolean(mEnabled);
+        out.writeInt(mIcon);
+        out.writeUTF(mShortLabel);
+        out.writeUTF(mLongLabel);
+        out.writeUTF(mDisabledMessage);
+        out.writeUTF(mIntent.toUri(0));
+    }
+
     static Intent stripPackage(Intent intent) {
         intent = new Intent(intent);
         if (!intent.getBooleanExtra(ShortcutInfoCompatBackport.USE_PACKAGE, true)) {
@@ -156,7 +201,8 @@ public class ShortcutInfoCompatBackport extends ShortcutInfoCompat {
 
     @Override
     public Intent makeIntent() {
-        return mIntent;
+        // The shortcut is cached, so callers get a copy they can modify
+        return new Intent(mIntent);
     }
 
     @Override
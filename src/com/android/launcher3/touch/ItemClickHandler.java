@@ -42,8 +42,8 @@ import com.android.launcher3.util.PackageManagerHelper;
 import com.android.launcher3.widget.PendingAppWidgetHostView;
 import com.android.launcher3.widget.WidgetAddFlowHandler;
 
+import org.zimmob.zimlx.model.AppUsageStore;
 import org.zimmob.zimlx.util.Config;
-import org.zimmob.zimlx.util.DbHelper;
 
 import static com.android.launcher3.ItemInfoWithIcon.FLAG_DISABLED_BY_PUBLISHER;
 import static com.android.launcher3.ItemInfoWithIcon.FLAG_DISABLED_LOCKED_USER;
@@ -259,9 +259,8 @@ public class ItemClickHandler {
         }
         if (item instanceof AppInfo) {
             Log.i(TAG, "Clicking App " + item.title);
-            DbHelper db = new DbHelper(mContext);
-            db.updateAppCount(((AppInfo) item).componentName.getPackageName());
-            db.close();
+            AppUsageStore.getInstance(mContext)
+                    .increment(((AppInfo) item).componentName.getPackageName());
         }
 
         launcher.startActivitySafely(v, intent, item);
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Pool of mutable {@link Config#ARGB_8888} bitmaps for reuse.
+ *
+ * Bitmaps are bucketed by their allocation size, so a bitmap which was reconfigured to a smaller
+ * size can still be handed out for its original size. Once the pooled bitmaps exceed the byte
+ * budget, the least recently released ones are dropped.
+ */
+public class BitmapPool {
+
+    private final int mMaxBytes;
+
+    // Allocation size -> pooled bitmaps of that size
+    private final SparseArray<ArrayList<Bitmap>> mBuckets = new SparseArray<>();
+    // All pooled bitmaps, least recently released first
+    private final LinkedHashSet<Bitmap> mReleaseOrder = new LinkedHashSet<>();
+    private int mBytes;
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a mutable bitmap of the given size, either from the pool or newly created. The
+     * content of a pooled bitmap is not cleared.
+     */
+    public Bitmap acquire(int width, int height) {
+        Bitmap bitmap = take(width * height * 4);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, Config.ARGB_8888);
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap.reconfigure(width, height, Config.ARGB_8888);
+        }
+        return bitmap;
+    }
+
+    private synchronized Bitmap take(int byteCount) {
+        ArrayList<Bitmap> bucket = mBuckets.get(byteCount);
+        if (bucket == null || bucket.isEmpty()) {
+            return null;
+        }
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        mReleaseOrder.remove(bitmap);
+        mBytes -= byteCount;
+        return bitmap;
+    }
+
+    /**
+     * Returns {@code bitmap} to the pool. The caller must not use it afterwards.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Config.ARGB_8888) {
+            return;
+        }
+        int byteCount = bitmap.getAllocationByteCount();
+        if (byteCount > mMaxBytes || !mReleaseOrder.add(bitmap)) {
+            return;
+        }
+        ArrayList<Bitmap> bucket = mBuckets.get(byteCount);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            mBuckets.put(byteCount, bucket);
+        }
+        bucket.add(bitmap);
+        mBytes += byteCount;
+
+        Iterator<Bitmap> oldest = mReleaseOrder.iterator();
+        while (mBytes > mMaxBytes) {
+            Bitmap evicted = oldest.next();
+            oldest.remove();
+            int evictedBytes = evicted.getAllocationByteCount();
+            mBuckets.get(evictedBytes).remove(evicted);
+            mBytes -= evictedBytes;
+        }
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mReleaseOrder.clear();
+        mBytes = 0;
+    }
+}
@@ -4,19 +4,31 @@ import android.graphics.Rect;
 
 import com.android.launcher3.ItemInfo;
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * Each row is stored as a bit mask, so a span is checked with one AND per row.
  */
 public class GridOccupancy {
 
-    public final boolean[][] cells;
+    // Bit x of mRows[y] is set if the cell (x, y) is occupied
+    private final long[] mRows;
     private final int mCountX;
     private final int mCountY;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > Long.SIZE) {
+            throw new IllegalArgumentException("Grids are limited to " + Long.SIZE + " columns");
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mRows = new long[countY];
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
     }
 
     /**
@@ -28,32 +40,47 @@ public class GridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        if (spanX <= 0 || spanY <= 0 || spanX > mCountX) {
+            return false;
+        }
+        long validStarts = spanMask(mCountX - spanX + 1);
         for (int y = 0; (y + spanY) <= mCountY; y++) {
-            for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
-                }
+            long vacant = ~0L;
+            for (int j = y; j < y + spanY; j++) {
+                vacant &= ~mRows[j];
+            }
+            // Keep the cells which are followed by enough vacant cells for the span
+            long starts = vacant & validStarts;
+            for (int i = 1; i < spanX && starts != 0; i++) {
+                starts &= vacant >>> i;
+            }
+            if (starts != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(starts);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
     }
 
     public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
-        }
+        System.arraycopy(mRows, 0, dest.mRows, 0, Math.min(mCountY, dest.mCountY));
+    }
+
+    /**
+     * Grids are equal if they have the same size and the same occupied cells
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof GridOccupancy)) return false;
+        GridOccupancy other = (GridOccupancy) obj;
+        return mCountX == other.mCountX && Arrays.equals(mRows, other.mRows);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mCountX + Arrays.hashCode(mRows);
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -62,11 +89,26 @@ public class GridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = spanMask(spanX) << x;
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the occupied cells of {@param shape} are all vacant in this grid, when the
+     * top left corner of the shape is placed at (x, y).
+     */
+    public boolean isRegionVacant(int x, int y, GridOccupancy shape) {
+        if (x < 0 || y < 0 || x + shape.mCountX > mCountX || y + shape.mCountY > mCountY) {
+            return false;
+        }
+        for (int j = 0; j < shape.mCountY; j++) {
+            if ((mRows[y + j] & (shape.mRows[j] << x)) != 0) {
+                return false;
             }
         }
         return true;
@@ -74,9 +116,14 @@ public class GridOccupancy {
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        int width = Math.min(spanX, mCountX - cellX);
+        if (width <= 0) return;
+        long mask = spanMask(width) << cellX;
+        for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
         }
     }
@@ -96,4 +143,11 @@ public class GridOccupancy {
     public void clear() {
         markCells(0, 0, mCountX, mCountY, false);
     }
+
+    /**
+     * Returns a mask with the lowest {@param span} bits set
+     */
+    private static long spanMask(int span) {
+        return span >= Long.SIZE ? ~0L : (1L << span) - 1;
+    }
 }
@@ -101,6 +101,20 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
         mDiffReporter.process(mEntries, tempEntries, rowComparator);
     }
 
+    /**
+     * Reads the previews of the rows from {@code start} to {@code end} (exclusive) ahead of them
+     * being bound.
+     *
+     * @see WidgetPreviewLoader#prefetch
+     */
+    public void prefetchPreviews(int start, int end, int previewSize) {
+        ArrayList<WidgetItem> items = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            items.addAll(mEntries.get(i).widgets);
+        }
+        mWidgetPreviewLoader.prefetch(items, previewSize, previewSize);
+    }
+
     @Override
     public int getItemCount() {
         return mEntries.size();
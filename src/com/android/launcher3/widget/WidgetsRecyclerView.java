@@ -26,6 +26,7 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.OnItemTouchListener;
 
+import com.android.launcher3.BaseActivity;
 import com.android.launcher3.BaseRecyclerView;
 import com.android.launcher3.R;
 
@@ -34,7 +35,13 @@ import com.android.launcher3.R;
  */
 public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouchListener {
 
+    // Number of rows past the visible ones whose previews are read ahead while scrolling
+    private static final int PREFETCH_ROWS = 3;
+
     private WidgetsListAdapter mAdapter;
+    private final int mPreviewSize;
+    private int mPrefetchStart = NO_POSITION;
+    private int mPrefetchEnd = NO_POSITION;
 
     private final int mScrollbarTop;
 
@@ -53,7 +60,17 @@ public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouch
         // API 21 and below only support 3 parameter ctor.
         super(context, attrs, defStyleAttr);
         mScrollbarTop = getResources().getDimensionPixelSize(R.dimen.dynamic_grid_edge_margin);
+        mPreviewSize = WidgetCell.getPresetPreviewSize(
+                BaseActivity.fromContext(context).getDeviceProfile());
         addOnItemTouchListener(this);
+        addOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy != 0) {
+                    prefetchPreviews(dy > 0);
+                }
+            }
+        });
     }
 
     @Override
@@ -139,6 +156,37 @@ public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouch
                 - mScrollbarTop;
     }
 
+    /**
+     * Prefetches the previews of the rows which will be shown next in the scroll direction.
+     */
+    private void prefetchPreviews(boolean scrollingDown) {
+        if (mAdapter == null || isModelNotReady()) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+        int start, end;
+        if (scrollingDown) {
+            int last = layoutManager.findLastVisibleItemPosition();
+            if (last == NO_POSITION) {
+                return;
+            }
+            start = last + 1;
+            end = Math.min(start + PREFETCH_ROWS, mAdapter.getItemCount());
+        } else {
+            end = layoutManager.findFirstVisibleItemPosition();
+            if (end == NO_POSITION) {
+                return;
+            }
+            start = Math.max(end - PREFETCH_ROWS, 0);
+        }
+        if (start >= end || (start == mPrefetchStart && end == mPrefetchEnd)) {
+            return;
+        }
+        mPrefetchStart = start;
+        mPrefetchEnd = end;
+        mAdapter.prefetchPreviews(start, end, mPreviewSize);
+    }
+
     private boolean isModelNotReady() {
         return mAdapter.getItemCount() == 0;
     }
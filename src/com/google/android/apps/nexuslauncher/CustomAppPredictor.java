@@ -5,6 +5,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.os.Handler;
 import android.os.Process;
 import android.os.UserHandle;
 import android.util.Log;
@@ -12,16 +13,17 @@ import android.view.View;
 import android.view.ViewParent;
 
 import com.android.launcher3.AppFilter;
+import com.android.launcher3.LauncherModel;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.allapps.AllAppsContainerView;
 import com.android.launcher3.logging.UserEventDispatcher;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.ComponentKeyMapper;
 
+import org.zimmob.zimlx.predictions.PredictionStore;
 import org.zimmob.zimlx.settings.ui.SettingsActivity;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -32,11 +34,11 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
     private static final String PREDICTION_SET = "pref_prediction_set";
     private static final String PREDICTION_PREFIX = "pref_prediction_count_";
     private static final String HIDDEN_PREDICTIONS_SET_PREF = "pref_hidden_prediction_set";
-    private static final Set<String> EMPTY_SET = new HashSet<>();
     private final Context mContext;
     protected final AppFilter mAppFilter;
     private final SharedPreferences mPrefs;
     private final PackageManager mPackageManager;
+    private final PredictionStore mStore;
 
     protected final static String[] PLACE_HOLDERS = new String[]{
             "com.whatsapp",
@@ -79,23 +81,22 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
         mPrefs = Utilities.getPrefs(context);
         mPrefs.registerOnSharedPreferenceChangeListener(this);
         mPackageManager = context.getPackageManager();
+        mStore = PredictionStore.getInstance(context);
         mUiManager = new UiManager(this);
+        new Handler(LauncherModel.getWorkerLooper()).post(this::migrateLaunchCounts);
     }
 
     public List<ComponentKeyMapper> getPredictions() {
         List<ComponentKeyMapper> list = new ArrayList<>();
         if (isPredictorEnabled()) {
-            clearNonExistingComponents();
-
-            List<String> predictionList = new ArrayList<>(getStringSetCopy());
-
-            Collections.sort(predictionList, (o1, o2) -> Integer.compare(getLaunchCount(o2), getLaunchCount(o1)));
-
-            for (String prediction : predictionList) {
-                ComponentKeyMapper keyMapper = getComponentFromString(prediction);
-                if (!isHiddenApp(mContext, keyMapper.getKey())) {
-                    list.add(keyMapper);
+            List<String> predictionList = mStore.getRanked();
+            Set<String> hiddenApps = getHiddenApps(mContext);
+            for (int i = 0; i < predictionList.size() && list.size() < MAX_PREDICTIONS; i++) {
+                String prediction = predictionList.get(i);
+                if (hiddenApps.contains(prediction) || !checkComponentExists(prediction)) {
+                    continue;
                 }
+                list.add(getComponentFromString(prediction));
             }
 
             for (int i = 0; i < PLACE_HOLDERS.length && list.size() < MAX_PREDICTIONS; i++) {
@@ -105,8 +106,8 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
                     ComponentName componentInfo = intent.getComponent();
                     if (componentInfo != null) {
                         ComponentKey key = new ComponentKey(componentInfo, Process.myUserHandle());
-                        if (!predictionList.contains(key.toString()) && !isHiddenApp(mContext,
-                                key)) {
+                        if (!predictionList.contains(key.toString())
+                                && !hiddenApps.contains(key.toString())) {
                             list.add(new ComponentKeyMapper(mContext, key));
                         }
                     }
@@ -122,52 +123,28 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
         if (isPredictorEnabled() && recursiveIsDrawer(v)) {
             ComponentName componentInfo = intent.getComponent();
             if (componentInfo != null && mAppFilter.shouldShowApp(componentInfo, user)) {
-                clearNonExistingComponents();
-
-                Set<String> predictionSet = getStringSetCopy();
-                SharedPreferences.Editor edit = mPrefs.edit();
-
-                String prediction = new ComponentKey(componentInfo, user).toString();
-                if (predictionSet.contains(prediction)) {
-                    edit.putInt(PREDICTION_PREFIX + prediction, getLaunchCount(prediction) + BOOST_ON_OPEN);
-                } else if (predictionSet.size() < MAX_PREDICTIONS || decayHasSpotFree(predictionSet, edit)) {
-                    predictionSet.add(prediction);
-                }
-
-                edit.putStringSet(PREDICTION_SET, predictionSet);
-                edit.apply();
-
+                mStore.recordLaunch(new ComponentKey(componentInfo, user).toString());
                 mUiManager.onPredictionsUpdated();
             }
         }
     }
 
-    private boolean decayHasSpotFree(Set<String> toDecay, SharedPreferences.Editor edit) {
-        boolean spotFree = false;
-        Set<String> toRemove = new HashSet<>();
-        for (String prediction : toDecay) {
-            int launchCount = getLaunchCount(prediction);
-            if (launchCount > 0) {
-                edit.putInt(PREDICTION_PREFIX + prediction, --launchCount);
-            } else if (!spotFree) {
-                edit.remove(PREDICTION_PREFIX + prediction);
-                toRemove.add(prediction);
-                spotFree = true;
-            }
-        }
-        for (String prediction : toRemove) {
-            toDecay.remove(prediction);
-        }
-        return spotFree;
-    }
-
     /**
-     * Zero-based launch count of a shortcut
-     * @param component serialized component
-     * @return the number of launches, at least zero
+     * Imports the launch counts which older versions kept in the shared preferences.
      */
-    private int getLaunchCount(String component) {
-        return mPrefs.getInt(PREDICTION_PREFIX + component, 0);
+    private void migrateLaunchCounts() {
+        Set<String> predictionSet = mPrefs.getStringSet(PREDICTION_SET, null);
+        if (predictionSet == null) return;
+
+        SharedPreferences.Editor edit = mPrefs.edit();
+        for (String prediction : predictionSet) {
+            // The count was zero-based and boosted by BOOST_ON_OPEN on every launch
+            int launchCount = mPrefs.getInt(PREDICTION_PREFIX + prediction, 0);
+            mStore.addLaunches(prediction, launchCount / BOOST_ON_OPEN + 1);
+            edit.remove(PREDICTION_PREFIX + prediction);
+        }
+        edit.remove(PREDICTION_SET);
+        edit.apply();
     }
 
     protected boolean recursiveIsDrawer(View v) {
@@ -191,15 +168,8 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(SettingsActivity.SHOW_PREDICTIONS_PREF)) {
             if (!isPredictorEnabled()) {
-                Set<String> predictionSet = getStringSetCopy();
-
-                SharedPreferences.Editor edit = mPrefs.edit();
-                for (String prediction : predictionSet) {
-                    Log.i("Predictor", "Clearing " + prediction + " at " + getLaunchCount(prediction));
-                    edit.remove(PREDICTION_PREFIX + prediction);
-                }
-                edit.putStringSet(PREDICTION_SET, EMPTY_SET);
-                edit.apply();
+                Log.i("Predictor", "Clearing predictions");
+                mStore.clear();
             }
 
             mUiManager.onPredictionsUpdated();
@@ -212,35 +182,26 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
         return new ComponentKeyMapper(mContext, new ComponentKey(mContext, str));
     }
 
-    private void clearNonExistingComponents() {
-        Set<String> originalSet = mPrefs.getStringSet(PREDICTION_SET, EMPTY_SET);
-        Set<String> predictionSet = new HashSet<>(originalSet);
-
-        SharedPreferences.Editor edit = mPrefs.edit();
-        for (String prediction : originalSet) {
-            ComponentName cn = new ComponentKey(mContext, prediction).componentName;
-            try {
-                mPackageManager.getActivityInfo(cn, 0);
-            } catch (PackageManager.NameNotFoundException e) {
-                predictionSet.remove(prediction);
-                edit.remove(PREDICTION_PREFIX + prediction);
-                Intent intent = mPackageManager.getLaunchIntentForPackage(cn.getPackageName());
-                if (intent != null) {
-                    ComponentName componentInfo = intent.getComponent();
-                    if (componentInfo != null) {
-                        ComponentKey key = new ComponentKey(componentInfo, Process.myUserHandle());
-                        predictionSet.add(key.toString());
-                    }
-                }
+    /**
+     * Checks whether the activity of a prediction still exists. If it doesn't, its launches are
+     * moved to the launch activity of the same package, if there is one.
+     */
+    private boolean checkComponentExists(String prediction) {
+        ComponentName cn = new ComponentKey(mContext, prediction).componentName;
+        try {
+            mPackageManager.getActivityInfo(cn, 0);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            Intent intent = mPackageManager.getLaunchIntentForPackage(cn.getPackageName());
+            ComponentName componentInfo = intent != null ? intent.getComponent() : null;
+            if (componentInfo != null) {
+                ComponentKey key = new ComponentKey(componentInfo, Process.myUserHandle());
+                mStore.replace(prediction, key.toString());
+            } else {
+                mStore.remove(prediction);
             }
+            return false;
         }
-
-        edit.putStringSet(PREDICTION_SET, predictionSet);
-        edit.apply();
-    }
-
-    private Set<String> getStringSetCopy() {
-        return new HashSet<>(mPrefs.getStringSet(PREDICTION_SET, EMPTY_SET));
     }
 
     static void setComponentNameState(Context context, ComponentKey key, boolean hidden) {
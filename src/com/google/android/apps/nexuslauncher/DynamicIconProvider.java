@@ -116,6 +116,15 @@ public class DynamicIconProvider extends IconProvider {
         return drawable == null ? super.getIcon(launcherActivityInfo, iconDpi, flattenDrawable) : drawable;
     }
 
+    @Override
+    public int getIconResourceId(PackageManager pm, LauncherActivityInfo launcherActivityInfo) {
+        if (isCalendar(launcherActivityInfo.getApplicationInfo().packageName)
+                || DynamicClock.DESK_CLOCK.equals(launcherActivityInfo.getComponentName())) {
+            return 0;
+        }
+        return super.getIconResourceId(pm, launcherActivityInfo);
+    }
+
     @Override
     public String getIconSystemState(final String s) {
         return isCalendar(s) ? mSystemState + " " + getDayOfMonth() : mSystemState;
@@ -14,10 +14,12 @@ import com.android.launcher3.Launcher;
 import com.android.launcher3.LauncherCallbacks;
 import com.android.launcher3.LauncherExterns;
 import com.android.launcher3.R;
+import com.android.launcher3.allapps.AllAppsStore;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.dynamicui.WallpaperColorInfo;
 import com.android.launcher3.util.Themes;
 import com.google.android.apps.nexuslauncher.qsb.QsbAnimationController;
+import com.google.android.apps.nexuslauncher.search.AppSearchProvider;
 import com.google.android.apps.nexuslauncher.search.ItemInfoUpdateReceiver;
 import com.google.android.apps.nexuslauncher.smartspace.SmartspaceController;
 import com.google.android.apps.nexuslauncher.smartspace.SmartspaceView;
@@ -66,6 +68,7 @@ public class NexusLauncher {
     class NexusLauncherCallbacks implements LauncherCallbacks, SharedPreferences.OnSharedPreferenceChangeListener, WallpaperColorInfo.OnChangeListener {
         private Set<SmartspaceView> mSmartspaceViews = Collections.newSetFromMap(new WeakHashMap<>());
         private final FeedReconnector mFeedReconnector = new FeedReconnector();
+        private AllAppsStore.OnUpdateListener mAppsListener;
 
         //private final Runnable mUpdatePredictionsIfResumed = this::updatePredictionsIfResumed;
 
@@ -133,6 +136,12 @@ public class NexusLauncher {
 
             getUpdateReceiver().onCreate();
 
+            AllAppsStore appsStore = mLauncher.getAppsView().getAppsStore();
+            mAppsListener = AppSearchProvider.createAppsListener(appsStore);
+            appsStore.addUpdateListener(mAppsListener);
+            // The apps may already have been bound synchronously by the loader
+            mAppsListener.onAppsUpdated();
+
             //setTargetAppsView(mLauncher.getAppsView());
 
         }
@@ -171,6 +180,8 @@ public class NexusLauncher {
 
             getUpdateReceiver().onDestroy();
 
+            mLauncher.getAppsView().getAppsStore().removeUpdateListener(mAppsListener);
+
             //setTargetAppsView(null);
         }
 
@@ -12,6 +12,7 @@ import android.os.Bundle;
 import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 
@@ -21,6 +22,7 @@ import com.android.launcher3.AppInfo;
 import com.android.launcher3.BuildConfig;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherModel;
+import com.android.launcher3.allapps.AllAppsStore;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.LoaderResults;
@@ -30,21 +32,43 @@ import com.android.launcher3.util.LooperExecutor;
 import org.zimmob.zimlx.ZimAppFilter;
 import org.zimmob.zimlx.allapps.FuzzyAppSearchAlgorithm;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 public class AppSearchProvider extends ContentProvider {
     private static final String[] eK = new String[]{"_id", "suggest_text_1", "suggest_icon_1", "suggest_intent_action", "suggest_intent_data"};
-    private final PipeDataWriter<Future> mPipeDataWriter;
+
+    /**
+     * Returns the icons of all the uris in {@link #EXTRA_URIS} at once. The PNG data of all
+     * icons is concatenated in {@link #EXTRA_ICON_DATA}, the icon of the i-th uri goes from
+     * offset i to offset i + 1 in {@link #EXTRA_ICON_OFFSETS}. Icons which couldn't be loaded, or
+     * didn't fit into the result, are empty and can be loaded through {@link #openFile}.
+     */
+    public static final String METHOD_LOAD_ICONS = "loadIcons";
+    public static final String EXTRA_URIS = "uris";
+    public static final String EXTRA_ICON_DATA = "icon_data";
+    public static final String EXTRA_ICON_OFFSETS = "icon_offsets";
+
+    // Keeps the result well below the binder transaction limit
+    private static final int MAX_ICON_DATA_BYTES = 512 * 1024;
+    private static final int ENCODED_ICON_CACHE_BYTES = 1024 * 1024;
+
+    // Copy of the apps in all apps, which is searched without going through the model thread
+    private static volatile List<AppInfo> sApps;
+    private static final EncodedIconCache sEncodedIcons = new EncodedIconCache();
+
+    private final PipeDataWriter<byte[]> mPipeDataWriter;
     private LooperExecutor mLooper;
     private LauncherAppState mApp;
 
@@ -55,7 +79,7 @@ public class AppSearchProvider extends ContentProvider {
             ParcelFileDescriptor.AutoCloseOutputStream outStream = null;
             try {
                 outStream = new ParcelFileDescriptor.AutoCloseOutputStream(output);
-                ((Bitmap) args.get()).compress(Bitmap.CompressFormat.PNG, 100, outStream);
+                outStream.write(args);
             } catch (Throwable e) {
                 Log.w("AppSearchProvider", "fail to write to pipe", e);
             }
@@ -68,6 +92,26 @@ public class AppSearchProvider extends ContentProvider {
         };
     }
 
+    /**
+     * Returns a listener which keeps the apps searched by {@link #query} in sync with
+     * {@param store} while it is added to the store.
+     */
+    public static AllAppsStore.OnUpdateListener createAppsListener(AllAppsStore store) {
+        return () -> setApps(store.getApps());
+    }
+
+    /**
+     * Sets the apps which are searched by {@link #query}. The apps are copied, as the store
+     * changes them on the main thread while queries are made on binder threads.
+     */
+    private static void setApps(Collection<AppInfo> apps) {
+        ArrayList<AppInfo> copy = new ArrayList<>(apps.size());
+        for (AppInfo app : apps) {
+            copy.add(new AppInfo(app));
+        }
+        sApps = Collections.unmodifiableList(copy);
+    }
+
     public static ComponentKey uriToComponent(final Uri uri, final Context context) {
         return new ComponentKey(ComponentName.unflattenFromString(uri.getQueryParameter("component")),
                 UserManagerCompat.getInstance(context).getUserForSerialNumber(Long.parseLong(uri.getQueryParameter("user"))));
@@ -104,21 +148,95 @@ public class AppSearchProvider extends ContentProvider {
         if ("loadIcon".equals(s)) try {
             final Uri parse = Uri.parse(s2);
             final ComponentKey dl = uriToComponent(parse, this.getContext());
-            final Callable<Bitmap> g = () -> {
-                final AppItemInfoWithIcon d = new AppItemInfoWithIcon(dl);
-                mApp.getIconCache().getTitleAndIcon(d, false);
-                return d.iconBitmap;
-            };
             final Bundle bundle2 = new Bundle();
-            bundle2.putParcelable("suggest_icon_1", mLooper.submit(g).get());
+            bundle2.putParcelable("suggest_icon_1",
+                    loadIcons(Collections.singletonList(dl)).get(0));
             return bundle2;
         } catch (Exception ex) {
             Log.e("AppSearchProvider", "Unable to load icon " + ex);
             return null;
         }
+        if (METHOD_LOAD_ICONS.equals(s)) {
+            ArrayList<String> uris = bundle != null ? bundle.getStringArrayList(EXTRA_URIS) : null;
+            return uris != null ? encodeIcons(uris) : null;
+        }
         return super.call(s, s2, bundle);
     }
 
+    private Bundle encodeIcons(List<String> uris) {
+        ArrayList<ComponentKey> keys = new ArrayList<>(uris.size());
+        for (String uri : uris) {
+            try {
+                keys.add(uriToComponent(Uri.parse(uri), getContext()));
+            } catch (Exception ex) {
+                Log.e("AppSearchProvider", "Unable to parse icon uri " + ex);
+                keys.add(null);
+            }
+        }
+        List<Bitmap> bitmaps;
+        try {
+            bitmaps = loadIcons(keys);
+        } catch (InterruptedException | ExecutionException ex) {
+            Log.e("AppSearchProvider", "Unable to load icons " + ex);
+            return null;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[uris.size() + 1];
+        for (int i = 0; i < uris.size(); i++) {
+            offsets[i] = data.size();
+            byte[] icon = getEncodedIcon(keys.get(i), bitmaps.get(i));
+            if (icon != null && data.size() + icon.length <= MAX_ICON_DATA_BYTES) {
+                data.write(icon, 0, icon.length);
+            }
+        }
+        offsets[uris.size()] = data.size();
+        Bundle result = new Bundle();
+        result.putByteArray(EXTRA_ICON_DATA, data.toByteArray());
+        result.putIntArray(EXTRA_ICON_OFFSETS, offsets);
+        return result;
+    }
+
+    /**
+     * Loads the icons of {@param keys} from the icon cache, which must be accessed on the worker
+     * thread. All icons are loaded in a single task, so that a batch only waits for the worker
+     * thread once. Null keys have null icons.
+     */
+    private List<Bitmap> loadIcons(List<ComponentKey> keys)
+            throws InterruptedException, ExecutionException {
+        return mLooper.submit(() -> {
+            ArrayList<Bitmap> icons = new ArrayList<>(keys.size());
+            for (ComponentKey key : keys) {
+                if (key == null) {
+                    icons.add(null);
+                    continue;
+                }
+                final AppItemInfoWithIcon d = new AppItemInfoWithIcon(key);
+                mApp.getIconCache().getTitleAndIcon(d, false);
+                icons.add(d.iconBitmap);
+            }
+            return icons;
+        }).get();
+    }
+
+    /**
+     * Returns {@param bitmap}, the icon of {@param key}, as PNG, encoding it only if the icon
+     * cache has a different bitmap than the last time.
+     */
+    private byte[] getEncodedIcon(ComponentKey key, Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        EncodedIcon icon = sEncodedIcons.get(key);
+        if (icon == null || icon.bitmap.get() != bitmap) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            icon = new EncodedIcon(bitmap, out.toByteArray());
+            sEncodedIcons.put(key, icon);
+        }
+        return icon.data;
+    }
+
     public int delete(final Uri uri, final String s, final String[] array) {
         throw new UnsupportedOperationException();
     }
@@ -145,12 +263,11 @@ public class AppSearchProvider extends ContentProvider {
         try {
             final ComponentKey dl = uriToComponent(uri, this.getContext());
             final String s2 = "image/png";
-            final Callable<Bitmap> g = () -> {
-                final AppItemInfoWithIcon d = new AppItemInfoWithIcon(dl);
-                mApp.getIconCache().getTitleAndIcon(d, false);
-                return d.iconBitmap;
-            };
-            return openPipeHelper(uri, s2, null, mLooper.submit(g), this.mPipeDataWriter);
+            final byte[] icon = getEncodedIcon(dl, loadIcons(Collections.singletonList(dl)).get(0));
+            if (icon == null) {
+                throw new FileNotFoundException("No icon for " + dl);
+            }
+            return openPipeHelper(uri, s2, null, icon, this.mPipeDataWriter);
         } catch (Exception ex) {
             throw new FileNotFoundException(ex.getMessage());
         }
@@ -161,9 +278,19 @@ public class AppSearchProvider extends ContentProvider {
             Log.e("AppSearchProvider", "Content provider accessed on main thread");
             return new MatrixCursor(AppSearchProvider.eK, 0);
         }
+        String query = uri.getLastPathSegment();
+        if (query == null) {
+            return new MatrixCursor(AppSearchProvider.eK, 0);
+        }
+        List<AppInfo> apps = sApps;
+        if (apps != null) {
+            return this.listToCursor(FuzzyAppSearchAlgorithm.query(getContext(),
+                    query.toLowerCase(), apps, getBaseFilter()));
+        }
+        // All apps wasn't bound yet, search through the model
         List<AppInfo> list;
         try {
-            final f f = new f(uri.getLastPathSegment());
+            final f f = new f(query);
             this.mApp.getModel().enqueueModelUpdateTask(f);
             list = f.eN.get(5, TimeUnit.SECONDS);
         } catch (InterruptedException | ExecutionException | TimeoutException ex) {
@@ -182,6 +309,29 @@ public class AppSearchProvider extends ContentProvider {
         return mBaseFilter;
     }
 
+    private static class EncodedIcon {
+        // Not kept alive by the cache, a new bitmap means that the icon changed
+        final WeakReference<Bitmap> bitmap;
+        final byte[] data;
+
+        EncodedIcon(Bitmap bitmap, byte[] data) {
+            this.bitmap = new WeakReference<>(bitmap);
+            this.data = data;
+        }
+    }
+
+    private static class EncodedIconCache extends LruCache<ComponentKey, EncodedIcon> {
+
+        EncodedIconCache() {
+            super(ENCODED_ICON_CACHE_BYTES);
+        }
+
+        @Override
+        protected int sizeOf(ComponentKey key, EncodedIcon value) {
+            return value.data.length;
+        }
+    }
+
     class f implements Callable<List<AppInfo>>, LauncherModel.ModelUpdateTask {
         private final FutureTask<List<AppInfo>> eN;
         private AllAppsList mAllAppsList;
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Process;
+
+import com.android.launcher3.AppFilter;
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link AppSearchIndex}
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppSearchIndexTest {
+
+    private Context mContext;
+    private AppFilter mFilter;
+    private AppSearchIndex mIndex;
+    // The apps in the order they are shown in the drawer
+    private ArrayList<AppInfo> mApps;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mFilter = new AppFilter();
+        mIndex = new AppSearchIndex();
+        mApps = new ArrayList<>(Arrays.asList(
+                getInfo("white cow"), getInfo("whiteCow"), getInfo("whitecow"),
+                getInfo("cats&Dogs"), getInfo("Alpha")));
+        mIndex.setApps(mApps);
+    }
+
+    @Test
+    public void testQueryMatchesWordStarts() {
+        assertEquals(new HashSet<>(Arrays.asList(key("white cow"), key("whiteCow"))),
+                new HashSet<>(query("cow")));
+        assertEquals(Collections.singletonList(key("cats&Dogs")),
+                query("dog"));
+        assertEquals(Collections.singletonList(key("Alpha")),
+                query("ål"));
+    }
+
+    @Test
+    public void testQueryReusesPreviousMatches() {
+        assertEquals(3, query("w").size());
+        assertEquals(3, query("whi").size());
+        // Matching is case insensitive
+        assertEquals(new HashSet<>(Arrays.asList(key("whiteCow"), key("whitecow"))),
+                new HashSet<>(query("whitecow")));
+        // A shorter query must search all the apps again
+        assertEquals(3, query("wh").size());
+    }
+
+    @Test
+    public void testIndexIsUpdatedIncrementally() {
+        query("c");
+        AppInfo calculator = getInfo("Calculator");
+        mApps.add(calculator);
+        mIndex.addOrUpdateApps(Collections.singletonList(calculator));
+        assertTrue(query("ca").contains(key("Calculator")));
+
+        AppInfo cats = mApps.remove(3);
+        mIndex.removeApps(new ArrayList<>(Collections.singletonList(cats)));
+        assertEquals(Collections.singletonList(key("Calculator")),
+                query("ca"));
+    }
+
+    @Test
+    public void testResultsFollowDrawerOrder() {
+        assertEquals(Arrays.asList(key("white cow"), key("whiteCow"), key("whitecow")),
+                query("w"));
+
+        // The drawer sorts its list in place, e.g. when the sort mode changes
+        Collections.reverse(mApps);
+        assertEquals(Arrays.asList(key("whitecow"), key("whiteCow"), key("white cow")),
+                query("wh"));
+    }
+
+    private ArrayList<ComponentKey> query(String query) {
+        return mIndex.query(mContext, mFilter, mApps, query);
+    }
+
+    private static AppInfo getInfo(String title) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        info.componentName = new ComponentName("Test", title);
+        info.user = Process.myUserHandle();
+        return info;
+    }
+
+    private static ComponentKey key(String title) {
+        return getInfo(title).toComponentKey();
+    }
+}
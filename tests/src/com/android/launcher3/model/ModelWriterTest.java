@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Process;
+
+import com.android.launcher3.AllAppsList;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.ShortcutInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the ordering of the item updates journaled by {@link ModelWriter}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ModelWriterTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private Context mContext;
+    private LauncherModel mModel;
+    private ModelWriter mWriter;
+    private ShortcutInfo mItem;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mModel = LauncherAppState.getInstance(mContext).getModel();
+        mWriter = mModel.getWriter(false /* hasVerticalHotseat */, false /* verifyChanges */);
+
+        mItem = new ShortcutInfo();
+        mItem.itemType = Favorites.ITEM_TYPE_SHORTCUT;
+        mItem.title = "ModelWriterTest";
+        mItem.intent = new Intent(Intent.ACTION_MAIN)
+                .setComponent(new ComponentName(mContext, ModelWriterTest.class));
+        mItem.user = Process.myUserHandle();
+        mItem.usingLowResIcon = true;
+        runOnMainSync(() -> mWriter.addItemToDatabase(mItem, Favorites.CONTAINER_DESKTOP, 0, 0, 0));
+    }
+
+    @After
+    public void tearDown() {
+        runOnMainSync(() -> mWriter.deleteItemFromDatabase(mItem));
+    }
+
+    @Test
+    public void testUpdateWrittenBeforeModelTask() throws Exception {
+        BlockingQueue<Integer> cellX = new ArrayBlockingQueue<>(1);
+        runOnMainSync(() -> {
+            mItem.cellX = 3;
+            mWriter.updateItemInDatabase(mItem);
+            // Queued in the same frame, before the journal would be written on its own
+            mModel.enqueueModelUpdateTask(new BaseModelUpdateTask() {
+                @Override
+                public void execute(LauncherAppState app, BgDataModel dataModel,
+                                    AllAppsList apps) {
+                    cellX.add(readCellX());
+                }
+            });
+        });
+        assertEquals(Integer.valueOf(3), cellX.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private int readCellX() {
+        try (Cursor c = mContext.getContentResolver().query(Favorites.getContentUri(mItem.id),
+                new String[]{Favorites.CELLX}, null, null, null)) {
+            return c.moveToFirst() ? c.getInt(0) : -1;
+        }
+    }
+
+    private static void runOnMainSync(Runnable r) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(r);
+    }
+}
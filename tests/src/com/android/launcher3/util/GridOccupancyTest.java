@@ -46,13 +46,46 @@ public class GridOccupancyTest extends TestCase {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
+    public void testIsRegionVacantShape() {
+        GridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+        GridOccupancy shape = initGrid(2,
+                0, 1,
+                1, 1
+        );
+
+        // Only the occupied cells of the shape need to be vacant
+        assertTrue(grid.isRegionVacant(3, 1, shape));
+        assertTrue(grid.isRegionVacant(0, 1, shape));
+        assertFalse(grid.isRegionVacant(1, 1, shape));
+        assertFalse(grid.isRegionVacant(0, 0, shape));
+        assertFalse(grid.isRegionVacant(4, 0, shape));
+    }
+
+    public void testWideGrid() {
+        GridOccupancy grid = new GridOccupancy(64, 2);
+        grid.markCells(0, 0, 63, 2, true);
+
+        int[] vacant = new int[2];
+        assertTrue(grid.findVacantCell(vacant, 1, 2));
+        assertEquals(63, vacant[0]);
+        assertFalse(grid.findVacantCell(vacant, 2, 1));
+        assertTrue(grid.isRegionVacant(63, 0, 1, 2));
+        assertTrue(grid.isOccupied(62, 1));
+        assertFalse(grid.isOccupied(63, 1));
+    }
+
     private GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;
         GridOccupancy grid = new GridOccupancy(cols, rows);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
-                grid.cells[x][y] = cells[i] != 0;
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
                 i++;
             }
         }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zimmob.zimlx.allapps;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link FuzzyScorer} with the fuzzywuzzy scorer it replaces
+ */
+@RunWith(AndroidJUnit4.class)
+public class FuzzyScorerTest {
+
+    private static final List<String> LABELS = Arrays.asList(
+            "Calculator", "Calendar", "Camera", "Chrome", "Clock", "Contacts", "Drive",
+            "Duo", "Files", "Gmail", "Google", "Google Play Store", "Google Play Music",
+            "Keep Notes", "Maps", "Messages", "Netflix", "News & Weather", "Phone",
+            "Photos", "Play Games", "Settings", "Spotify", "Telegram", "Twitter",
+            "WhatsApp", "WhatsApp Business", "YouTube", "YouTube Music", "Zoom",
+            "Microsoft Word", "Facebook Messenger", "Google Authenticator", "Waze",
+            "Uber Eats", "Amazon Shopping", "Adobe Acrobat Reader: PDF Viewer",
+            "VLC for Android", "Signal", "K-9 Mail", "F-Droid", "7-Zip", "Über",
+            "Café au lait", "Mapy.cz", "Termux:API", "Solid Explorer File Manager",
+            "A very long application label that is longer than sixty four characters");
+
+    private static final List<String> QUERIES = Arrays.asList(
+            "c", "ca", "cal", "calc", "calender", "camra", "g", "go", "goo", "googl",
+            "play", "store", "play store", "music", "yt", "you tube", "whats", "whatsap",
+            "bussines", "msg", "messenger", "fb", "mail", "k9", "maps", "map", "photo",
+            "setings", "pdf", "reader", "vlc", "über", "uber", "cafe", "café", "7z",
+            "termux", "file", "files manager", "long application label",
+            "a very long application label that is longer than sixty four chars");
+
+    @Test
+    public void testScoresMatchFuzzywuzzy() {
+        FuzzyScorer scorer = new FuzzyScorer();
+        WinklerWeightedRatio reference = new WinklerWeightedRatio();
+        List<String> mismatches = new ArrayList<>();
+        for (String query : QUERIES) {
+            String processedQuery = FuzzyScorer.process(query);
+            for (String label : LABELS) {
+                int expected = reference.apply(query, label);
+                int actual = scorer.score(processedQuery, FuzzyScorer.process(label), 0);
+                if (expected != actual) {
+                    mismatches.add(query + " / " + label + ": " + actual + " != " + expected);
+                }
+            }
+        }
+        assertTrue(mismatches.toString(), mismatches.isEmpty());
+    }
+
+    @Test
+    public void testMinScoreKeepsScoresAbove() {
+        FuzzyScorer scorer = new FuzzyScorer();
+        for (String query : QUERIES) {
+            String processedQuery = FuzzyScorer.process(query);
+            for (String label : LABELS) {
+                String processedLabel = FuzzyScorer.process(label);
+                int score = scorer.score(processedQuery, processedLabel, 0);
+                if (score >= 50) {
+                    assertEquals(query + " / " + label,
+                            score, scorer.score(processedQuery, processedLabel, 50));
+                }
+            }
+        }
+    }
+}
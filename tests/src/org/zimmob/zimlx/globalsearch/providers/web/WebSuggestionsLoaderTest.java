@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zimmob.zimlx.globalsearch.providers.web;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link WebSuggestionsLoader}, with an interceptor answering the requests instead of
+ * the network
+ */
+@RunWith(AndroidJUnit4.class)
+public class WebSuggestionsLoaderTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+    private static final String SUGGESTIONS_URL = "https://suggestions.test/complete?q=%s";
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    private WebSuggestionsLoader mLoader;
+    private final BlockingQueue<String> mResponses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> mRequests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<String>> mResults = new ArrayBlockingQueue<>(10);
+
+    @Before
+    public void setup() {
+        mLoader = new WebSuggestionsLoader(new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    Request request = chain.request();
+                    HttpUrl url = request.url();
+                    mRequests.add(url.encodedPath() + "?" + url.encodedQuery());
+                    String body = mResponses.poll();
+                    return new Response.Builder()
+                            .request(request)
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(body != null ? 200 : 404)
+                            .message(body != null ? "OK" : "Not Found")
+                            .body(ResponseBody.create(body != null ? body : "", JSON))
+                            .build();
+                })
+                .build());
+    }
+
+    @Test
+    public void testLoadsAndCaches() throws Exception {
+        enqueue("fa", "facebook", "fast food", "far cry");
+        assertNull(load("fa"));
+        assertEquals(Arrays.asList("facebook", "fast food", "far cry"), awaitResult());
+        assertEquals("/complete?q=fa", takeRequest());
+
+        // Cached queries are answered right away
+        assertEquals(Arrays.asList("facebook", "fast food", "far cry"), load("fa"));
+        assertEquals(0, mRequests.size());
+    }
+
+    @Test
+    public void testPrefixUsedWhileLoading() throws Exception {
+        enqueue("fa", "facebook", "fast food", "far cry");
+        load("fa");
+        awaitResult();
+
+        enqueue("fas", "fast food", "fashion");
+        assertEquals(Arrays.asList("fast food"), load("fas"));
+        assertEquals(Arrays.asList("fast food", "fashion"), awaitResult());
+    }
+
+    @Test
+    public void testSupersededQueriesNotLoaded() throws Exception {
+        enqueue("abc", "abcd");
+        load("a");
+        load("ab");
+        load("abc");
+        assertEquals(Arrays.asList("abcd"), awaitResult());
+        assertEquals("/complete?q=abc", takeRequest());
+        assertEquals(0, mRequests.size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        enqueue("a", "abc");
+        load("a");
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(mLoader::cancel);
+        assertNull(mResults.poll(WebSuggestionsLoader.DEBOUNCE_DELAY * 3, TimeUnit.MILLISECONDS));
+        assertEquals(0, mRequests.size());
+    }
+
+    @Test
+    public void testFailedRequestNotCached() throws Exception {
+        // No response enqueued, so the request fails
+        assertNull(load("x"));
+        assertEquals("/complete?q=x", takeRequest());
+        assertNull(mResults.poll(WebSuggestionsLoader.DEBOUNCE_DELAY * 3, TimeUnit.MILLISECONDS));
+
+        enqueue("x", "xkcd");
+        assertNull(load("x"));
+        assertEquals(Arrays.asList("xkcd"), awaitResult());
+    }
+
+    private void enqueue(String query, String... suggestions) {
+        StringBuilder body = new StringBuilder("[\"").append(query).append("\",[");
+        for (int i = 0; i < suggestions.length; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append('"').append(suggestions[i]).append('"');
+        }
+        body.append("]]");
+        mResponses.add(body.toString());
+    }
+
+    private List<String> load(String query) {
+        List<List<String>> immediate = new ArrayList<>();
+        Function1<List<String>, Unit> callback = suggestions -> {
+            mResults.add(suggestions);
+            return Unit.INSTANCE;
+        };
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                immediate.add(mLoader.load(SUGGESTIONS_URL, query, callback)));
+        return immediate.get(0);
+    }
+
+    private String takeRequest() throws InterruptedException {
+        return mRequests.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private List<String> awaitResult() throws InterruptedException {
+        return mResults.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+}
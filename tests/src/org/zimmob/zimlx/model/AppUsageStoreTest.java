@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zimmob.zimlx.model;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.zimmob.zimlx.util.DbHelper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for {@link AppUsageStore} against the launch counts saved in {@link DbHelper}
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppUsageStoreTest {
+
+    private static final String PACKAGE_1 = "org.zimmob.zimlx.test.usage1";
+    private static final String PACKAGE_2 = "org.zimmob.zimlx.test.usage2";
+
+    private Context mContext;
+    private DbHelper mDb;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDb = new DbHelper(mContext);
+        removeSavedCounts();
+        HashMap<String, Integer> counts = new HashMap<>();
+        counts.put(PACKAGE_1, 7);
+        counts.put(PACKAGE_2, 3);
+        mDb.applyChanges(counts, Collections.emptySet());
+    }
+
+    @After
+    public void tearDown() {
+        removeSavedCounts();
+        mDb.close();
+    }
+
+    @Test
+    public void testFirstSnapshotHasSavedCounts() {
+        // A new store, as returned by the first getInstance after the process started
+        AppUsageStore store = new AppUsageStore(mContext);
+        AppUsageStore.Snapshot snapshot = store.getSnapshot();
+        assertEquals(7, snapshot.getCount(PACKAGE_1));
+        assertEquals(3, snapshot.getCount(PACKAGE_2));
+
+        // Nothing is left to wait for once a snapshot has the saved counts
+        assertFalse(store.runWhenLoaded(() -> { }));
+    }
+
+    private void removeSavedCounts() {
+        HashSet<String> packages = new HashSet<>();
+        packages.add(PACKAGE_1);
+        packages.add(PACKAGE_2);
+        mDb.applyChanges(Collections.emptyMap(), packages);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zimmob.zimlx.predictions;
+
+import android.util.AtomicFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link PredictionStore}
+ */
+@RunWith(AndroidJUnit4.class)
+public class PredictionStoreTest {
+
+    // A real date, far enough from the initial epoch that the first boost scales all scores
+    private static final long NOW = 1546300800000L;
+
+    private File mFile;
+
+    @Before
+    public void setup() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "predictions_test");
+        new AtomicFile(mFile).delete();
+    }
+
+    @After
+    public void tearDown() {
+        new AtomicFile(mFile).delete();
+    }
+
+    @Test
+    public void testAddLaunchesToEmptyStore() {
+        PredictionStore store = new PredictionStore(new AtomicFile(mFile),
+                PredictionStore.CAPACITY, () -> NOW);
+        store.addLaunches("first", 5);
+        store.addLaunches("second", 3);
+
+        assertEquals(5f, store.getTotalScore("first"), 0.001f);
+        assertEquals(3f, store.getTotalScore("second"), 0.001f);
+        assertEquals(Arrays.asList("first", "second"), store.getRanked());
+    }
+}